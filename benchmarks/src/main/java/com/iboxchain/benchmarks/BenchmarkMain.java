@@ -0,0 +1,28 @@
+package com.iboxchain.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks selected on the command line, like the JMH main class, with the GC profiler always on,
+ * so every result reports the allocation rate (gc.alloc.rate.norm is bytes per operation).
+ * <pre>
+ * java -jar target/benchmarks.jar                       # all benchmarks
+ * java -jar target/benchmarks.jar RecordEventBenchmark  # benchmarks matching a regex
+ * java -jar target/benchmarks.jar -rf json -rff result.json
+ * </pre>
+ */
+public class BenchmarkMain {
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions commandLine = new CommandLineOptions(args);
+    Options options = new OptionsBuilder()
+        .parent(commandLine)
+        .addProfiler(GCProfiler.class)
+        .build();
+    new Runner(options).run();
+  }
+}
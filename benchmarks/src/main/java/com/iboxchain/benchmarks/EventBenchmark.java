@@ -0,0 +1,68 @@
+package com.iboxchain.benchmarks;
+
+import com.iboxchain.Event;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing an event: the JSONObject based toJSON against writeJSON into a reused builder,
+ * as done by the sender thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventBenchmark {
+
+  private Event event;
+  private final StringBuilder json = new StringBuilder(512);
+
+  @Setup
+  public void setup() {
+    event = newEvent();
+  }
+
+  static Event newEvent() {
+    Map<String, Object> segmentation = new LinkedHashMap<String, Object>();
+    segmentation.put("country", "Turkey");
+    segmentation.put("city", "Istanbul");
+    segmentation.put("plan", "premium");
+    segmentation.put("items", 3);
+    segmentation.put("price", 19.99);
+    Event event = new Event("purchase");
+    event.setSegmentation(segmentation);
+    event.setSuperProperties(Collections.<String, Object>singletonMap("app_version", "2.4.1"));
+    event.setCount(1);
+    event.setSum(20);
+    event.setDur(1.5);
+    return event;
+  }
+
+  @Benchmark
+  public String toJSON() throws JSONException {
+    return event.toJSON().toString();
+  }
+
+  @Benchmark
+  public int writeJSON() throws JSONException {
+    json.setLength(0);
+    event.writeJSON(json);
+    return json.length();
+  }
+}
@@ -0,0 +1,146 @@
+package com.iboxchain.benchmarks;
+
+import com.iboxchain.Config;
+import com.iboxchain.Countly;
+import com.iboxchain.consumer.PooledTransport;
+import com.iboxchain.metrics.LatencyHistogram;
+import com.iboxchain.metrics.MetricsSnapshot;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives Countly.recordEvent from many threads against a MockCountlyServer and reports the recording rate,
+ * the latency seen by the callers and how many of the recorded events the server received, summing the counts
+ * of aggregated events.
+ * Latencies are reported as the upper bound of their power of two bucket.
+ * <p>
+ * Options, all optional: threads (8), seconds (10), mode (sync, async or batch; batch), batchSize (100),
+ * queueCapacity (8192), overflow (drop or block; block), connections (8), serverThreads (8), checksum (sha1 or
+ * sha256; sha1), salt, aggregationMillis (0, aggregation off), samplingRate (1), rateLimit (events per second of all
+ * events, 0 for none), and the faults of the server: latencyMillis, resetRate, timeoutRate, timeoutMillis, errorRate.
+ * <pre>
+ * java -cp target/benchmarks.jar com.iboxchain.benchmarks.LoadGenerator threads=16 seconds=30 errorRate=0.05
+ * </pre>
+ */
+public class LoadGenerator {
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = options(args);
+    int threads = Integer.parseInt(option(options, "threads", "8"));
+    long seconds = Long.parseLong(option(options, "seconds", "10"));
+    String mode = option(options, "mode", "batch");
+
+    MockCountlyServer server = new MockCountlyServer(0, Integer.parseInt(option(options, "serverThreads", "8")));
+    server.setOptions(options);
+    PooledTransport transport = new PooledTransport(Integer.parseInt(option(options, "connections", "8")), 30000);
+    Countly countly = Countly.newInstance();
+    countly.setTransport(transport);
+    countly.setChecksum("sha256".equals(option(options, "checksum", "sha1"))
+        ? Config.CHECKSUM_SHA256 : Config.CHECKSUM_SHA1, options.get("salt"));
+    if (!"sync".equals(mode)) {
+      countly.setAsyncEnabled(true);
+      countly.setQueueCapacity(Integer.parseInt(option(options, "queueCapacity", "8192")));
+      countly.setOverflowPolicy("drop".equals(option(options, "overflow", "block"))
+          ? Config.OVERFLOW_DROP_NEWEST : Config.OVERFLOW_BLOCK, 1000);
+    }
+    long aggregationMillis = Long.parseLong(option(options, "aggregationMillis", "0"));
+    if (aggregationMillis > 0) {
+      countly.setAggregation(true, aggregationMillis);
+    }
+    if (options.containsKey("samplingRate")) {
+      countly.setSampling(null, Double.parseDouble(options.get("samplingRate")));
+    }
+    double rateLimit = Double.parseDouble(option(options, "rateLimit", "0"));
+    if (rateLimit > 0) {
+      countly.setRateLimit(null, rateLimit, (int) Math.max(1, rateLimit));
+    }
+    if ("batch".equals(mode)) {
+      countly.setBatchSize(Integer.parseInt(option(options, "batchSize", "100")), 64 * 1024, 100);
+    }
+    countly.init(server.url(), "load-test-app-key", Config.TYPE_HTTP_CONSUMER);
+
+    System.out.println("threads=" + threads + ",seconds=" + seconds + ",mode=" + mode + ",options=" + options);
+    LatencyHistogram latency = new LatencyHistogram();
+    AtomicLong recorded = new AtomicLong();
+    long start = System.nanoTime();
+    run(countly, threads, start + TimeUnit.SECONDS.toNanos(seconds), latency, recorded);
+    double elapsed = (System.nanoTime() - start) / 1e9;
+
+    boolean flushed = countly.flush(60000);
+    MetricsSnapshot metrics = countly.getMetrics();
+    countly.shutdown(10000);
+    transport.close();
+    server.stop();
+
+    LatencyHistogram.Snapshot caller = latency.snapshot();
+    System.out.printf("recorded:  %d events, %.0f events/s%n", recorded.get(), recorded.get() / elapsed);
+    System.out.printf("caller:    p50<=%s p99<=%s p999<=%s max<=%s%n", micros(caller.getPercentileNanos(50)),
+        micros(caller.getPercentileNanos(99)), micros(caller.getPercentileNanos(99.9)),
+        micros(caller.getMaxNanos()));
+    System.out.printf("delivered: %d events (%.2f%%) in %d payload entries, %d requests%s%n", server.eventCounts(),
+        recorded.get() == 0 ? 0 : 100.0 * server.eventCounts() / recorded.get(), server.events(), server.requests(),
+        flushed ? "" : ", flush timed out");
+    System.out.println("sdk:       dropped=" + metrics.getEventsDropped() + ",sampledOut="
+        + metrics.getEventsSampledOut() + ",rateLimited=" + metrics.getEventsRateLimited() + ",retried="
+        + metrics.getRequestsRetried() + ",failed=" + metrics.getRequestsFailedByStatus());
+    System.out.println("send:      " + metrics.getSendLatency());
+    System.out.println("server:    " + server);
+  }
+
+  private static void run(final Countly countly, int threads, final long deadline, final LatencyHistogram latency,
+                          final AtomicLong recorded) throws InterruptedException {
+    final Map<String, Object> segmentation = Collections.<String, Object>singletonMap("city", "Istanbul");
+    final CountDownLatch done = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      final String key = "event" + (t % 4);
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          long count = 0;
+          try {
+            while (System.nanoTime() - deadline < 0) {
+              long start = System.nanoTime();
+              countly.recordEvent(key, segmentation, 1, 1);
+              latency.recordSince(start);
+              count++;
+            }
+          } finally {
+            recorded.addAndGet(count);
+            done.countDown();
+          }
+        }
+      }, "load-generator-" + t);
+      thread.start();
+    }
+    done.await();
+  }
+
+  private static String micros(long nanos) {
+    return String.format("%.1fus", nanos / 1000.0);
+  }
+
+  /**
+   * Parses name=value arguments.
+   */
+  static Map<String, String> options(String[] args) {
+    Map<String, String> options = new LinkedHashMap<String, String>();
+    for (String arg : args) {
+      int eq = arg.indexOf('=');
+      if (eq < 1) {
+        throw new IllegalArgumentException("expected name=value: " + arg);
+      }
+      options.put(arg.substring(0, eq), arg.substring(eq + 1));
+    }
+    return options;
+  }
+
+  static String option(Map<String, String> options, String name, String defaultValue) {
+    String value = options.get(name);
+    return value != null ? value : defaultValue;
+  }
+}
@@ -0,0 +1,395 @@
+package com.iboxchain.benchmarks;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Stand-in for the /i and /i/bulk endpoints of a Countly server, for load tests without a real server.
+ * Every request is checked like the server does: the checksum (SHA-1) or checksum256 (SHA-256) of the parameters
+ * followed by the salt has to match, events,
+ * user_details and bulk requests have to be valid JSON. Accepted events and user data updates are counted.
+ * <p>
+ * Faults are injected per request, in this order: latency before anything else, then with the configured
+ * probabilities a connection reset (the connection is closed without a response), a timeout (the response is held
+ * back longer than the SDK's read timeout) or a 503. Faults can be changed while the server runs.
+ * A PooledTransport resends a request once when a reused connection is closed without a response,
+ * so only resets of fresh connections reach the SDK as failures.
+ * <pre>
+ * java -cp target/benchmarks.jar com.iboxchain.benchmarks.MockCountlyServer port=8080 latencyMillis=20 errorRate=0.01
+ * </pre>
+ */
+public class MockCountlyServer {
+
+  private static final byte[] SUCCESS = "{\"result\":\"Success\"}".getBytes();
+  private static final byte[] BAD_REQUEST = "{\"result\":\"Request does not match checksum\"}".getBytes();
+  private static final byte[] UNAVAILABLE = "{\"result\":\"Service unavailable\"}".getBytes();
+
+  private final HttpServer server;
+  private final ExecutorService threads;
+  private final Random random = new Random();
+
+  private volatile long latencyMillis;
+  private volatile double resetRate;
+  private volatile double timeoutRate;
+  private volatile long timeoutMillis = 11000;
+  private volatile double errorRate;
+  private volatile String salt = "";
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong bulkRequests = new AtomicLong();
+  private final AtomicLong events = new AtomicLong();
+  private final AtomicLong eventCounts = new AtomicLong();
+  private final AtomicLong userDetails = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+  private final AtomicLong faults = new AtomicLong();
+
+  /**
+   * Starts the server on 127.0.0.1.
+   *
+   * @param port    port to listen on, 0 for any free port
+   * @param threads threads handling requests
+   */
+  public MockCountlyServer(int port, int threads) throws IOException {
+    // without it a response waits for the delayed ack of the client, capping a connection at ~25 requests/s
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+    this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 128);
+    this.threads = Executors.newFixedThreadPool(threads);
+    server.createContext("/i", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          MockCountlyServer.this.handle(exchange);
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    server.setExecutor(this.threads);
+    server.start();
+  }
+
+  public String url() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  public void stop() {
+    server.stop(0);
+    threads.shutdownNow();
+  }
+
+  public MockCountlyServer setLatency(long millis) {
+    this.latencyMillis = millis;
+    return this;
+  }
+
+  /**
+   * @param rate probability of closing the connection without a response
+   */
+  public MockCountlyServer setResetRate(double rate) {
+    this.resetRate = rate;
+    return this;
+  }
+
+  /**
+   * @param rate   probability of holding the response back
+   * @param millis how long the response is held back before the connection is closed
+   */
+  public MockCountlyServer setTimeoutRate(double rate, long millis) {
+    this.timeoutRate = rate;
+    this.timeoutMillis = millis;
+    return this;
+  }
+
+  /**
+   * @param rate probability of responding 503
+   */
+  public MockCountlyServer setErrorRate(double rate) {
+    this.errorRate = rate;
+    return this;
+  }
+
+  /**
+   * @param salt salt of the app, null for none
+   */
+  public MockCountlyServer setSalt(String salt) {
+    this.salt = salt != null ? salt : "";
+    return this;
+  }
+
+  /**
+   * @return requests accepted, bulk requests included
+   */
+  public long requests() {
+    return requests.get();
+  }
+
+  public long bulkRequests() {
+    return bulkRequests.get();
+  }
+
+  /**
+   * @return events of the accepted requests
+   */
+  public long events() {
+    return events.get();
+  }
+
+  /**
+   * @return sum of the counts of the accepted events, more than events() when events were aggregated
+   */
+  public long eventCounts() {
+    return eventCounts.get();
+  }
+
+  /**
+   * @return user data updates of the accepted requests
+   */
+  public long userDetails() {
+    return userDetails.get();
+  }
+
+  /**
+   * @return requests rejected with 400 for a wrong checksum or invalid parameters
+   */
+  public long rejected() {
+    return rejected.get();
+  }
+
+  /**
+   * @return requests answered with an injected fault
+   */
+  public long faults() {
+    return faults.get();
+  }
+
+  /**
+   * Sets the salt and the faults given as salt, latencyMillis, resetRate, timeoutRate, timeoutMillis and errorRate
+   * options.
+   */
+  MockCountlyServer setOptions(Map<String, String> options) {
+    return setSalt(options.get("salt"))
+        .setLatency(Long.parseLong(LoadGenerator.option(options, "latencyMillis", "0")))
+        .setResetRate(Double.parseDouble(LoadGenerator.option(options, "resetRate", "0")))
+        .setTimeoutRate(Double.parseDouble(LoadGenerator.option(options, "timeoutRate", "0")),
+            Long.parseLong(LoadGenerator.option(options, "timeoutMillis", "11000")))
+        .setErrorRate(Double.parseDouble(LoadGenerator.option(options, "errorRate", "0")));
+  }
+
+  @Override
+  public String toString() {
+    return "requests=" + requests + ",bulkRequests=" + bulkRequests + ",events=" + events
+        + ",eventCounts=" + eventCounts + ",userDetails=" + userDetails + ",rejected=" + rejected + ",faults=" + faults;
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    String params;
+    if ("POST".equals(exchange.getRequestMethod())) {
+      InputStream body = exchange.getRequestBody();
+      if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+        body = new GZIPInputStream(body);
+      }
+      params = read(body);
+    } else {
+      params = exchange.getRequestURI().getRawQuery();
+    }
+    if (latencyMillis > 0) {
+      sleep(latencyMillis);
+    }
+    double draw = random.nextDouble();
+    if (draw < resetRate) {
+      faults.incrementAndGet();
+      // closed by the caller without a response
+      return;
+    }
+    draw -= resetRate;
+    if (draw < timeoutRate) {
+      faults.incrementAndGet();
+      sleep(timeoutMillis);
+      return;
+    }
+    draw -= timeoutRate;
+    if (draw < errorRate) {
+      faults.incrementAndGet();
+      respond(exchange, 503, UNAVAILABLE);
+      return;
+    }
+    boolean bulk = exchange.getRequestURI().getPath().endsWith("/bulk");
+    if (params == null || !accept(params, bulk)) {
+      rejected.incrementAndGet();
+      respond(exchange, 400, BAD_REQUEST);
+      return;
+    }
+    requests.incrementAndGet();
+    if (bulk) {
+      bulkRequests.incrementAndGet();
+    }
+    respond(exchange, 200, SUCCESS);
+  }
+
+  /**
+   * Verifies the checksum and counts the events and user data updates of a request.
+   *
+   * @return false if the request is invalid, nothing is counted then
+   */
+  private boolean accept(String params, boolean bulk) {
+    String algorithm = "SHA-256";
+    String parameter = "&checksum256=";
+    int checksumAt = params.lastIndexOf(parameter);
+    if (checksumAt < 0) {
+      algorithm = "SHA-1";
+      parameter = "&checksum=";
+      checksumAt = params.lastIndexOf(parameter);
+    }
+    if (checksumAt < 0) {
+      return false;
+    }
+    String checksum = params.substring(checksumAt + parameter.length());
+    if (!checksum.equals(hash(algorithm, params.substring(0, checksumAt) + salt))) {
+      return false;
+    }
+    try {
+      Map<String, String> decoded = decode(params.substring(0, checksumAt));
+      long eventCount = 0;
+      long countSum = 0;
+      long userCount = 0;
+      if (bulk) {
+        JSONArray bulkRequests = new JSONArray(decoded.get("requests"));
+        for (int i = 0; i < bulkRequests.length(); i++) {
+          JSONObject request = bulkRequests.getJSONObject(i);
+          if (request.has("events")) {
+            JSONArray requestEvents = request.getJSONArray("events");
+            eventCount += requestEvents.length();
+            countSum += countSum(requestEvents);
+          }
+          if (request.has("user_details")) {
+            userCount++;
+          }
+        }
+      } else {
+        if (decoded.containsKey("events")) {
+          JSONArray requestEvents = new JSONArray(decoded.get("events"));
+          eventCount += requestEvents.length();
+          countSum += countSum(requestEvents);
+        }
+        if (decoded.containsKey("user_details")) {
+          new JSONObject(decoded.get("user_details"));
+          userCount++;
+        }
+      }
+      events.addAndGet(eventCount);
+      eventCounts.addAndGet(countSum);
+      userDetails.addAndGet(userCount);
+      return true;
+    } catch (JSONException e) {
+      return false;
+    } catch (NullPointerException e) {
+      // a missing parameter
+      return false;
+    }
+  }
+
+  private static long countSum(JSONArray events) throws JSONException {
+    long sum = 0;
+    for (int i = 0; i < events.length(); i++) {
+      sum += events.getJSONObject(i).optLong("count", 1);
+    }
+    return sum;
+  }
+
+  private static Map<String, String> decode(String params) throws JSONException {
+    Map<String, String> decoded = new LinkedHashMap<String, String>();
+    for (String param : params.split("&")) {
+      int eq = param.indexOf('=');
+      try {
+        if (eq < 0) {
+          decoded.put(URLDecoder.decode(param, "UTF-8"), "");
+        } else {
+          decoded.put(URLDecoder.decode(param.substring(0, eq), "UTF-8"),
+              URLDecoder.decode(param.substring(eq + 1), "UTF-8"));
+        }
+      } catch (IOException e) {
+        throw new JSONException(e.getMessage());
+      } catch (IllegalArgumentException e) {
+        throw new JSONException(e.getMessage());
+      }
+    }
+    return decoded;
+  }
+
+  private static String hash(String algorithm, String value) {
+    try {
+      byte[] hash = MessageDigest.getInstance(algorithm).digest(value.getBytes("UTF-8"));
+      StringBuilder hex = new StringBuilder(hash.length * 2);
+      for (byte b : hash) {
+        hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String read(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int n;
+    while ((n = in.read(buffer)) >= 0) {
+      out.write(buffer, 0, n);
+    }
+    return out.toString("UTF-8");
+  }
+
+  private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+    exchange.sendResponseHeaders(status, body.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(body);
+    out.close();
+  }
+
+  private static void sleep(long millis) {
+    try {
+      TimeUnit.MILLISECONDS.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Runs the server until the process is stopped, printing its counters every 10 seconds.
+   * Options: port, threads, latencyMillis, resetRate, timeoutRate, timeoutMillis, errorRate, e.g. errorRate=0.01
+   */
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = LoadGenerator.options(args);
+    MockCountlyServer server = new MockCountlyServer(Integer.parseInt(LoadGenerator.option(options, "port", "8080")),
+        Integer.parseInt(LoadGenerator.option(options, "threads", "8")));
+    server.setOptions(options);
+    System.out.println("Mock Countly server listening on " + server.url());
+    for (; ; ) {
+      TimeUnit.SECONDS.sleep(10);
+      System.out.println(server);
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package com.iboxchain.benchmarks;
+
+import com.iboxchain.Config;
+import com.iboxchain.Countly;
+import com.iboxchain.consumer.PooledTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocation of recordEvent on the recording thread, with an Event allocated per call (async) versus events
+ * written into the pre-allocated ring (pooled), with a segmentation map versus the reused EventBuilder. The gc
+ * profiler counts the sender thread as well, which serializes and sends the batches, so the bytes allocated by
+ * the recording thread itself are measured with the ThreadMXBean and printed after every iteration as
+ * "caller allocation".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PooledEventBenchmark {
+
+  @Param({"async", "pooled"})
+  public String mode;
+
+  private MockCountlyServer server;
+  private PooledTransport transport;
+  private Countly countly;
+  private final Map<String, Object> segmentation = Collections.<String, Object>singletonMap("city", "Istanbul");
+
+  @Setup
+  public void setup() throws IOException {
+    server = new MockCountlyServer(0, 4);
+    transport = new PooledTransport(8, 30000);
+    countly = Countly.newInstance();
+    countly.setTransport(transport);
+    countly.setAsyncEnabled(true);
+    countly.setPooledEvents("pooled".equals(mode));
+    countly.setOverflowPolicy(Config.OVERFLOW_BLOCK, 10000);
+    countly.setBatchSize(100, 64 * 1024, 100);
+    countly.init(server.url(), "benchmark-app-key", Config.TYPE_HTTP_CONSUMER);
+  }
+
+  @TearDown
+  public void tearDown() {
+    countly.flush(10000);
+    countly.shutdown(10000);
+    transport.close();
+    server.stop();
+  }
+
+  /**
+   * Allocation of the benchmark thread during an iteration.
+   */
+  @State(Scope.Thread)
+  public static class Caller {
+    private final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private long startBytes;
+    long records;
+
+    @Setup(Level.Iteration)
+    public void start() {
+      records = 0;
+      startBytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @TearDown(Level.Iteration)
+    public void report() {
+      long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - startBytes;
+      System.out.printf("caller allocation: %.2f B/op over %d records%n", records == 0 ? 0.0 : (double) bytes / records,
+          records);
+    }
+  }
+
+  @Benchmark
+  public void recordEvent(Caller caller) {
+    countly.recordEvent("purchase", segmentation, 1, 19.99);
+    caller.records++;
+  }
+
+  @Benchmark
+  public void eventBuilder(Caller caller) {
+    countly.event("purchase").segment("city", "Istanbul").sum(19.99).record();
+    caller.records++;
+  }
+}
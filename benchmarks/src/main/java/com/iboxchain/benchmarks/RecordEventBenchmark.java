@@ -0,0 +1,73 @@
+package com.iboxchain.benchmarks;
+
+import com.iboxchain.Config;
+import com.iboxchain.Countly;
+import com.iboxchain.consumer.PooledTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * recordEvent end to end against a MockCountlyServer in the same JVM.
+ * sync sends every event on the caller's thread, async hands it to the sender thread, batch batches 100 events
+ * per request. Async modes block when the queue is full, so the score is the sustained delivery rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordEventBenchmark {
+
+  @Param({"sync", "async", "batch"})
+  public String mode;
+
+  private MockCountlyServer server;
+  private PooledTransport transport;
+  private Countly countly;
+  private final Map<String, Object> segmentation = Collections.<String, Object>singletonMap("city", "Istanbul");
+
+  @Setup
+  public void setup() throws IOException {
+    server = new MockCountlyServer(0, 4);
+    transport = new PooledTransport(8, 30000);
+    countly = Countly.newInstance();
+    countly.setTransport(transport);
+    if (!"sync".equals(mode)) {
+      countly.setAsyncEnabled(true);
+      countly.setOverflowPolicy(Config.OVERFLOW_BLOCK, 10000);
+    }
+    if ("batch".equals(mode)) {
+      countly.setBatchSize(100, 64 * 1024, 100);
+    }
+    countly.init(server.url(), "benchmark-app-key", Config.TYPE_HTTP_CONSUMER);
+  }
+
+  @TearDown
+  public void tearDown() {
+    countly.flush(10000);
+    countly.shutdown(10000);
+    transport.close();
+    server.stop();
+  }
+
+  @Benchmark
+  public void recordEvent() {
+    countly.recordEvent("purchase", segmentation, 1, 20);
+  }
+}
@@ -0,0 +1,54 @@
+package com.iboxchain.benchmarks;
+
+import com.iboxchain.Config;
+import com.iboxchain.consumer.HttpConsumer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the parameters of a GET request: encoding, hashing and the checksum of a batch of events.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+
+  @Param({"1", "100"})
+  public int events;
+
+  private HttpConsumer consumer;
+  private String eventsJson;
+
+  @Setup
+  public void setup() throws Exception {
+    consumer = new HttpConsumer("http://localhost", "benchmark-app-key", "benchmark-device-id", null, null);
+    StringBuilder json = new StringBuilder().append('[');
+    for (int i = 0; i < events; i++) {
+      if (i > 0) {
+        json.append(',');
+      }
+      EventBenchmark.newEvent().writeJSON(json);
+    }
+    eventsJson = json.append(']').toString();
+  }
+
+  @Benchmark
+  public String prepareRequestData() throws UnsupportedEncodingException {
+    return consumer.prepareRequestData(eventsJson, Config.TYPE_SEND_EVENT);
+  }
+}
@@ -0,0 +1,68 @@
+package com.iboxchain.benchmarks;
+
+import com.iboxchain.Config;
+import com.iboxchain.Countly;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording an event with numeric segments through a segmentation map versus the EventBuilder.
+ * Events are aggregated so the score is the cost of recording, not of sending; the gc profiler shows
+ * the allocation of the map and the boxed values per event, and for the builder, which is reused by every event
+ * of the thread, only the lookup key of the aggregator.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SegmentationBenchmark {
+
+  private MockCountlyServer server;
+  private Countly countly;
+  private long items;
+
+  @Setup
+  public void setup() throws IOException {
+    server = new MockCountlyServer(0, 1);
+    countly = Countly.newInstance();
+    countly.setAggregation(true, 60000);
+    countly.init(server.url(), "benchmark-app-key", Config.TYPE_HTTP_CONSUMER);
+  }
+
+  @TearDown
+  public void tearDown() {
+    countly.shutdown(10000);
+    server.stop();
+  }
+
+  @Benchmark
+  public void map() {
+    Map<String, Object> segmentation = new HashMap<String, Object>();
+    segmentation.put("country", "Turkey");
+    segmentation.put("items", (items++ & 7));
+    segmentation.put("price", 19.99);
+    countly.recordEvent("purchase", segmentation, 1, 19.99);
+  }
+
+  @Benchmark
+  public void builder() {
+    countly.event("purchase").segment("country", "Turkey").segment("items", items++ & 7).segment("price", 19.99)
+        .sum(19.99).record();
+  }
+}
@@ -0,0 +1,43 @@
+package com.iboxchain.benchmarks;
+
+import com.iboxchain.utils.CommonUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unique event timestamps under contention, every recorded event takes one.
+ * Compare the throughput per thread count; run with -t to try other counts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimestampBenchmark {
+
+  @Benchmark
+  @Threads(1)
+  public long oneThread() {
+    return CommonUtil.currentTimestampMs();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public long fourThreads() {
+    return CommonUtil.currentTimestampMs();
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public long allCpus() {
+    return CommonUtil.currentTimestampMs();
+  }
+}
@@ -0,0 +1,49 @@
+package com.iboxchain.benchmarks;
+
+import com.iboxchain.UserData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the user_details parameter of a user data update.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserDataBenchmark {
+
+  private UserData userData;
+
+  @Setup
+  public void setup() {
+    userData = UserData.builder()
+        .name("First name Last name")
+        .username("nickname")
+        .email("test@test.com")
+        .organization("Tester")
+        .phone("+123456789")
+        .gender("M")
+        .byear(1987)
+        .customProperty("country", "Turkey")
+        .customProperty("city", "Istanbul")
+        .build();
+  }
+
+  @Benchmark
+  public String getDataForRequest() {
+    return userData.getDataForRequest();
+  }
+}
@@ -0,0 +1,67 @@
+package com.iboxchain.consumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Form-encoding a value while hashing it and writing the hex checksum parameter, the work RequestWriter does for
+ * every request. In the same package as RequestWriter, which is not part of the public API.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumBenchmark {
+
+  private static final OutputStream DISCARD = new OutputStream() {
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+  };
+
+  @Param({"256", "4096", "65536"})
+  public int bytes;
+
+  @Param({"sha1", "sha256"})
+  public String algorithm;
+
+  private String value;
+  private Checksum checksum;
+
+  @Setup
+  public void setup() {
+    StringBuilder json = new StringBuilder(bytes);
+    while (json.length() < bytes) {
+      json.append("{\"key\":\"purchase\",\"count\":1,\"segmentation\":{\"city\":\"Istanbul\"}},");
+    }
+    json.setLength(bytes);
+    value = json.toString();
+    checksum = "sha1".equals(algorithm) ? Checksum.sha1("salt") : Checksum.sha256("salt");
+  }
+
+  @Benchmark
+  public void encodeAndChecksum() throws IOException {
+    RequestWriter writer = new RequestWriter(DISCARD, checksum);
+    writer.raw("events=").encoded(value);
+    writer.writeChecksum().flush();
+  }
+}
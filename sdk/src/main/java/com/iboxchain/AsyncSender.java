@@ -0,0 +1,758 @@
+package com.iboxchain;
+
+import com.iboxchain.metrics.Metrics;
+import com.iboxchain.spool.Spool;
+import com.iboxchain.utils.BoundedQueue;
+import org.apache.log4j.Logger;
+import org.json.JSONException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decouples recording from delivery: callers only enqueue events (and, in bulk mode, user data updates),
+ * the workers of the shared SenderPool drain the queue, one at a time, batch the events and hand
+ * every batch to the handler.
+ * With a spool, events are first appended to the spool and batches are read back
+ * from it; a batch is acknowledged only after it was sent, failed batches are retried.
+ * Without a spool a failed batch is held in memory and retried while new events wait in the queue.
+ * Retries back off as told by the RetryPolicy; while the CircuitBreaker is open nothing is sent at all.
+ */
+class AsyncSender {
+
+  interface Handler {
+    /**
+     * @param batch events of one app key and device id, or bulk request objects
+     * @throws Exception if the events were not delivered
+     */
+    void send(EventBatcher.Batch batch) throws Exception;
+  }
+
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  // events handled per turn before the worker moves on to the next sender
+  private static final int MAX_EVENTS_PER_TURN = 256;
+  private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  // Event or UserDataRequest
+  private final BoundedQueue<Object> queue;
+  // pre-allocated events recorded in pooled mode, null otherwise
+  private final EventRing ring;
+  private final int overflowPolicy;
+  private final long blockTimeoutNanos;
+  private final EventBatcher batcher;
+  // reused to serialize events for the spool
+  private final StringBuilder record = new StringBuilder(256);
+  private final Spool spool;
+  private final long syncIntervalNanos;
+  private final Handler handler;
+  private final RetryPolicy retryPolicy;
+  private final CircuitBreaker breaker;
+  private final SenderPool pool;
+  // set while a worker runs this sender
+  private final AtomicBoolean inTurn = new AtomicBoolean();
+  private final Metrics metrics;
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong flushRequested = new AtomicLong();
+  private final Object flushLock = new Object();
+  private long flushCompleted;
+
+  private volatile boolean running = true;
+  private volatile boolean terminated;
+  // flush ticket handled last, only used in a turn
+  private long flushed;
+
+  // spool position behind the last record in the batcher
+  private long batchPosition;
+  // batch that failed and waits for its retry, only without a spool
+  private EventBatcher.Batch pending;
+  // failed attempts of the pending or the spooled batch
+  private int attempts;
+  private long retryAtNanos;
+  private long lastSyncNanos;
+  // records the spool dropped so far, already counted in the metrics
+  private long spoolDropped;
+
+  private Logger log = Logger.getLogger(AsyncSender.class);
+
+  AsyncSender(int capacity, int overflowPolicy, long blockTimeoutMillis, EventBatcher batcher, Handler handler) {
+    this(capacity, overflowPolicy, blockTimeoutMillis, batcher, null, 0, handler,
+        new RetryPolicy(Config.RETRY_MAX_ATTEMPTS, Config.RETRY_BASE_DELAY_MILLIS, Config.RETRY_MAX_DELAY_MILLIS),
+        new CircuitBreaker(Config.CIRCUIT_FAILURE_THRESHOLD, Config.CIRCUIT_OPEN_MILLIS), SenderPool.shared(),
+        new Metrics(), false);
+  }
+
+  /**
+   * @param spool              spool for undelivered events, null to deliver from memory only
+   * @param syncIntervalMillis how often the spool is forced to disk
+   * @param breaker            breaker shared with the other senders to the same server
+   * @param pool               pool whose workers run this sender
+   * @param metrics            metrics counting the delivered, retried and dropped events
+   * @param pooled             true to record events into a ring of capacity pre-allocated events, see {@link #claim()}
+   */
+  AsyncSender(int capacity, int overflowPolicy, long blockTimeoutMillis, EventBatcher batcher, Spool spool,
+              long syncIntervalMillis, Handler handler, RetryPolicy retryPolicy, CircuitBreaker breaker,
+              SenderPool pool, Metrics metrics, boolean pooled) {
+    this.queue = new BoundedQueue<Object>(capacity);
+    this.ring = pooled ? new EventRing(capacity) : null;
+    this.overflowPolicy = overflowPolicy;
+    this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+    this.batcher = batcher;
+    this.spool = spool;
+    this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+    this.handler = handler;
+    this.retryPolicy = retryPolicy;
+    this.breaker = breaker;
+    this.metrics = metrics;
+    if (spool != null) {
+      this.batchPosition = spool.position();
+      this.spoolDropped = spool.droppedRecords();
+    }
+    this.lastSyncNanos = System.nanoTime();
+    this.pool = pool;
+    pool.register(this);
+  }
+
+  /**
+   * Enqueue an event, applying the overflow policy when the queue is full.
+   *
+   * @param event event to deliver
+   * @return false if the event (or, for drop-oldest, nothing) could not be queued
+   */
+  boolean offer(Event event) {
+    return enqueue(event);
+  }
+
+  /**
+   * Enqueue a user data update for the bulk endpoint, applying the overflow policy when the queue is full.
+   *
+   * @param request user data update to deliver
+   * @return false if the update could not be queued
+   */
+  boolean offer(UserDataRequest request) {
+    return enqueue(request);
+  }
+
+  boolean isPooled() {
+    return ring != null;
+  }
+
+  /**
+   * Claims a pre-allocated event in pooled mode, applying the overflow policy when all are in use.
+   * Drop-oldest drops the new event instead, the oldest one may be serialized right now.
+   * The caller fills {@link #event(long)} and then has to {@link #publish(long)} it right away.
+   *
+   * @return sequence of the claimed event, -1 if the event is dropped
+   */
+  long claim() {
+    if (!running) {
+      metrics.eventsDropped(1);
+      return -1;
+    }
+    long sequence = ring.claim();
+    if (sequence >= 0) {
+      return sequence;
+    }
+    if (overflowPolicy == Config.OVERFLOW_BLOCK) {
+      long deadline = System.nanoTime() + blockTimeoutNanos;
+      do {
+        signal();
+        LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+        sequence = ring.claim();
+        if (sequence >= 0) {
+          return sequence;
+        }
+      } while (running && deadline - System.nanoTime() > 0);
+    }
+    dropped(true);
+    return -1;
+  }
+
+  /**
+   * @return the claimed event, reset it before filling it in
+   */
+  Event event(long sequence) {
+    return ring.event(sequence);
+  }
+
+  void publish(long sequence) {
+    ring.publish(sequence);
+    signal();
+    if (terminated) {
+      // claimed before the shutdown, published after the worker emptied the ring
+      discardQueued();
+    }
+  }
+
+  private boolean enqueue(Object event) {
+    if (!running) {
+      if (event instanceof Event) {
+        metrics.eventsDropped(1);
+      }
+      return false;
+    }
+    if (!offerOrOverflow(event)) {
+      return false;
+    }
+    if (terminated) {
+      // passed the running check before the shutdown, queued after the worker emptied the queue
+      discardQueued();
+      return false;
+    }
+    return true;
+  }
+
+  private boolean offerOrOverflow(Object event) {
+    if (queue.offer(event)) {
+      signal();
+      return true;
+    }
+    switch (overflowPolicy) {
+      case Config.OVERFLOW_DROP_OLDEST:
+        do {
+          Object oldest = queue.poll();
+          if (oldest != null) {
+            dropped(oldest instanceof Event);
+          }
+        } while (!queue.offer(event));
+        signal();
+        return true;
+      case Config.OVERFLOW_BLOCK:
+        long deadline = System.nanoTime() + blockTimeoutNanos;
+        do {
+          signal();
+          LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+          if (queue.offer(event)) {
+            return true;
+          }
+        } while (running && deadline - System.nanoTime() > 0);
+        dropped(event instanceof Event);
+        return false;
+      default:
+        dropped(event instanceof Event);
+        return false;
+    }
+  }
+
+  int queueSize() {
+    return queue.size() + (ring != null ? ring.size() : 0);
+  }
+
+  long droppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * @return bytes of the spool not yet delivered, 0 without a spool
+   */
+  long spoolBytes() {
+    return spool != null ? spool.pendingBytes() : 0;
+  }
+
+  /**
+   * Deliver every event queued before this call and wait until it was sent.
+   *
+   * @param timeoutMillis max time to wait
+   * @return false if the timeout elapsed first
+   */
+  boolean flush(long timeoutMillis) {
+    long ticket = flushRequested.incrementAndGet();
+    pool.wakeUp();
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    synchronized (flushLock) {
+      while (flushCompleted < ticket) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0 || terminated || !pool.isAlive()) {
+          return false;
+        }
+        try {
+          flushLock.wait(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Stop accepting events, deliver what is already queued and wait for the worker to finish this sender.
+   * Events the worker can not deliver any more are kept in the spool, without a spool they are counted as dropped.
+   *
+   * @param timeoutMillis max time to wait for the queue to drain
+   */
+  void shutdown(long timeoutMillis) {
+    running = false;
+    pool.wakeUp();
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    synchronized (flushLock) {
+      while (!terminated) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0 || !pool.isAlive()) {
+          return;
+        }
+        try {
+          flushLock.wait(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  boolean hasSpool() {
+    return spool != null;
+  }
+
+  /**
+   * Called by a worker before it calls {@link #hasWork()} or {@link #process()}; the worker that got the turn
+   * has to {@link #endTurn()} it.
+   *
+   * @return false if another worker runs this sender
+   */
+  boolean startTurn() {
+    return inTurn.compareAndSet(false, true);
+  }
+
+  void endTurn() {
+    inTurn.set(false);
+  }
+
+  boolean isTerminated() {
+    return terminated;
+  }
+
+  /**
+   * Called by a worker in its turn.
+   *
+   * @return true if the sender has queued events, a pending flush or has to terminate,
+   * false while a failed batch waits for its retry
+   */
+  boolean hasWork() {
+    if (terminated) {
+      return false;
+    }
+    if (!running) {
+      return true;
+    }
+    if (pending != null && System.nanoTime() - retryAtNanos < 0) {
+      return false;
+    }
+    return !queue.isEmpty() || (ring != null && !ring.isEmpty()) || flushRequested.get() != flushed;
+  }
+
+  /**
+   * Does one turn of work, called by a worker in its turn.
+   *
+   * @return 0 if there is more work right away, otherwise nanos until the next timed work
+   */
+  long process() {
+    if (terminated) {
+      return IDLE_PARK_NANOS;
+    }
+    if (pending != null) {
+      long now = System.nanoTime();
+      if (!running) {
+        // last attempt before shutting down
+        retryAtNanos = now;
+      }
+      if (now - retryAtNanos >= 0) {
+        sendPending(now);
+      }
+      if (pending != null) {
+        if (!running) {
+          terminate();
+          return IDLE_PARK_NANOS;
+        }
+        return Math.max(1, retryAtNanos - now);
+      }
+    }
+    long requested = flushRequested.get();
+    if (requested != flushed) {
+      // everything recorded before the flush request is already counted in the queue size
+      for (int n = queueSize(); n > 0 && pending == null; n--) {
+        if (!batchNext()) {
+          break;
+        }
+      }
+      if (pending == null) {
+        flushBatch();
+      }
+      if (pending != null) {
+        // the flush completes once the failed batch was retried
+        return 0;
+      }
+      flushed = requested;
+      synchronized (flushLock) {
+        flushCompleted = requested;
+        flushLock.notifyAll();
+      }
+      return 0;
+    }
+
+    int handled = 0;
+    while (pending == null && handled < MAX_EVENTS_PER_TURN && batchNext()) {
+      handled++;
+    }
+    if (handled > 0) {
+      return 0;
+    }
+    if (!running) {
+      terminate();
+      return IDLE_PARK_NANOS;
+    }
+
+    long now = System.nanoTime();
+    if (spool != null) {
+      deliverSpooled(now);
+      if (now - lastSyncNanos >= syncIntervalNanos) {
+        syncSpool(now);
+      }
+    }
+    if (batcher.isExpired(now)) {
+      flushBatch();
+      return 0;
+    }
+
+    long parkNanos = batcher.isEmpty() ? IDLE_PARK_NANOS : Math.min(IDLE_PARK_NANOS, batcher.remainingNanos(now));
+    if (spool != null) {
+      parkNanos = Math.min(parkNanos, syncIntervalNanos);
+    }
+    return Math.max(1, parkNanos);
+  }
+
+  private void terminate() {
+    if (pending == null) {
+      flushBatch();
+    }
+    long dropped = 0;
+    if (pending != null) {
+      dropped = pending.eventCount;
+      pending = null;
+    }
+    dropped += drainQueued();
+    if (dropped > 0) {
+      log.error("Send events failed(countly-sdk-java), dropping undelivered events on shutdown: \n dropped="
+          + dropped);
+      metrics.eventsDropped(dropped);
+    }
+    if (spool != null) {
+      try {
+        spool.close();
+      } catch (Throwable e) {
+        log.error("Close spool failed(countly-sdk-java)", e);
+      }
+    }
+    synchronized (flushLock) {
+      terminated = true;
+      flushCompleted = flushRequested.get();
+      flushLock.notifyAll();
+    }
+    // producers that raced with the shutdown see terminated and discard their events themselves
+    discardQueued();
+  }
+
+  /**
+   * Drops events queued after the worker terminated, counting them as dropped. Synchronized because
+   * producers call it as well, while the ring only allows one consumer at a time.
+   */
+  private synchronized void discardQueued() {
+    long dropped = 0;
+    for (; ; ) {
+      if (ring != null && ring.peek() != null) {
+        ring.release();
+        dropped++;
+        continue;
+      }
+      Object event = queue.poll();
+      if (event == null) {
+        break;
+      }
+      if (event instanceof Event) {
+        dropped++;
+      }
+    }
+    metrics.eventsDropped(dropped);
+  }
+
+  /**
+   * Batches the oldest event of the ring, or else the oldest queued event or user data update.
+   *
+   * @return false if nothing was queued
+   */
+  private boolean batchNext() {
+    if (ring != null) {
+      Event event = ring.peek();
+      if (event != null) {
+        try {
+          batch(event);
+        } finally {
+          ring.release();
+        }
+        return true;
+      }
+    }
+    Object event = queue.poll();
+    if (event == null) {
+      return false;
+    }
+    batch(event);
+    return true;
+  }
+
+  /**
+   * Empties the queue and the ring once the last batch was sent or given up; events that are still there
+   * are kept in the spool, without a spool they are dropped.
+   *
+   * @return number of dropped events
+   */
+  private long drainQueued() {
+    long dropped = 0;
+    for (; ; ) {
+      Object event = ring != null ? ring.peek() : null;
+      if (event != null) {
+        try {
+          if (!append(event)) {
+            dropped++;
+          }
+        } finally {
+          ring.release();
+        }
+        continue;
+      }
+      event = queue.poll();
+      if (event == null) {
+        return dropped;
+      }
+      if (!append(event) && event instanceof Event) {
+        dropped++;
+      }
+    }
+  }
+
+  private void batch(Object event) {
+    if (spool != null) {
+      if (!append(event) && event instanceof Event) {
+        // too large for a segment or the spool failed, the batcher only ever holds spooled records
+        metrics.eventsDropped(1);
+      }
+      deliverSpooled(System.nanoTime());
+      return;
+    }
+    EventBatcher.Batch full;
+    if (event instanceof Event) {
+      long start = System.nanoTime();
+      try {
+        full = batcher.add((Event) event);
+      } catch (JSONException e) {
+        log.error("Serialize event failed(countly-sdk-java), dropping it", e);
+        metrics.eventsDropped(1);
+        return;
+      }
+      metrics.serializeLatency().recordSince(start);
+    } else {
+      full = batcher.add((UserDataRequest) event);
+    }
+    send(full);
+    if (pending == null && batcher.isFull()) {
+      send(batcher.drain());
+    }
+  }
+
+  /**
+   * Appends an event or user data update to the spool.
+   *
+   * @return false without a spool or if it could not be appended
+   */
+  private boolean append(Object event) {
+    if (spool == null) {
+      return false;
+    }
+    try {
+      record.setLength(0);
+      if (event instanceof Event) {
+        long start = System.nanoTime();
+        EventBatcher.writeRecord((Event) event, record);
+        metrics.serializeLatency().recordSince(start);
+      } else {
+        batcher.writeRecord((UserDataRequest) event, record);
+      }
+      spool.append(record.toString());
+    } catch (Throwable e) {
+      log.error("Spool event failed(countly-sdk-java), dropping it", e);
+      return false;
+    }
+    long dropped = spool.droppedRecords();
+    if (dropped != spoolDropped) {
+      // the spool was full, user data updates are counted as events as well
+      metrics.eventsDropped(dropped - spoolDropped);
+      spoolDropped = dropped;
+    }
+    return true;
+  }
+
+  private void flushBatch() {
+    if (spool == null) {
+      send(batcher.drain());
+      return;
+    }
+    long now = System.nanoTime();
+    deliverSpooled(now);
+    if (now - retryAtNanos >= 0) {
+      sendSpooled(batcher.drain(), batchPosition);
+    }
+    syncSpool(now);
+  }
+
+  /**
+   * Moves spooled records into the batcher and sends every batch that is full,
+   * unless delivery is paused after a failure.
+   */
+  private void deliverSpooled(long now) {
+    if (now - retryAtNanos < 0) {
+      return;
+    }
+    try {
+      for (; ; ) {
+        if (batcher.isFull() && !sendSpooled(batcher.drain(), batchPosition)) {
+          return;
+        }
+        String record = spool.read();
+        if (record == null) {
+          return;
+        }
+        EventBatcher.Batch full = batcher.add(record);
+        if (full != null && !sendSpooled(full, batchPosition)) {
+          return;
+        }
+        batchPosition = spool.position();
+      }
+    } catch (Throwable e) {
+      log.error("Read spool failed(countly-sdk-java)", e);
+    }
+  }
+
+  /**
+   * @return false if the batch was not delivered, its records are read from the spool again later
+   */
+  private boolean sendSpooled(EventBatcher.Batch batch, long position) {
+    if (batch == null) {
+      return true;
+    }
+    long now = System.nanoTime();
+    if (!breaker.allowRequest()) {
+      retrySpooled(now + Math.max(breaker.remainingNanos(now), retryPolicy.delayNanos(1)));
+      return false;
+    }
+    Throwable failure = deliver(batch);
+    if (failure != null && RetryPolicy.isRetriable(failure)) {
+      attempts++;
+      metrics.requestRetried();
+      log.error("Send events failed(countly-sdk-java), retrying from spool: \n attempts=" + attempts, failure);
+      retrySpooled(now + retryPolicy.delayNanos(attempts));
+      return false;
+    }
+    if (failure != null) {
+      log.error("Send events rejected(countly-sdk-java), dropping batch", failure);
+      metrics.eventsDropped(batch.eventCount);
+    }
+    attempts = 0;
+    spool.ack(position);
+    return true;
+  }
+
+  /**
+   * Puts the batched records back into the spool, they are read again at retryAt.
+   */
+  private void retrySpooled(long retryAt) {
+    batcher.drain();
+    spool.rewind();
+    batchPosition = spool.position();
+    retryAtNanos = retryAt;
+  }
+
+  private void syncSpool(long now) {
+    lastSyncNanos = now;
+    try {
+      spool.sync();
+    } catch (Throwable e) {
+      log.error("Sync spool failed(countly-sdk-java)", e);
+    }
+  }
+
+  /**
+   * Sends a batch from memory, a batch that failed with a retriable error stays pending.
+   */
+  private void send(EventBatcher.Batch batch) {
+    if (batch == null) {
+      return;
+    }
+    pending = batch;
+    attempts = 0;
+    sendPending(System.nanoTime());
+  }
+
+  private void sendPending(long now) {
+    if (!breaker.allowRequest()) {
+      retryAtNanos = now + Math.max(breaker.remainingNanos(now), retryPolicy.delayNanos(1));
+      return;
+    }
+    Throwable failure = deliver(pending);
+    if (failure == null) {
+      pending = null;
+      return;
+    }
+    if (!RetryPolicy.isRetriable(failure)) {
+      log.error("Send events rejected(countly-sdk-java), dropping batch", failure);
+      metrics.eventsDropped(pending.eventCount);
+      pending = null;
+      return;
+    }
+    attempts++;
+    if (!retryPolicy.canRetry(attempts)) {
+      log.error("Send events failed(countly-sdk-java), dropping batch: \n attempts=" + attempts, failure);
+      metrics.eventsDropped(pending.eventCount);
+      pending = null;
+      return;
+    }
+    metrics.requestRetried();
+    log.error("Send events failed(countly-sdk-java), retrying: \n attempts=" + attempts, failure);
+    retryAtNanos = now + retryPolicy.delayNanos(attempts);
+  }
+
+  /**
+   * @return the failure, or null if the batch was delivered
+   */
+  private Throwable deliver(EventBatcher.Batch batch) {
+    Throwable failure = null;
+    try {
+      handler.send(batch);
+    } catch (Throwable e) {
+      failure = e;
+    }
+    breaker.onResult(failure);
+    if (failure == null) {
+      metrics.requestSent(batch.eventCount);
+    } else {
+      metrics.requestFailed(RetryPolicy.statusOf(failure));
+    }
+    return failure;
+  }
+
+  private void signal() {
+    pool.signal();
+  }
+
+  private void dropped(boolean event) {
+    if (event) {
+      metrics.eventsDropped(1);
+    }
+    long dropped = droppedCount.incrementAndGet();
+    if (Config.IS_LOG_ENABLE) {
+      log.info("Event queue full(countly-sdk-java): \n dropped=" + dropped);
+    }
+  }
+}
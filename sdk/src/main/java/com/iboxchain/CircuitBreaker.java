@@ -0,0 +1,96 @@
+package com.iboxchain;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stops sending to a server that keeps failing. After failureThreshold consecutive retriable failures the
+ * circuit opens and every send is skipped without touching the network; once openMillis passed a single
+ * probe is let through, which closes the circuit on success and opens it again on failure.
+ * Thread safe, shared by the sending threads and the async sender of a Countly instance.
+ */
+class CircuitBreaker {
+
+  private final int failureThreshold;
+  private final long openNanos;
+  private final Ticker ticker;
+  private final AtomicInteger failures = new AtomicInteger();
+  private final AtomicBoolean probing = new AtomicBoolean();
+  private volatile boolean open;
+  private volatile long openedAt;
+
+  CircuitBreaker(int failureThreshold, long openMillis) {
+    this(failureThreshold, openMillis, Ticker.SYSTEM);
+  }
+
+  CircuitBreaker(int failureThreshold, long openMillis, Ticker ticker) {
+    this.failureThreshold = Math.max(1, failureThreshold);
+    this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    this.ticker = ticker;
+  }
+
+  /**
+   * @return true if the caller may send now; a caller let through must report the result
+   */
+  boolean allowRequest() {
+    if (!open) {
+      return true;
+    }
+    if (ticker.nanoTime() - openedAt < openNanos) {
+      return false;
+    }
+    return probing.compareAndSet(false, true);
+  }
+
+  /**
+   * @return nanos until a probe is let through, 0 if the circuit is closed
+   */
+  long remainingNanos(long nowNanos) {
+    if (!open) {
+      return 0;
+    }
+    return Math.max(0, openNanos - (nowNanos - openedAt));
+  }
+
+  boolean isOpen() {
+    return open;
+  }
+
+  /**
+   * The server answered, even if it rejected the request.
+   */
+  void onSuccess() {
+    failures.set(0);
+    if (open) {
+      open = false;
+      probing.set(false);
+    }
+  }
+
+  /**
+   * The server did not answer or answered with a retriable error.
+   */
+  void onFailure() {
+    if (open) {
+      openedAt = ticker.nanoTime();
+      probing.set(false);
+    } else if (failures.incrementAndGet() >= failureThreshold) {
+      openedAt = ticker.nanoTime();
+      open = true;
+    }
+  }
+
+  /**
+   * Reports the result of a send that was let through.
+   *
+   * @param e the failure, null on success
+   */
+  void onResult(Throwable e) {
+    if (e == null || !RetryPolicy.isRetriable(e)) {
+      onSuccess();
+    } else {
+      onFailure();
+    }
+  }
+}
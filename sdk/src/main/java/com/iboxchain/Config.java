@@ -6,6 +6,37 @@ public class Config {
   public static String DEVICE_ID;
   public static int CONSUMER_TYPE;
   public static boolean IS_LOG_ENABLE = false;
+  public static boolean IS_ASYNC_ENABLE = false;
+  public static int QUEUE_CAPACITY = 8192;
+  public static int OVERFLOW_POLICY = Config.OVERFLOW_DROP_NEWEST;
+  public static long OVERFLOW_BLOCK_TIMEOUT_MILLIS = 100;
+  public static int BATCH_MAX_EVENTS = 1;
+  public static int BATCH_MAX_BYTES = 4096;
+  public static long BATCH_LINGER_MILLIS = 1000;
+  public static int HTTP_METHOD = Config.HTTP_METHOD_GET;
+  public static String SPOOL_DIR;
+  public static int SPOOL_SEGMENT_BYTES = 8 * 1024 * 1024;
+  public static long SPOOL_MAX_BYTES = 256L * 1024 * 1024;
+  public static long SPOOL_SYNC_INTERVAL_MILLIS = 1000;
+  public static String LOG_CONSUMER_DIR = "countly-logs";
+  public static long LOG_CONSUMER_MAX_FILE_BYTES = 128L * 1024 * 1024;
+  public static long LOG_CONSUMER_ROTATE_INTERVAL_MILLIS = 60 * 60 * 1000;
+  public static long LOG_CONSUMER_FLUSH_INTERVAL_MILLIS = 1000;
+  public static int SENDER_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+  public static boolean IS_BULK_ENABLE = false;
+  public static int BULK_MAX_REQUESTS = 100;
+  public static int BULK_MAX_BYTES = 1024 * 1024;
+  public static int RETRY_MAX_ATTEMPTS = 5;
+  public static long RETRY_BASE_DELAY_MILLIS = 500;
+  public static long RETRY_MAX_DELAY_MILLIS = 60 * 1000;
+  public static int CIRCUIT_FAILURE_THRESHOLD = 5;
+  public static long CIRCUIT_OPEN_MILLIS = 30 * 1000;
+  public static boolean IS_GZIP_ENABLE = false;
+  public static int CHECKSUM_ALGORITHM = Config.CHECKSUM_SHA1;
+  public static String CHECKSUM_SALT;
+  public static boolean IS_AGGREGATION_ENABLE = false;
+  public static long AGGREGATION_WINDOW_MILLIS = 10 * 1000;
+  public static boolean IS_POOLED_EVENTS_ENABLE = false;
 
   public static final String SDK_NAME = "countly-sdk-java";
   public static final String SDK_VERSION = "1.0.0";
@@ -14,4 +45,11 @@ public class Config {
   public static final int TYPE_LOG_CONSUMER = 101;
   public static final int TYPE_SEND_EVENT = 200;
   public static final int TYPE_SEND_USER_DATA = 201;
+  public static final int OVERFLOW_DROP_NEWEST = 300;
+  public static final int OVERFLOW_DROP_OLDEST = 301;
+  public static final int OVERFLOW_BLOCK = 302;
+  public static final int HTTP_METHOD_GET = 400;
+  public static final int HTTP_METHOD_POST = 401;
+  public static final int CHECKSUM_SHA1 = 500;
+  public static final int CHECKSUM_SHA256 = 501;
 }
@@ -1,15 +1,30 @@
 package com.iboxchain;
 
+import com.iboxchain.consumer.Checksum;
 import com.iboxchain.consumer.HttpConsumer;
+import com.iboxchain.consumer.LogConsumer;
+import com.iboxchain.consumer.PooledTransport;
+import com.iboxchain.consumer.Transport;
+import com.iboxchain.consumer.UrlConnectionTransport;
+import com.iboxchain.metrics.Metrics;
+import com.iboxchain.metrics.MetricsSnapshot;
+import com.iboxchain.spool.Spool;
 import org.apache.log4j.Logger;
-import org.json.JSONArray;
 import org.json.JSONException;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class is the public API for the Countly Java SDK.
@@ -17,17 +32,97 @@ import java.util.concurrent.ConcurrentHashMap;
  * recordEvent: send event data
  * sendUserData: send user data
  * registerSuperProperties: set public properties
+ * <p>
+ * sharedInstance() is configured by the static fields of Config. Instances created by newInstance()
+ * have their own configuration, consumers and queue, while the sender threads are shared by all instances.
  */
 public class Countly {
 
+  // max time init waits for the previous sender to close the spool or to write its last log lines
+  private static final long SENDER_RELEASE_TIMEOUT_MILLIS = 30000;
+
   private HttpConsumer mHttpConsumer;
 
-  private ConcurrentHashMap<String, Object> superProperties;
+  private LogConsumer mLogConsumer;
+
+  // immutable snapshot, replaced as a whole when the properties change
+  private volatile Map<String, Object> superProperties = Collections.emptyMap();
+
+  private final Object superPropertiesLock = new Object();
+
+  private volatile AsyncSender asyncSender;
+
+  // EventBuilder of each recording thread, reused once it recorded its event
+  private final ThreadLocal<EventBuilder> builders = new ThreadLocal<EventBuilder>();
+
+  // sender that was shut down while it still used its spool or log consumer, see releaseSender()
+  private AsyncSender stoppingSender;
+
+  private volatile EventAggregator aggregator;
+
+  private volatile Transport transport;
+
+  // null for the shared instance, which is configured by Config
+  private final Settings settings;
+
+  private volatile String serverURL;
+
+  // user data updates are queued for the bulk endpoint
+  private volatile boolean bulkEnabled;
+
+  // shared by the calling threads and the async sender
+  private volatile CircuitBreaker breaker =
+      new CircuitBreaker(Config.CIRCUIT_FAILURE_THRESHOLD, Config.CIRCUIT_OPEN_MILLIS);
+
+  // survives init, so the counters and the registered MBean cover the whole life of the instance
+  private final Metrics metrics = new Metrics(new Metrics.Gauges() {
+    @Override
+    public long queueDepth() {
+      AsyncSender sender = asyncSender;
+      return sender != null ? sender.queueSize() : 0;
+    }
+
+    @Override
+    public long spoolBytes() {
+      AsyncSender sender = asyncSender;
+      return sender != null ? sender.spoolBytes() : 0;
+    }
+
+    @Override
+    public long openConnections() {
+      Transport current = transport;
+      return current instanceof PooledTransport ? ((PooledTransport) current).openConnections() : 0;
+    }
+  });
+
+  private final EventLimiter limiter = new EventLimiter(metrics);
+
+  // timers of startEvent by event key
+  private final ConcurrentMap<String, EventTimer> timedEvents = new ConcurrentHashMap<String, EventTimer>();
+
+  private ObjectName mbeanName;
 
   private Logger log = Logger.getLogger(Countly.class);
 
   private Countly() {
+    this(null);
+  }
 
+  private Countly(Settings settings) {
+    this.settings = settings;
+  }
+
+  /**
+   * Creates a Countly instance with its own configuration, e.g. for another app key or another server.
+   * The configuration starts with the defaults in Config; the setters of the instance only change the instance.
+   * Async senders of all instances share the Config.SENDER_THREADS sender threads, a sender waiting for a slow
+   * server holds up one of them only; pass the same transport to {@link #setTransport(Transport)} to share
+   * connections as well.
+   *
+   * @return new, not initialized Countly instance
+   */
+  public static Countly newInstance() {
+    return new Countly(new Settings());
   }
 
   public Countly init(String serverURL, String appKey, int type) {
@@ -37,27 +132,92 @@ public class Countly {
   /**
    * Initializes the Countly SDK. Call from your main method.
    * Must be called before other SDK methods can be used.
+   * Calling it again stops the previous async sender, which delivers its queued events with the previous settings;
+   * with a spool or a log consumer it first waits until that sender closed the spool or wrote its last lines.
    *
    * @param serverURL   URL of the Countly server to submit data to
    * @param appKey      app key for the application being tracked; find in the Countly Dashboard under Management &gt; Applications
-   * @param type        Must be Config.TYPE_HTTP_CONSUMER
+   * @param type        Config.TYPE_HTTP_CONSUMER to send data to the server, Config.TYPE_LOG_CONSUMER to write it
+   *                    to local log files
    * @param httpHeaders customize httpHeaders
    * @return Countly instance for easy method chaining
    */
-  public Countly init(String serverURL, String appKey, int type, Map<String, String> httpHeaders) {
+  public Countly init(final String serverURL, String appKey, int type, Map<String, String> httpHeaders) {
     if (Config.IS_LOG_ENABLE) {
       log.info("Init Countly(countly-sdk-java): \n serverURL=" + serverURL + ",appKey=" + appKey + "\n type=" + type + ",httpHeaders=" + httpHeaders);
     }
-    Config.SERVER_URL = serverURL;
-    Config.APP_KEY = appKey;
-    if (type == Config.TYPE_LOG_CONSUMER) {
-      Config.CONSUMER_TYPE = Config.TYPE_LOG_CONSUMER;
-    } else {
-      Config.CONSUMER_TYPE = Config.TYPE_HTTP_CONSUMER;
+    Settings active = settings != null ? settings : new Settings();
+    active.consumerType = type == Config.TYPE_LOG_CONSUMER ? Config.TYPE_LOG_CONSUMER : Config.TYPE_HTTP_CONSUMER;
+    String deviceId = new BigInteger(64, new SecureRandom()).toString(16);
+    if (settings == null) {
+      Config.SERVER_URL = serverURL;
+      Config.APP_KEY = appKey;
+      Config.CONSUMER_TYPE = active.consumerType;
+      Config.DEVICE_ID = deviceId;
+    }
+    superProperties = Collections.emptyMap();
+    closeAggregator();
+    stopSender(0);
+    this.serverURL = serverURL;
+    final HttpConsumer httpConsumer = new HttpConsumer(serverURL, appKey, deviceId, httpHeaders,
+        transport != null ? transport : new UrlConnectionTransport(), active.gzipEnabled, metrics,
+        active.checksumAlgorithm == Config.CHECKSUM_SHA256
+            ? Checksum.sha256(active.checksumSalt) : Checksum.sha1(active.checksumSalt));
+    mHttpConsumer = httpConsumer;
+    if (mLogConsumer != null && !releaseSender()) {
+      log.error("Close log consumer failed(countly-sdk-java), the previous sender still writes to it");
+    }
+    closeLogConsumer();
+    if (active.consumerType == Config.TYPE_LOG_CONSUMER) {
+      try {
+        mLogConsumer = new LogConsumer(active.logConsumerDir, active.logConsumerMaxFileBytes,
+            active.logConsumerRotateIntervalMillis, active.logConsumerFlushIntervalMillis, appKey, deviceId);
+      } catch (IOException e) {
+        log.error("Open log consumer failed(countly-sdk-java): \n dir=" + active.logConsumerDir, e);
+      }
+    }
+    // the sender keeps the consumers of this init, a later init must not redirect the events queued so far
+    final LogConsumer logConsumer = mLogConsumer;
+    Spool spool = null;
+    if (active.spoolDir != null && !releaseSender()) {
+      log.error("Open spool failed(countly-sdk-java), the previous sender still uses it: \n dir=" + active.spoolDir);
+    } else if (active.spoolDir != null) {
+      try {
+        spool = new Spool(new File(active.spoolDir), active.spoolSegmentBytes, active.spoolMaxBytes);
+      } catch (IOException e) {
+        log.error("Open spool failed(countly-sdk-java): \n dir=" + active.spoolDir, e);
+      }
+    }
+    bulkEnabled = active.bulkEnabled;
+    breaker = new CircuitBreaker(active.circuitFailureThreshold, active.circuitOpenMillis);
+    if (active.asyncEnabled || active.batchMaxEvents > 1 || spool != null || active.bulkEnabled
+        || active.pooledEventsEnabled) {
+      EventBatcher batcher = new EventBatcher(active.batchMaxEvents, active.batchMaxBytes,
+          TimeUnit.MILLISECONDS.toNanos(active.batchLingerMillis), active.bulkMaxRequests, active.bulkMaxBytes,
+          appKey, deviceId);
+      asyncSender = new AsyncSender(active.queueCapacity, active.overflowPolicy,
+          active.overflowBlockTimeoutMillis, batcher, spool, active.spoolSyncIntervalMillis,
+          new AsyncSender.Handler() {
+            @Override
+            public void send(EventBatcher.Batch batch) throws Exception {
+              if (batch.requests != null) {
+                sendBulk(httpConsumer, logConsumer, serverURL, batch.requests);
+              } else {
+                Countly.this.send(httpConsumer, logConsumer, serverURL, batch.events, Config.TYPE_SEND_EVENT,
+                    batch.appKey, batch.deviceId);
+              }
+            }
+          }, new RetryPolicy(active.retryMaxAttempts, active.retryBaseDelayMillis, active.retryMaxDelayMillis),
+          breaker, SenderPool.shared(), metrics, active.pooledEventsEnabled);
+    }
+    if (active.aggregationEnabled) {
+      aggregator = new EventAggregator(active.aggregationWindowMillis, new EventAggregator.Sink() {
+        @Override
+        public void emit(Event event) {
+          deliver(event);
+        }
+      }, metrics);
     }
-    Config.DEVICE_ID = new BigInteger(64, new SecureRandom()).toString(16);
-    mHttpConsumer = new HttpConsumer(httpHeaders);
-    superProperties = new ConcurrentHashMap<String, Object>();
     return this;
   }
 
@@ -92,42 +252,246 @@ public class Countly {
    * @param dur          duration of an event
    */
   public void recordEvent(String key, Map<String, Object> segmentation, int count, double sum, double dur) {
+    recordEvent(null, null, key, segmentation, count, sum, dur);
+  }
+
+  /**
+   * Records a custom event on behalf of another device or user, e.g. an end user of a server application.
+   * Batched events are grouped by device id; a batch with events of several devices is sent to the bulk endpoint.
+   *
+   * @param deviceId     device or user id the event is recorded for, null for the device id of this instance
+   * @param key          name of the custom event, required, must not be the empty string
+   * @param segmentation segmentation dictionary to associate with the event, can be null
+   * @param count        count to associate with the event, should be more than zero
+   * @param sum          sum to associate with the event
+   * @param dur          duration of an event
+   */
+  public void recordEvent(String deviceId, String key, Map<String, Object> segmentation, int count, double sum,
+                          double dur) {
+    recordEvent(null, deviceId, key, segmentation, count, sum, dur);
+  }
+
+  /**
+   * Records a custom event on behalf of another app and device.
+   *
+   * @param appKey       app key the event is recorded for, null for the app key of this instance
+   * @param deviceId     device or user id the event is recorded for, null for the device id of this instance
+   * @param key          name of the custom event, required, must not be the empty string
+   * @param segmentation segmentation dictionary to associate with the event, can be null
+   * @param count        count to associate with the event, should be more than zero
+   * @param sum          sum to associate with the event
+   * @param dur          duration of an event
+   */
+  public void recordEvent(String appKey, String deviceId, String key, Map<String, Object> segmentation, int count,
+                          double sum, double dur) {
+    record(appKey, deviceId, key, segmentation, null, count, sum, dur);
+  }
+
+  /**
+   * Starts building an event whose segments are set without a segmentation map and without boxing,
+   * see {@link EventBuilder}.
+   *
+   * @param key name of the custom event, required, must not be the empty string
+   * @return builder recording the event when its record method is called, reused for the next event of the thread
+   */
+  public EventBuilder event(String key) {
+    EventBuilder builder = builders.get();
+    if (builder == null) {
+      builder = new EventBuilder(this);
+      builders.set(builder);
+    } else if (!builder.isRecorded()) {
+      // the thread builds several events at once, the others get a builder of their own
+      builder = new EventBuilder(this);
+    }
+    return builder.reset(key);
+  }
 
+  /**
+   * Records an event with a segmentation map or segments, either can be null.
+   * The segments belong to an EventBuilder that reuses them afterwards, so they are copied if they are kept.
+   */
+  void record(String appKey, String deviceId, String key, Map<String, Object> segmentation, Segments segments,
+              int count, double sum, double dur) {
     if (key == null || key.length() < 1){
       return;
     }
+    metrics.eventRecorded();
+    double scale = limiter.admit(key);
+    if (scale == 0) {
+      return;
+    }
+    if (scale != 1) {
+      count = limiter.scale(count, scale);
+      sum *= scale;
+      dur *= scale;
+    }
 
     if (Config.IS_LOG_ENABLE) {
-      log.info("RecordEvent params(countly-sdk-java): \n key=" + key + ",segmentation=" + segmentation + ",count=" + count
-          + ",sun=" + sum + ",dur=" + dur);
+      log.info("RecordEvent params(countly-sdk-java): \n key=" + key + ",segmentation="
+          + (segments != null ? segments : segmentation) + ",count=" + count
+          + ",sun=" + sum + ",dur=" + dur + "\n appKey=" + appKey + ",deviceId=" + deviceId);
     }
 
-    for (Map.Entry<String, Object> item : superProperties.entrySet()) {
-      segmentation.put(item.getKey(), item.getValue());
+    EventAggregator aggregator = this.aggregator;
+    if (aggregator != null && aggregator.add(emptyToNull(appKey), emptyToNull(deviceId), key, segmentation,
+        segments, superProperties, count, sum, dur)) {
+      return;
+    }
+    AsyncSender sender = asyncSender;
+    if (sender != null && sender.isPooled()) {
+      long sequence = sender.claim();
+      if (sequence >= 0) {
+        Event event = sender.event(sequence);
+        event.reset(key);
+        fill(event, appKey, deviceId, segmentation, count, sum, dur);
+        event.copySegments(segments);
+        sender.publish(sequence);
+      }
+      return;
     }
-
     Event event = new Event(key);
+    fill(event, appKey, deviceId, segmentation, count, sum, dur);
+    event.setSegments(segments != null ? segments.copy() : null);
+    deliver(event);
+  }
+
+  private void fill(Event event, String appKey, String deviceId, Map<String, Object> segmentation, int count,
+                    double sum, double dur) {
+    event.setAppKey(emptyToNull(appKey));
+    event.setDeviceId(emptyToNull(deviceId));
     event.setSegmentation(segmentation);
+    event.setSuperProperties(superProperties);
     event.setCount(count);
-    event.setSum((int) sum);
+    event.setSum(sum);
     event.setDur(dur);
+  }
 
-    JSONArray jsonArray = new JSONArray();
+  private void deliver(Event event) {
+    if (asyncSender != null) {
+      asyncSender.offer(event);
+      return;
+    }
+    StringBuilder json = new StringBuilder(256).append('[');
+    long start = System.nanoTime();
     try {
-      jsonArray.put(event.toJSON());
-      String url = Config.SERVER_URL + "/i?" + mHttpConsumer.prepareRequestData(jsonArray.toString(), Config.TYPE_SEND_EVENT);
-      mHttpConsumer.sendData(url);
+      event.writeJSON(json);
     } catch (JSONException e) {
-      e.printStackTrace();
+      log.error("Serialize event failed(countly-sdk-java), dropping it", e);
+      metrics.eventsDropped(1);
+      return;
+    }
+    metrics.serializeLatency().recordSince(start);
+    sendNow(json.append(']').toString(), Config.TYPE_SEND_EVENT, event.getAppKey(), event.getDeviceId());
+  }
+
+  /**
+   * Sends on the caller's thread without retrying. While the circuit breaker is open the data is dropped
+   * right away instead of letting every caller wait for a server that is down.
+   */
+  private void sendNow(String data, int type, String appKey, String deviceId) {
+    CircuitBreaker breaker = this.breaker;
+    int events = type == Config.TYPE_SEND_EVENT ? 1 : 0;
+    if (!breaker.allowRequest()) {
+      if (Config.IS_LOG_ENABLE) {
+        log.info("Server unavailable(countly-sdk-java), request dropped: \n type=" + type);
+      }
+      metrics.eventsDropped(events);
+      return;
+    }
+    Exception failure = null;
+    try {
+      send(mHttpConsumer, mLogConsumer, serverURL(), data, type, appKey, deviceId);
+      metrics.requestSent(events);
     } catch (HttpConsumer.HttpConsumerException e) {
+      failure = e;
       e.printStackTrace();
     } catch (IOException e) {
+      failure = e;
       e.printStackTrace();
+    } finally {
+      breaker.onResult(failure);
+    }
+    if (failure != null) {
+      metrics.requestFailed(RetryPolicy.statusOf(failure));
+      metrics.eventsDropped(events);
+    }
+  }
+
+  /**
+   * Starts a timer for an event. Stopping or closing the timer records the event with the time passed in seconds
+   * as its dur. Timers are independent of each other, so the same event can be timed by many threads at once.
+   * With aggregation enabled, frequent timings add up to one event per window whose dur is the total time.
+   *
+   * @param key name of the custom event, required, must not be the empty string
+   * @return the started timer
+   */
+  public EventTimer startTimer(String key) {
+    return startTimer(key, null);
+  }
+
+  /**
+   * Starts a timer for an event, see {@link #startTimer(String)}.
+   *
+   * @param key          name of the custom event, required, must not be the empty string
+   * @param segmentation segmentation the event is recorded with when the timer is stopped, can be null
+   * @return the started timer
+   */
+  public EventTimer startTimer(String key, Map<String, Object> segmentation) {
+    return new EventTimer(this, key, segmentation);
+  }
+
+  /**
+   * Starts timing an event that is ended by {@link #endEvent(String)}, e.g. from another method or thread.
+   * An event key can be timed once at a time; use {@link #startTimer(String)} to time the same event concurrently.
+   *
+   * @param key name of the custom event, required, must not be the empty string
+   * @return false if the event is already being timed
+   */
+  public boolean startEvent(String key) {
+    if (key == null || key.length() < 1) {
+      return false;
+    }
+    return timedEvents.putIfAbsent(key, new EventTimer(this, key, null)) == null;
+  }
+
+  public boolean endEvent(String key) {
+    return endEvent(key, null, 1, 0);
+  }
+
+  public boolean endEvent(String key, Map<String, Object> segmentation) {
+    return endEvent(key, segmentation, 1, 0);
+  }
+
+  /**
+   * Ends an event started by {@link #startEvent(String)} and records it with the time passed in seconds as its dur.
+   *
+   * @param key          name of the custom event
+   * @param segmentation segmentation dictionary to associate with the event, can be null
+   * @param count        count to associate with the event, should be more than zero
+   * @param sum          sum to associate with the event
+   * @return false if the event was not started
+   */
+  public boolean endEvent(String key, Map<String, Object> segmentation, int count, double sum) {
+    EventTimer timer = key != null ? timedEvents.remove(key) : null;
+    if (timer == null) {
+      return false;
     }
+    timer.stop(segmentation, count, sum);
+    return true;
+  }
+
+  /**
+   * Ends an event started by {@link #startEvent(String)} without recording it.
+   *
+   * @param key name of the custom event
+   * @return false if the event was not started
+   */
+  public boolean cancelEvent(String key) {
+    return key != null && timedEvents.remove(key) != null;
   }
 
 
-  public synchronized Countly sendUserData(Map<String, String> data) {
+  public Countly sendUserData(Map<String, String> data) {
     return sendUserData(data, null);
   }
 
@@ -164,33 +528,112 @@ public class Countly {
    * byear - (int) providing user's year of birth as integer
    * </li>
    * </ul>
+   * Data set with the deprecated UserData setters is sent along and cleared.
    *
    * @param data       Map&lt;String, String&gt; with user data
    * @param customData Map&lt;String, String&gt; with custom key values for this user
    */
-  public synchronized Countly sendUserData(Map<String, String> data, Map<String, String> customData) {
+  public Countly sendUserData(Map<String, String> data, Map<String, String> customData) {
     if (Config.IS_LOG_ENABLE) {
       log.info("SendUserData(countly-sdk-java): \n data=" + data + "\n customData=" + customData);
     }
-    UserData.setData(data);
-    if (customData != null) {
-      UserData.setCustomData(customData);
-    }
+    return sendUserData(UserData.takeLegacy(data, customData));
+  }
 
-    try {
-      String url = Config.SERVER_URL + "/i?" + mHttpConsumer.prepareRequestData(UserData.getDataForRequest(), Config.TYPE_SEND_USER_DATA);
-      mHttpConsumer.sendData(url);
-    } catch (HttpConsumer.HttpConsumerException e) {
-      e.printStackTrace();
-    } catch (IOException e) {
-      e.printStackTrace();
+  /**
+   * Sends information about user. Updates of different threads are sent concurrently.
+   *
+   * @param userData user data, see {@link UserData#builder()}
+   * @return Countly instance for easy method chaining
+   */
+  public Countly sendUserData(UserData userData) {
+    return sendUserData(null, null, userData);
+  }
+
+  /**
+   * Sends information about another device or user, e.g. an end user of a server application.
+   * In bulk mode the update is queued and sent with the next request to the bulk endpoint.
+   *
+   * @param appKey   app key the data belongs to, null for the app key of this instance
+   * @param deviceId device or user id the data belongs to, null for the device id of this instance
+   * @param userData user data, see {@link UserData#builder()}
+   * @return Countly instance for easy method chaining
+   */
+  public Countly sendUserData(String appKey, String deviceId, UserData userData) {
+    appKey = emptyToNull(appKey);
+    deviceId = emptyToNull(deviceId);
+    AsyncSender sender = asyncSender;
+    // pictures are uploaded with their own request
+    if (bulkEnabled && sender != null && userData.getPicturePath() == null) {
+      sender.offer(new UserDataRequest(appKey, deviceId, userData));
+      return this;
+    }
+    if (mLogConsumer != null) {
+      try {
+        mLogConsumer.writeUserData(userData.toJSON().toString(), appKey, deviceId);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    } else {
+      sendNow(userData.getDataForRequest(), Config.TYPE_SEND_USER_DATA, appKey, deviceId);
     }
-    UserData.clear();
     return this;
   }
 
   /**
-   * Add public properties which will be added to all events
+   * @param httpConsumer consumer sending to the server
+   * @param logConsumer  consumer writing the events instead, null if they are sent
+   * @param url          URL of the server httpConsumer sends to
+   * @param appKey       app key of the data, null for the app key of this instance
+   * @param deviceId     device id of the data, null for the device id of this instance
+   */
+  private void send(HttpConsumer httpConsumer, LogConsumer logConsumer, String url, String data, int type,
+                    String appKey, String deviceId) throws IOException, HttpConsumer.HttpConsumerException {
+    if (logConsumer != null && type == Config.TYPE_SEND_EVENT) {
+      logConsumer.writeEvents(data, appKey, deviceId);
+    } else if (appKey == null && deviceId == null) {
+      if (isPost()) {
+        httpConsumer.postData(data, type);
+      } else {
+        httpConsumer.sendData(url + "/i?" + httpConsumer.prepareRequestData(data, type));
+      }
+    } else if (isPost()) {
+      httpConsumer.postData(data, type, appKey, deviceId);
+    } else {
+      httpConsumer.sendData(url + "/i?" + httpConsumer.prepareRequestData(data, type, appKey, deviceId));
+    }
+  }
+
+  /**
+   * @param requests request objects for the bulk endpoint
+   */
+  private void sendBulk(HttpConsumer httpConsumer, LogConsumer logConsumer, String url, List<String> requests)
+      throws IOException, HttpConsumer.HttpConsumerException {
+    if (logConsumer != null) {
+      logConsumer.writeRequests(requests);
+    } else if (isPost()) {
+      httpConsumer.postBulk(requests);
+    } else {
+      httpConsumer.sendData(url + "/i/bulk?" + httpConsumer.prepareBulkRequestData(requests));
+    }
+  }
+
+  private boolean isPost() {
+    return (settings != null ? settings.httpMethod : Config.HTTP_METHOD) == Config.HTTP_METHOD_POST;
+  }
+
+  private String serverURL() {
+    return settings != null ? serverURL : Config.SERVER_URL;
+  }
+
+  private static String emptyToNull(String value) {
+    return value == null || value.length() == 0 ? null : value;
+  }
+
+  /**
+   * Add public properties which will be added to all events.
+   * A property overrides a segmentation entry of an event with the same key.
+   * Events recorded before the call keep the properties they were recorded with.
    *
    * @param properties
    */
@@ -198,8 +641,10 @@ public class Countly {
     if (Config.IS_LOG_ENABLE) {
       log.info("RegisterSuperProperties(countly-sdk-java): \n properties=" + properties);
     }
-    for (Map.Entry<String, Object> item : properties.entrySet()) {
-      superProperties.put(item.getKey(), item.getValue());
+    synchronized (superPropertiesLock) {
+      Map<String, Object> merged = new LinkedHashMap<String, Object>(superProperties);
+      merged.putAll(properties);
+      superProperties = Collections.unmodifiableMap(merged);
     }
   }
 
@@ -207,11 +652,428 @@ public class Countly {
    * clear public properties
    */
   public void clearSuperProperties() {
-    superProperties.clear();
+    synchronized (superPropertiesLock) {
+      superProperties = Collections.emptyMap();
+    }
+  }
+
+  /**
+   * Samples the events of a key: only the given fraction of its events is kept, picked at random, and their count,
+   * sum and dur are scaled by the inverse of the rate so the totals stay right on average. Sampled out events are
+   * counted in the metrics. Can be changed at any time and is kept across init.
+   *
+   * @param key  event key, null for the rate of all keys without a rate of their own
+   * @param rate fraction of events kept, between 0 and 1; 1 keeps all events
+   */
+  public void setSampling(String key, double rate) {
+    limiter.setSampling(key, rate);
+  }
+
+  /**
+   * Limits the events of a key with a token bucket: eventsPerSecond on average and at most burst at once, further
+   * events are dropped and counted in the metrics. Sampling is applied first, so a limit counts kept events.
+   * Can be changed at any time and is kept across init.
+   *
+   * @param key             event key, null to limit all events together
+   * @param eventsPerSecond events kept per second on average, 0 to remove the limit
+   * @param burst           events kept at once after a pause
+   */
+  public void setRateLimit(String key, double eventsPerSecond, int burst) {
+    limiter.setRateLimit(key, eventsPerSecond, burst);
+  }
+
+  /**
+   * Sets whether events are delivered by a background sender thread instead of the caller's thread.
+   * In async mode recordEvent only enqueues the event and returns immediately.
+   * Must be called before init.
+   *
+   * @param enable true to enable async delivery, false to send on the caller's thread
+   */
+  public void setAsyncEnabled(boolean enable) {
+    if (settings != null) {
+      settings.asyncEnabled = enable;
+    } else {
+      Config.IS_ASYNC_ENABLE = enable;
+    }
+  }
+
+  /**
+   * Sets the capacity of the async event queue. Must be called before init.
+   *
+   * @param capacity max number of queued events, rounded up to a power of two
+   */
+  public void setQueueCapacity(int capacity) {
+    if (settings != null) {
+      settings.queueCapacity = capacity;
+    } else {
+      Config.QUEUE_CAPACITY = capacity;
+    }
+  }
+
+  /**
+   * Sets what recordEvent does when the async event queue is full. Must be called before init.
+   *
+   * @param policy             Config.OVERFLOW_DROP_NEWEST, Config.OVERFLOW_DROP_OLDEST or Config.OVERFLOW_BLOCK
+   * @param blockTimeoutMillis max time to wait for space with Config.OVERFLOW_BLOCK, the event is dropped afterwards
+   */
+  public void setOverflowPolicy(int policy, long blockTimeoutMillis) {
+    if (settings != null) {
+      settings.overflowPolicy = policy;
+      settings.overflowBlockTimeoutMillis = blockTimeoutMillis;
+    } else {
+      Config.OVERFLOW_POLICY = policy;
+      Config.OVERFLOW_BLOCK_TIMEOUT_MILLIS = blockTimeoutMillis;
+    }
+  }
+
+  /**
+   * Sets how events are batched into a single request. Batches are assembled by the
+   * background sender, so batching with maxEvents &gt; 1 implies async delivery.
+   * Must be called before init.
+   *
+   * @param maxEvents    max number of events per request, 1 disables batching
+   * @param maxBytes     max size of the events JSON per request
+   * @param lingerMillis max time an event waits for its batch to fill up
+   */
+  public void setBatchSize(int maxEvents, int maxBytes, long lingerMillis) {
+    if (settings != null) {
+      settings.batchMaxEvents = maxEvents;
+      settings.batchMaxBytes = maxBytes;
+      settings.batchLingerMillis = lingerMillis;
+    } else {
+      Config.BATCH_MAX_EVENTS = maxEvents;
+      Config.BATCH_MAX_BYTES = maxBytes;
+      Config.BATCH_LINGER_MILLIS = lingerMillis;
+    }
+  }
+
+  /**
+   * Sets where Config.TYPE_LOG_CONSUMER writes its files. Must be called before init.
+   * Without the async sender recording threads write the lines themselves, one at a time.
+   *
+   * @param directory            directory for the log files
+   * @param maxFileBytes         max size of a file, a line that would exceed it starts a new file
+   * @param rotateIntervalMillis start a new file once the current one is older than this
+   */
+  public void setLogConsumer(String directory, long maxFileBytes, long rotateIntervalMillis) {
+    if (settings != null) {
+      settings.logConsumerDir = directory;
+      settings.logConsumerMaxFileBytes = maxFileBytes;
+      settings.logConsumerRotateIntervalMillis = rotateIntervalMillis;
+    } else {
+      Config.LOG_CONSUMER_DIR = directory;
+      Config.LOG_CONSUMER_MAX_FILE_BYTES = maxFileBytes;
+      Config.LOG_CONSUMER_ROTATE_INTERVAL_MILLIS = rotateIntervalMillis;
+    }
+  }
+
+  /**
+   * Keeps undelivered events in a durable spool on disk, so they survive server outages and restarts.
+   * Events are appended to the spool by the background sender and removed once the server accepted them,
+   * failed batches are retried. Spooling implies async delivery. Must be called before init.
+   *
+   * @param directory          directory for the spool files, null disables the spool
+   * @param segmentBytes       size of one spool file
+   * @param maxBytes           max disk usage, the oldest undelivered events are dropped beyond it
+   * @param syncIntervalMillis how often spooled events are forced to disk
+   */
+  public void setSpool(String directory, int segmentBytes, long maxBytes, long syncIntervalMillis) {
+    if (settings != null) {
+      settings.spoolDir = directory;
+      settings.spoolSegmentBytes = segmentBytes;
+      settings.spoolMaxBytes = maxBytes;
+      settings.spoolSyncIntervalMillis = syncIntervalMillis;
+    } else {
+      Config.SPOOL_DIR = directory;
+      Config.SPOOL_SEGMENT_BYTES = segmentBytes;
+      Config.SPOOL_MAX_BYTES = maxBytes;
+      Config.SPOOL_SYNC_INTERVAL_MILLIS = syncIntervalMillis;
+    }
+  }
+
+  /**
+   * Sets whether user data updates are queued like events and packed with the batched events into requests to the
+   * bulk endpoint, so one HTTP request carries the events of many devices and their user data updates.
+   * Use together with {@link #setBatchSize(int, int, long)}, whose maxEvents counts events and user data updates.
+   * Bulk mode implies async delivery. Must be called before init.
+   *
+   * @param enable true to queue user data updates for the bulk endpoint
+   */
+  public void setBulkEnabled(boolean enable) {
+    if (settings != null) {
+      settings.bulkEnabled = enable;
+    } else {
+      Config.IS_BULK_ENABLE = enable;
+    }
+  }
+
+  /**
+   * Sets the limits of a request to the bulk endpoint. A batch of a single device without user data updates is
+   * sent as a normal request limited by {@link #setBatchSize(int, int, long)}. Must be called before init.
+   *
+   * @param maxRequests max number of request objects (one per device with events, one per user data update)
+   * @param maxBytes    max size of the request objects
+   */
+  public void setBulkSize(int maxRequests, int maxBytes) {
+    if (settings != null) {
+      settings.bulkMaxRequests = maxRequests;
+      settings.bulkMaxBytes = maxBytes;
+    } else {
+      Config.BULK_MAX_REQUESTS = maxRequests;
+      Config.BULK_MAX_BYTES = maxBytes;
+    }
+  }
+
+  /**
+   * Sets how failed sends are retried. Network errors, 408, 429 and 5xx responses are retried with exponential
+   * backoff and jitter; other responses are not retried. A batch held in memory is dropped after maxAttempts,
+   * a spooled batch is retried until it was delivered. Sends on the caller's thread are never retried.
+   * Must be called before init.
+   *
+   * @param maxAttempts     max number of attempts of a batch held in memory
+   * @param baseDelayMillis backoff after the first failure, doubled with every further failure
+   * @param maxDelayMillis  max backoff
+   */
+  public void setRetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+    if (settings != null) {
+      settings.retryMaxAttempts = maxAttempts;
+      settings.retryBaseDelayMillis = baseDelayMillis;
+      settings.retryMaxDelayMillis = maxDelayMillis;
+    } else {
+      Config.RETRY_MAX_ATTEMPTS = maxAttempts;
+      Config.RETRY_BASE_DELAY_MILLIS = baseDelayMillis;
+      Config.RETRY_MAX_DELAY_MILLIS = maxDelayMillis;
+    }
+  }
+
+  /**
+   * Sets when sending is suspended. After failureThreshold consecutive failures nothing is sent for openMillis:
+   * async events wait in the queue or spool, sends on the caller's thread are dropped. Afterwards a single request
+   * probes the server and resumes sending if it succeeds. Must be called before init.
+   *
+   * @param failureThreshold consecutive retriable failures that suspend sending
+   * @param openMillis       how long sending is suspended before the server is probed
+   */
+  public void setCircuitBreaker(int failureThreshold, long openMillis) {
+    if (settings != null) {
+      settings.circuitFailureThreshold = failureThreshold;
+      settings.circuitOpenMillis = openMillis;
+    } else {
+      Config.CIRCUIT_FAILURE_THRESHOLD = failureThreshold;
+      Config.CIRCUIT_OPEN_MILLIS = openMillis;
+    }
+  }
+
+  /**
+   * Sends all events recorded so far without waiting for their batch to fill up or their aggregation window to end.
+   * Without async delivery only aggregated events are sent, on the caller's thread.
+   *
+   * @param timeoutMillis max time to wait for the events to be sent
+   * @return false if the timeout elapsed before the events were sent
+   */
+  public boolean flush(long timeoutMillis) {
+    EventAggregator aggregator = this.aggregator;
+    if (aggregator != null) {
+      aggregator.flush();
+    }
+    AsyncSender sender = asyncSender;
+    return sender == null || sender.flush(timeoutMillis);
+  }
+
+  /**
+   * Stops the async sender after delivering the queued events, closes the log files and unregisters the MBean.
+   *
+   * @param timeoutMillis max time to wait for queued events to be delivered
+   */
+  public void shutdown(long timeoutMillis) {
+    closeAggregator();
+    stopSender(timeoutMillis);
+    closeLogConsumer();
+    unregisterMBean();
+  }
+
+  private void stopSender(long timeoutMillis) {
+    if (asyncSender != null) {
+      asyncSender.shutdown(timeoutMillis);
+      if ((asyncSender.hasSpool() || mLogConsumer != null) && !asyncSender.isTerminated()) {
+        stoppingSender = asyncSender;
+      }
+      asyncSender = null;
+    }
+  }
+
+  /**
+   * Waits until a sender that was shut down closed its spool and wrote its last events to the log consumer;
+   * a spool directory must not be mapped twice and a closed log consumer drops what is written to it.
+   *
+   * @return false if the sender still uses its spool or log consumer
+   */
+  private boolean releaseSender() {
+    if (stoppingSender != null) {
+      stoppingSender.shutdown(SENDER_RELEASE_TIMEOUT_MILLIS);
+      if (!stoppingSender.isTerminated()) {
+        return false;
+      }
+      stoppingSender = null;
+    }
+    return true;
+  }
+
+  /**
+   * Returns the current values of the SDK metrics: recorded, sent, dropped, sampled out and rate limited events,
+   * retried and failed requests, queue depth, spool size, open connections and the latency of serializing,
+   * checksumming and sending.
+   * Counters count since the instance was created.
+   *
+   * @return snapshot of the metrics
+   */
+  public MetricsSnapshot getMetrics() {
+    return metrics.snapshot();
+  }
+
+  /**
+   * Registers the metrics of this instance with the platform MBeanServer as com.iboxchain:type=Countly,name=name,
+   * so they can be read with JConsole or any JMX exporter. The MBean is unregistered by shutdown.
+   *
+   * @param name name of this instance, unique within the JVM
+   */
+  public synchronized void registerMBean(String name) {
+    unregisterMBean();
+    try {
+      mbeanName = metrics.registerMBean(name);
+    } catch (JMException e) {
+      log.error("Register MBean failed(countly-sdk-java): \n name=" + name, e);
+    }
+  }
+
+  private synchronized void unregisterMBean() {
+    if (mbeanName != null) {
+      try {
+        Metrics.unregisterMBean(mbeanName);
+      } catch (JMException e) {
+        log.error("Unregister MBean failed(countly-sdk-java): \n name=" + mbeanName, e);
+      }
+      mbeanName = null;
+    }
+  }
+
+  private void closeAggregator() {
+    EventAggregator aggregator = this.aggregator;
+    if (aggregator != null) {
+      this.aggregator = null;
+      aggregator.close();
+    }
+  }
+
+  private void closeLogConsumer() {
+    if (mLogConsumer != null) {
+      try {
+        mLogConsumer.close();
+      } catch (IOException e) {
+        log.error("Close log consumer failed(countly-sdk-java)", e);
+      }
+      mLogConsumer = null;
+    }
+  }
+
+  /**
+   * Sets how requests are sent to the server. POST streams the parameters in the request body
+   * and is not limited by the URL length, GET puts them into the URL.
+   *
+   * @param method Config.HTTP_METHOD_GET (default) or Config.HTTP_METHOD_POST
+   */
+  public void setHttpMethod(int method) {
+    if (settings != null) {
+      settings.httpMethod = method;
+    } else {
+      Config.HTTP_METHOD = method;
+    }
+  }
+
+  /**
+   * Sets whether the bodies of POST requests are gzip compressed and sent with Content-Encoding: gzip.
+   * Batched events compress well, but the server, or a proxy in front of it, has to decompress the request
+   * bodies. GET requests and picture uploads are never compressed. Must be called before init.
+   *
+   * @param enable true to compress request bodies
+   */
+  public void setGzipEnabled(boolean enable) {
+    if (settings != null) {
+      settings.gzipEnabled = enable;
+    } else {
+      Config.IS_GZIP_ENABLE = enable;
+    }
+  }
+
+  /**
+   * Sets how requests are checksummed. The Countly server rejects requests whose checksum does not match when a salt
+   * is configured for the app; the checksum is the hash of the request parameters followed by the salt.
+   * Must be called before init.
+   *
+   * @param algorithm Config.CHECKSUM_SHA1 (default) sent as checksum, or Config.CHECKSUM_SHA256 sent as checksum256
+   * @param salt      salt of the app on the Countly server, null for none
+   */
+  public void setChecksum(int algorithm, String salt) {
+    if (settings != null) {
+      settings.checksumAlgorithm = algorithm;
+      settings.checksumSalt = salt;
+    } else {
+      Config.CHECKSUM_ALGORITHM = algorithm;
+      Config.CHECKSUM_SALT = salt;
+    }
+  }
+
+  /**
+   * Sets whether identical events are aggregated on the client. Events recorded within a window with the same key,
+   * segmentation, app key and device id are sent as one event whose count, sum and dur are the totals of the window,
+   * timestamped with the start of the window. Suited to counters recorded many times per second; events are sent
+   * once per window instead of when recorded. Events still being aggregated are sent by flush and shutdown.
+   * Must be called before init.
+   *
+   * @param enable       true to aggregate events
+   * @param windowMillis length of a window
+   */
+  public void setAggregation(boolean enable, long windowMillis) {
+    if (settings != null) {
+      settings.aggregationEnabled = enable;
+      settings.aggregationWindowMillis = windowMillis;
+    } else {
+      Config.IS_AGGREGATION_ENABLE = enable;
+      Config.AGGREGATION_WINDOW_MILLIS = windowMillis;
+    }
+  }
+
+  /**
+   * Sets whether recorded events are written into a ring of events allocated at init, instead of allocating
+   * an event per call. The sender serializes them in place and frees their slot, so recording allocates nothing
+   * once the ring is warm. The ring holds as many events as the queue, see {@link #setQueueCapacity(int)};
+   * when all are in use drop-oldest drops the new event. As with async delivery the segmentation map must not
+   * change after recordEvent.
+   * Implies async delivery. Must be called before init.
+   *
+   * @param enable true to record events into pre-allocated events
+   */
+  public void setPooledEvents(boolean enable) {
+    if (settings != null) {
+      settings.pooledEventsEnabled = enable;
+    } else {
+      Config.IS_POOLED_EVENTS_ENABLE = enable;
+    }
+  }
+
+  /**
+   * Sets the transport used to execute HTTP requests, e.g. a PooledTransport to keep
+   * a bounded number of keep-alive connections per host. Must be called before init.
+   * The transport is not closed by the SDK, so it can be shared.
+   *
+   * @param transport transport to use, null for the default UrlConnectionTransport
+   */
+  public void setTransport(Transport transport) {
+    this.transport = transport;
   }
 
   /**
-   * Sets whether debug logging is turned on or off. Logging is disabled by default.
+   * Sets whether debug logging is turned on or off for all instances. Logging is disabled by default.
    *
    * @param enable true to enable logging, false to disable logging
    */
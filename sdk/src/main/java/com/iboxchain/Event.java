@@ -22,6 +22,8 @@ THE SOFTWARE.
 package com.iboxchain;
 
 import com.iboxchain.utils.CommonUtil;
+import com.iboxchain.utils.JsonWriter;
+import com.iboxchain.utils.TimeContext;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -43,12 +45,18 @@ public class Event {
 
   private String key;
   private Map<String, Object> segmentation;
+  private Segments segments;
+  // segments of a ring slot, reused by every event recorded into the slot
+  private Segments slotSegments;
+  private Map<String, Object> superProperties;
   private int count;
-  private int sum;
+  private double sum;
   private double dur;
   private long timestamp;
   private int hour;
   private int dow;
+  private String appKey;
+  private String deviceId;
 
   public String getKey() {
     return key;
@@ -58,14 +66,76 @@ public class Event {
     this.key = key;
   }
 
+  /**
+   * @return the segmentation map, or a new map of the segments of an event built by an EventBuilder
+   */
   public Map<String, Object> getSegmentation() {
-    return segmentation;
+    return segments != null ? segments.toMap() : segmentation;
   }
 
   public void setSegmentation(Map<String, Object> segmentation) {
     this.segmentation = segmentation;
   }
 
+  /**
+   * Sets the segments of an EventBuilder, written after the entries of the segmentation map.
+   */
+  void setSegments(Segments segments) {
+    this.segments = segments;
+  }
+
+  /**
+   * Sets a copy of the segments of an EventBuilder, made in segments this event keeps for the next event
+   * recorded into its ring slot.
+   */
+  void copySegments(Segments from) {
+    if (from == null) {
+      segments = null;
+      return;
+    }
+    if (slotSegments == null) {
+      slotSegments = new Segments(from.size());
+    }
+    slotSegments.copyFrom(from);
+    segments = slotSegments;
+  }
+
+  public Map<String, Object> getSuperProperties() {
+    return superProperties;
+  }
+
+  /**
+   * Sets properties that are merged into the segmentation when the event is serialized,
+   * overriding segmentation entries with the same key. The map must not change afterwards.
+   *
+   * @param superProperties immutable properties shared by many events, can be null
+   */
+  public void setSuperProperties(Map<String, Object> superProperties) {
+    this.superProperties = superProperties;
+  }
+
+  public String getAppKey() {
+    return appKey;
+  }
+
+  /**
+   * @param appKey app key of the event, null for the app key of the Countly instance
+   */
+  public void setAppKey(String appKey) {
+    this.appKey = appKey;
+  }
+
+  public String getDeviceId() {
+    return deviceId;
+  }
+
+  /**
+   * @param deviceId device or user the event is recorded for, null for the device id of the Countly instance
+   */
+  public void setDeviceId(String deviceId) {
+    this.deviceId = deviceId;
+  }
+
   public int getCount() {
     return count;
   }
@@ -74,11 +144,11 @@ public class Event {
     this.count = count;
   }
 
-  public int getSum() {
+  public double getSum() {
     return sum;
   }
 
-  public void setSum(int sum) {
+  public void setSum(double sum) {
     this.sum = sum;
   }
 
@@ -116,9 +186,41 @@ public class Event {
 
   public Event(String key) {
     this.key = key;
-    this.timestamp = CommonUtil.currentTimestampMs();
-    this.hour = CommonUtil.currentHour();
-    this.dow = CommonUtil.currentDayOfWeek();
+    stamp();
+  }
+
+  /**
+   * Reuses the event of a ring slot for a new event with the given key, timestamped now.
+   */
+  void reset(String key) {
+    clear();
+    this.key = key;
+    this.count = 0;
+    this.sum = 0;
+    this.dur = 0;
+    stamp();
+  }
+
+  /**
+   * Drops the references of a released ring slot, so it keeps no caller's map alive.
+   */
+  void clear() {
+    key = null;
+    segmentation = null;
+    segments = null;
+    if (slotSegments != null) {
+      slotSegments.clear();
+    }
+    superProperties = null;
+    appKey = null;
+    deviceId = null;
+  }
+
+  private void stamp() {
+    timestamp = CommonUtil.currentTimestampMs();
+    TimeContext time = TimeContext.of(timestamp);
+    hour = time.getHour();
+    dow = time.getDayOfWeek();
   }
 
   /**
@@ -142,6 +244,16 @@ public class Event {
         jobj.put(pair.getKey(), pair.getValue());
       }
     }
+    if (segments != null) {
+      for (Map.Entry<String, Object> pair : segments.toMap().entrySet()) {
+        jobj.put(pair.getKey(), pair.getValue());
+      }
+    }
+    if (superProperties != null) {
+      for (Map.Entry<String, Object> pair : superProperties.entrySet()) {
+        jobj.put(pair.getKey(), pair.getValue());
+      }
+    }
 
     json.put(SEGMENTATION_KEY, jobj);
 
@@ -158,6 +270,75 @@ public class Event {
     return json;
   }
 
+  /**
+   * Appends the JSON object of this event to the given builder, without building a JSONObject first.
+   * Fields are written in a fixed order: key, count, sum, dur (only if positive), timestamp, hour, dow and
+   * segmentation. Segmentation holds the entries of the segmentation map in its iteration order, then the
+   * segments of an EventBuilder, then the super properties, which replace entries of the same name. Entries
+   * with a null value are left out.
+   *
+   * @param out builder to append to
+   * @throws JSONException if a segmentation key is null or a number is NaN or infinite
+   */
+  public void writeJSON(StringBuilder out) throws JSONException {
+    out.append('{');
+    if (key != null) {
+      out.append("\"" + KEY_KEY + "\":");
+      JsonWriter.quote(out, key);
+      out.append(',');
+    }
+    out.append("\"" + COUNT_KEY + "\":").append(count);
+    out.append(",\"" + SUM_KEY + "\":");
+    JsonWriter.number(out, sum);
+    if (dur > 0) {
+      out.append(",\"" + DUR_KEY + "\":");
+      JsonWriter.number(out, dur);
+    }
+    out.append(",\"" + TIMESTAMP_KEY + "\":").append(timestamp);
+    out.append(",\"" + HOUR + "\":").append(hour);
+    out.append(",\"" + DAY_OF_WEEK + "\":").append(dow);
+    out.append(",\"" + SEGMENTATION_KEY + "\":{");
+    boolean empty = true;
+    boolean hasSuperProperties = superProperties != null && !superProperties.isEmpty();
+    if (segmentation != null) {
+      for (Map.Entry<String, Object> pair : segmentation.entrySet()) {
+        if (hasSuperProperties && superProperties.containsKey(pair.getKey())) {
+          continue;
+        }
+        empty = writeEntry(out, pair, empty);
+      }
+    }
+    if (segments != null) {
+      empty = segments.writeJSON(out, superProperties, empty);
+    }
+    if (hasSuperProperties) {
+      for (Map.Entry<String, Object> pair : superProperties.entrySet()) {
+        empty = writeEntry(out, pair, empty);
+      }
+    }
+    out.append("}}");
+  }
+
+  /**
+   * @return true if nothing was written before, i.e. the object is still empty
+   */
+  private static boolean writeEntry(StringBuilder out, Map.Entry<String, Object> pair, boolean empty)
+      throws JSONException {
+    if (pair.getValue() == null) {
+      return empty;
+    }
+    if (pair.getKey() == null) {
+      throw new JSONException("Null key.");
+    }
+    if (!empty) {
+      out.append(',');
+    }
+    JsonWriter.quote(out, pair.getKey());
+    out.append(':');
+    JsonWriter.value(out, pair.getValue());
+    return false;
+  }
+
   @Override
   public boolean equals(final Object o) {
     if (o == null || !(o instanceof Event)) {
@@ -170,13 +351,15 @@ public class Event {
         timestamp == e.timestamp &&
         hour == e.hour &&
         dow == e.dow &&
-        (segmentation == null ? e.segmentation == null : segmentation.equals(e.segmentation));
+        (segmentation == null ? e.segmentation == null : segmentation.equals(e.segmentation)) &&
+        (segments == null ? e.segments == null : segments.equals(e.segments));
   }
 
   @Override
   public int hashCode() {
     return (key != null ? key.hashCode() : 1) ^
         (segmentation != null ? segmentation.hashCode() : 1) ^
+        (segments != null ? segments.hashCode() : 1) ^
         (timestamp != 0 ? (int) timestamp : 1);
   }
 }
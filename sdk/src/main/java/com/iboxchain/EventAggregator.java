@@ -0,0 +1,358 @@
+package com.iboxchain;
+
+import com.iboxchain.metrics.Metrics;
+import com.iboxchain.utils.Stripes;
+import com.iboxchain.utils.TimeContext;
+import org.apache.log4j.Logger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Folds events with the same key, segmentation, app key and device id recorded within a window into one event,
+ * summing count, sum and dur. At the end of every window one event per distinct event is handed to the sink,
+ * timestamped with the start of the window.
+ * <p>
+ * Adding looks up the accumulator in a hash table with one lock stripe per cpu stripe, keyed by the event and the
+ * hash of its segmentation computed once per call. An accumulator counts with a compare-and-set and only spreads
+ * over per thread cells once two threads collide on it, so a hot event costs no lock and no allocation but its key.
+ * <p>
+ * Windows are swapped rather than cleared: an adder registers with the window it adds to, the flusher installs a
+ * new window and waits for the adders still registered with the old one before draining it. Once closed the
+ * aggregator takes no more events, the caller delivers them itself.
+ */
+class EventAggregator {
+
+  interface Sink {
+    void emit(Event event);
+  }
+
+  private Logger log = Logger.getLogger(EventAggregator.class);
+  private final Sink sink;
+  private final Metrics metrics;
+  private final ScheduledFuture<?> flusher;
+  private volatile Window window = new Window(System.currentTimeMillis());
+  private volatile boolean closed;
+
+  EventAggregator(long windowMillis, Sink sink) {
+    this(windowMillis, sink, new Metrics());
+  }
+
+  /**
+   * @param windowMillis length of a window, events are emitted every windowMillis
+   * @param sink         receives the aggregated events on the flushing thread
+   * @param metrics      counts the events folded into another one
+   */
+  EventAggregator(long windowMillis, Sink sink, Metrics metrics) {
+    this.sink = sink;
+    this.metrics = metrics;
+    this.flusher = FlusherHolder.executor.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          flush();
+        } catch (RuntimeException e) {
+          log.error("Flush aggregated events failed(countly-sdk-java)", e);
+        }
+      }
+    }, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return false if the aggregator was closed, the event was not added
+   */
+  boolean add(String appKey, String deviceId, String key, Map<String, Object> segmentation, Segments segments,
+              Map<String, Object> superProperties, int count, double sum, double dur) {
+    Key probe = new Key(appKey, deviceId, key, segmentation, segments, superProperties);
+    int cell = Stripes.index() * Stripes.PADDING;
+    for (; ; ) {
+      Window current = window;
+      current.adders.getAndIncrement(cell);
+      try {
+        if (current != window) {
+          // swapped before we registered, the flusher may already be draining it
+          continue;
+        }
+        if (closed) {
+          // the window was installed by the last flush and is never drained
+          return false;
+        }
+        Accumulator accumulator = current.accumulators.get(probe);
+        boolean folded = true;
+        if (accumulator == null) {
+          Accumulator created = new Accumulator(probe.copy());
+          accumulator = current.accumulators.putIfAbsent(created.key, created);
+          if (accumulator == null) {
+            accumulator = created;
+            folded = false;
+          }
+        }
+        accumulator.add(count, sum, dur);
+        if (folded) {
+          metrics.eventsAggregated(1);
+        }
+        return true;
+      } finally {
+        current.adders.getAndDecrement(cell);
+      }
+    }
+  }
+
+  /**
+   * Ends the current window and emits its events on the calling thread.
+   */
+  synchronized void flush() {
+    Window closed = window;
+    window = new Window(System.currentTimeMillis());
+    while (closed.addersInFlight() > 0) {
+      Thread.yield();
+    }
+    TimeContext time = TimeContext.of(closed.startMillis);
+    for (Accumulator accumulator : closed.accumulators.values()) {
+      int events = accumulator.emit(sink, closed.startMillis, time);
+      if (events > 1) {
+        metrics.eventsAggregated(1 - events);
+      }
+    }
+  }
+
+  /**
+   * Stops the window timer and emits the events of the current window; later adds are refused.
+   */
+  void close() {
+    closed = true;
+    flusher.cancel(false);
+    flush();
+  }
+
+  private static final class Window {
+    final long startMillis;
+    final ConcurrentHashMap<Key, Accumulator> accumulators =
+        new ConcurrentHashMap<Key, Accumulator>(64, 0.75f, Stripes.COUNT);
+    // adders registered with this window, one padded cell per stripe
+    final AtomicLongArray adders = new AtomicLongArray(Stripes.COUNT * Stripes.PADDING);
+
+    Window(long startMillis) {
+      this.startMillis = startMillis;
+    }
+
+    long addersInFlight() {
+      long sum = 0;
+      for (int i = 0; i < Stripes.COUNT; i++) {
+        sum += adders.get(i * Stripes.PADDING);
+      }
+      return sum;
+    }
+  }
+
+  /**
+   * Identity of an aggregated event. Super properties are compared by identity, they are an immutable map
+   * replaced as a whole when they change. Events with a segmentation map and events with equal segments
+   * of an EventBuilder are aggregated separately.
+   */
+  static final class Key {
+    final String appKey;
+    final String deviceId;
+    final String key;
+    final Map<String, Object> segmentation;
+    final Segments segments;
+    final Map<String, Object> superProperties;
+    private final int hash;
+
+    Key(String appKey, String deviceId, String key, Map<String, Object> segmentation, Segments segments,
+        Map<String, Object> superProperties) {
+      this.appKey = appKey;
+      this.deviceId = deviceId;
+      this.key = key;
+      this.segmentation = segmentation;
+      this.segments = segments;
+      this.superProperties = superProperties;
+      int hash = key.hashCode();
+      hash = 31 * hash + (segmentation != null ? segmentation.hashCode() : 0);
+      hash = 31 * hash + (segments != null ? segments.hashCode() : 0);
+      hash = 31 * hash + (appKey != null ? appKey.hashCode() : 0);
+      hash = 31 * hash + (deviceId != null ? deviceId.hashCode() : 0);
+      hash = 31 * hash + System.identityHashCode(superProperties);
+      this.hash = hash;
+    }
+
+    /**
+     * @return key holding a copy of the segmentation and the segments, the caller may change them afterwards
+     */
+    Key copy() {
+      return new Key(appKey, deviceId, key,
+          segmentation != null ? new LinkedHashMap<String, Object>(segmentation) : null,
+          segments != null ? segments.copy() : null, superProperties, hash);
+    }
+
+    private Key(String appKey, String deviceId, String key, Map<String, Object> segmentation, Segments segments,
+                Map<String, Object> superProperties, int hash) {
+      this.appKey = appKey;
+      this.deviceId = deviceId;
+      this.key = key;
+      this.segmentation = segmentation;
+      this.segments = segments;
+      this.superProperties = superProperties;
+      this.hash = hash;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return hash == other.hash && key.equals(other.key) && superProperties == other.superProperties
+          && equal(appKey, other.appKey) && equal(deviceId, other.deviceId)
+          && equal(segmentation, other.segmentation) && equal(segments, other.segments);
+    }
+
+    private static boolean equal(Object a, Object b) {
+      return a == null ? b == null : a.equals(b);
+    }
+  }
+
+  /**
+   * Count, sum and dur of an aggregated event. Updates compare-and-set the base values until two threads
+   * collide, from then on every thread updates the cells of its stripe.
+   */
+  static final class Accumulator {
+    private static final int COUNT = 0;
+    private static final int SUM = 1;
+    private static final int DUR = 2;
+
+    final Key key;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumBits = new AtomicLong(Double.doubleToRawLongBits(0));
+    private final AtomicLong durBits = new AtomicLong(Double.doubleToRawLongBits(0));
+    private final AtomicReference<AtomicLongArray> cells = new AtomicReference<AtomicLongArray>();
+
+    Accumulator(Key key) {
+      this.key = key;
+    }
+
+    void add(long count, double sum, double dur) {
+      AtomicLongArray cells = this.cells.get();
+      if (cells == null) {
+        long current = this.count.get();
+        if (this.count.compareAndSet(current, current + count)) {
+          addDouble(sumBits, sum);
+          addDouble(durBits, dur);
+          return;
+        }
+        this.cells.compareAndSet(null, newCells());
+        cells = this.cells.get();
+      }
+      int base = Stripes.index() * Stripes.PADDING;
+      cells.getAndAdd(base + COUNT, count);
+      addDouble(cells, base + SUM, sum);
+      addDouble(cells, base + DUR, dur);
+    }
+
+    /**
+     * Emits the totals, split into several events when the count does not fit an int.
+     * Must not be called while adding.
+     *
+     * @return number of events emitted
+     */
+    int emit(Sink sink, long timestamp, TimeContext time) {
+      long count = this.count.get();
+      double sum = Double.longBitsToDouble(sumBits.get());
+      double dur = Double.longBitsToDouble(durBits.get());
+      AtomicLongArray cells = this.cells.get();
+      if (cells != null) {
+        for (int i = 0; i < Stripes.COUNT; i++) {
+          int base = i * Stripes.PADDING;
+          count += cells.get(base + COUNT);
+          sum += Double.longBitsToDouble(cells.get(base + SUM));
+          dur += Double.longBitsToDouble(cells.get(base + DUR));
+        }
+      }
+      int events = 0;
+      do {
+        events++;
+        int part = (int) Math.min(Integer.MAX_VALUE, count);
+        count -= part;
+        Event event = new Event(key.key);
+        event.setAppKey(key.appKey);
+        event.setDeviceId(key.deviceId);
+        event.setSegmentation(key.segmentation);
+        event.setSegments(key.segments);
+        event.setSuperProperties(key.superProperties);
+        event.setCount(part);
+        event.setSum(sum);
+        event.setDur(dur);
+        event.setTimestamp(timestamp);
+        event.setHour(time.getHour());
+        event.setDow(time.getDayOfWeek());
+        sink.emit(event);
+        // sum and dur go with the first part
+        sum = 0;
+        dur = 0;
+      } while (count > 0);
+      return events;
+    }
+
+    private static AtomicLongArray newCells() {
+      AtomicLongArray cells = new AtomicLongArray(Stripes.COUNT * Stripes.PADDING);
+      for (int i = 0; i < Stripes.COUNT; i++) {
+        cells.set(i * Stripes.PADDING + SUM, Double.doubleToRawLongBits(0));
+        cells.set(i * Stripes.PADDING + DUR, Double.doubleToRawLongBits(0));
+      }
+      return cells;
+    }
+
+    private static void addDouble(AtomicLong bits, double delta) {
+      if (delta == 0) {
+        return;
+      }
+      for (; ; ) {
+        long current = bits.get();
+        if (bits.compareAndSet(current, Double.doubleToRawLongBits(Double.longBitsToDouble(current) + delta))) {
+          return;
+        }
+      }
+    }
+
+    private static void addDouble(AtomicLongArray cells, int index, double delta) {
+      if (delta == 0) {
+        return;
+      }
+      for (; ; ) {
+        long current = cells.get(index);
+        if (cells.compareAndSet(index, current,
+            Double.doubleToRawLongBits(Double.longBitsToDouble(current) + delta))) {
+          return;
+        }
+      }
+    }
+  }
+
+  private static class FlusherHolder {
+    static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "countly-event-aggregator");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+}
@@ -0,0 +1,360 @@
+package com.iboxchain;
+
+import com.iboxchain.consumer.RequestJson;
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Accumulates events into JSON array payloads, one per (app key, device id), so a whole batch goes out
+ * as a single events=[...] request with a single checksum. A batch with events of several app keys or
+ * devices goes out as one request to the bulk endpoint, with one request object per (app key, device id),
+ * together with the user data updates queued in bulk mode.
+ * Not thread safe, owned by the sender thread.
+ */
+class EventBatcher {
+
+  /**
+   * A closed batch: either the events of one app key and device id, or bulk request objects.
+   */
+  static final class Batch {
+    // JSON array of events, null for a bulk batch
+    final String events;
+    // app key and device id of the events, null for the ones of the Countly instance
+    final String appKey;
+    final String deviceId;
+    // request objects for the bulk endpoint, null for an events batch
+    final List<String> requests;
+    // number of events, without the user data updates
+    final int eventCount;
+
+    Batch(String events, String appKey, String deviceId, List<String> requests, int eventCount) {
+      this.events = events;
+      this.appKey = appKey;
+      this.deviceId = deviceId;
+      this.requests = requests;
+      this.eventCount = eventCount;
+    }
+  }
+
+  // estimated size of the app_key, device_id, time and sdk fields of a bulk request object
+  private static final int REQUEST_OVERHEAD = 224;
+  // marks a spool record of an event with its own app key or device id
+  private static final char RECORD_IDENTITY = '\u0001';
+  // marks a spool record holding a whole request object
+  private static final char RECORD_REQUEST = '\u0002';
+
+  private final int maxEvents;
+  private final int maxBytes;
+  private final long lingerNanos;
+  private final int maxRequests;
+  private final int maxBulkBytes;
+  private final String appKey;
+  private final String deviceId;
+  // events of the Countly instance's own app key and device id, reused across batches
+  private final Group defaultGroup = new Group(null, null, 1024);
+  private final Map<String, Group> groups = new LinkedHashMap<String, Group>();
+  // request objects of user data updates
+  private final List<String> requests = new ArrayList<String>();
+
+  // events and user data updates in the batch
+  private int count;
+  private int eventBytes;
+  private int requestBytes;
+  private long firstEventNanos;
+
+  EventBatcher(int maxEvents, int maxBytes, long lingerNanos) {
+    this(maxEvents, maxBytes, lingerNanos, Config.BULK_MAX_REQUESTS, Config.BULK_MAX_BYTES, null, null);
+  }
+
+  /**
+   * @param maxEvents    max number of events and user data updates per batch
+   * @param maxBytes     max size of the events JSON of a batch sent as a single request
+   * @param maxRequests  max number of request objects of a batch sent to the bulk endpoint
+   * @param maxBulkBytes max size of the request objects of a batch sent to the bulk endpoint
+   * @param appKey       app key of the Countly instance, written into bulk requests without their own
+   * @param deviceId     device id of the Countly instance, written into bulk requests without their own
+   */
+  EventBatcher(int maxEvents, int maxBytes, long lingerNanos, int maxRequests, int maxBulkBytes, String appKey,
+               String deviceId) {
+    this.maxEvents = Math.max(1, maxEvents);
+    this.maxBytes = maxBytes;
+    this.lingerNanos = lingerNanos;
+    this.maxRequests = Math.max(1, maxRequests);
+    this.maxBulkBytes = maxBulkBytes;
+    this.appKey = appKey;
+    this.deviceId = deviceId;
+  }
+
+  /**
+   * Adds an event to the current batch, serializing it straight into the payload of its app key and device id.
+   *
+   * @param event event to add
+   * @return the previous batch if the event did not fit into it, otherwise null
+   */
+  Batch add(Event event) throws JSONException {
+    Group group = group(event.getAppKey(), event.getDeviceId());
+    int mark = group.events.length();
+    open(group);
+    try {
+      event.writeJSON(group.events);
+    } catch (JSONException e) {
+      rollback(group, mark);
+      throw e;
+    }
+    return added(group, mark);
+  }
+
+  /**
+   * Adds a spooled event to the current batch.
+   *
+   * @param record spool record written by {@link #writeRecord(Event, StringBuilder)}
+   * @return the previous batch if the event did not fit into it, otherwise null
+   */
+  Batch add(String record) {
+    if (record.length() > 0 && record.charAt(0) == RECORD_REQUEST) {
+      return addRequest(record.substring(1));
+    }
+    if (record.length() == 0 || record.charAt(0) != RECORD_IDENTITY) {
+      return add(null, null, record);
+    }
+    int colon = record.indexOf(':', 1);
+    int start = colon + 1;
+    int end = start + Integer.parseInt(record.substring(1, colon));
+    String recordAppKey = end > start ? record.substring(start, end) : null;
+    colon = record.indexOf(':', end);
+    start = colon + 1;
+    int json = start + Integer.parseInt(record.substring(end, colon));
+    String recordDeviceId = json > start ? record.substring(start, json) : null;
+    return add(recordAppKey, recordDeviceId, record.substring(json));
+  }
+
+  /**
+   * Serializes an event into a spool record, prefixed with its app key and device id if it has its own.
+   */
+  static void writeRecord(Event event, StringBuilder out) throws JSONException {
+    String eventAppKey = event.getAppKey();
+    String eventDeviceId = event.getDeviceId();
+    if (eventAppKey != null || eventDeviceId != null) {
+      out.append(RECORD_IDENTITY);
+      writeRecordField(out, eventAppKey);
+      writeRecordField(out, eventDeviceId);
+    }
+    event.writeJSON(out);
+  }
+
+  /**
+   * Adds a user data update to the current batch, it goes out with the next bulk request.
+   *
+   * @return the previous batch if the update did not fit into it, otherwise null
+   */
+  Batch add(UserDataRequest request) {
+    return addRequest(toJSON(request));
+  }
+
+  /**
+   * Serializes a user data update into a spool record.
+   */
+  void writeRecord(UserDataRequest request, StringBuilder out) {
+    out.append(RECORD_REQUEST).append(toJSON(request));
+  }
+
+  private String toJSON(UserDataRequest request) {
+    String userDetails = request.userData.toJSON().toString();
+    StringBuilder json = new StringBuilder(REQUEST_OVERHEAD + userDetails.length());
+    RequestJson.write(json, request.appKey != null ? request.appKey : appKey,
+        request.deviceId != null ? request.deviceId : deviceId, "user_details", userDetails);
+    return json.toString();
+  }
+
+  private Batch addRequest(String request) {
+    Batch full = null;
+    if (count > 0 && (requestCount() >= maxRequests
+        || bulkSize() + request.length() + 1 > maxBulkBytes)) {
+      full = drain();
+    }
+    if (count == 0) {
+      firstEventNanos = System.nanoTime();
+    }
+    requests.add(request);
+    requestBytes += request.length() + 1;
+    count++;
+    return full;
+  }
+
+  private static void writeRecordField(StringBuilder out, String value) {
+    if (value == null) {
+      out.append("0:");
+    } else {
+      out.append(value.length()).append(':').append(value);
+    }
+  }
+
+  private Batch add(String eventAppKey, String eventDeviceId, String json) {
+    Group group = group(eventAppKey, eventDeviceId);
+    int mark = group.events.length();
+    open(group);
+    group.events.append(json);
+    return added(group, mark);
+  }
+
+  private Group group(String eventAppKey, String eventDeviceId) {
+    if (eventAppKey == null && eventDeviceId == null) {
+      return defaultGroup;
+    }
+    // app keys never contain the separator, so the key is unique
+    String key = eventAppKey == null ? "\u0000" + eventDeviceId : eventAppKey + "\u0000" + eventDeviceId;
+    Group group = groups.get(key);
+    if (group == null) {
+      group = new Group(eventAppKey, eventDeviceId, 256);
+      group.key = key;
+    }
+    return group;
+  }
+
+  private void open(Group group) {
+    if (count == 0) {
+      firstEventNanos = System.nanoTime();
+    }
+    if (group.count == 0) {
+      groups.put(group.key, group);
+      group.events.append('[');
+    } else {
+      group.events.append(',');
+    }
+  }
+
+  private void rollback(Group group, int mark) {
+    group.events.setLength(mark);
+    if (group.count == 0) {
+      groups.remove(group.key);
+    }
+  }
+
+  /**
+   * Counts the event appended after mark, or moves it into a new batch if the current one got too big.
+   */
+  private Batch added(Group group, int mark) {
+    int length = group.events.length() - mark;
+    if (count > 0 && (requestCount() > maxRequests || size() + length + 1 > maxSize())) {
+      String json = group.events.substring(mark + 1);
+      rollback(group, mark);
+      Batch full = drain();
+      add(group.appKey, group.deviceId, json);
+      return full;
+    }
+    eventBytes += length;
+    group.count++;
+    count++;
+    return null;
+  }
+
+  private boolean isBulk() {
+    return groups.size() > 1 || !requests.isEmpty();
+  }
+
+  private int requestCount() {
+    return groups.size() + requests.size();
+  }
+
+  /**
+   * @return estimated size of the batch payload without its closing bracket
+   */
+  private int size() {
+    return isBulk() ? bulkSize() : eventBytes;
+  }
+
+  private int bulkSize() {
+    return eventBytes + groups.size() * REQUEST_OVERHEAD + requestBytes;
+  }
+
+  private int maxSize() {
+    return isBulk() ? maxBulkBytes : maxBytes;
+  }
+
+  /**
+   * @return true if the batch reached its count or size threshold; a batch with the max number of requests
+   * still takes events of its devices and is closed by the first event of another device
+   */
+  boolean isFull() {
+    return count >= maxEvents || (count > 0 && size() + 1 >= maxSize());
+  }
+
+  /**
+   * @return true if the oldest event of the batch waited longer than the linger time
+   */
+  boolean isExpired(long nowNanos) {
+    return count > 0 && nowNanos - firstEventNanos >= lingerNanos;
+  }
+
+  /**
+   * @return nanos until the batch expires, or -1 if the batch is empty
+   */
+  long remainingNanos(long nowNanos) {
+    if (count == 0) {
+      return -1;
+    }
+    return Math.max(0, lingerNanos - (nowNanos - firstEventNanos));
+  }
+
+  boolean isEmpty() {
+    return count == 0;
+  }
+
+  /**
+   * Closes the current batch and starts a new one.
+   *
+   * @return the batched events, or null if the batch is empty
+   */
+  Batch drain() {
+    if (count == 0) {
+      return null;
+    }
+    Batch batch;
+    int eventCount = count - requests.size();
+    Iterator<Group> it = groups.values().iterator();
+    if (!isBulk()) {
+      Group group = it.next();
+      batch = new Batch(group.events.append(']').toString(), group.appKey, group.deviceId, null, eventCount);
+    } else {
+      // user data first, so the events are processed with the updated user
+      List<String> bulk = new ArrayList<String>(requestCount());
+      bulk.addAll(requests);
+      while (it.hasNext()) {
+        Group group = it.next();
+        StringBuilder request = new StringBuilder(REQUEST_OVERHEAD + group.events.length());
+        RequestJson.writeHeader(request, group.appKey != null ? group.appKey : appKey,
+            group.deviceId != null ? group.deviceId : deviceId);
+        request.append(",\"events\":").append(group.events).append("]}");
+        bulk.add(request.toString());
+      }
+      batch = new Batch(null, null, null, bulk, eventCount);
+    }
+    groups.clear();
+    requests.clear();
+    requestBytes = 0;
+    defaultGroup.events.setLength(0);
+    defaultGroup.count = 0;
+    count = 0;
+    eventBytes = 0;
+    return batch;
+  }
+
+  private static final class Group {
+    final String appKey;
+    final String deviceId;
+    final StringBuilder events;
+    String key = "";
+    int count;
+
+    Group(String appKey, String deviceId, int capacity) {
+      this.appKey = appKey;
+      this.deviceId = deviceId;
+      this.events = new StringBuilder(capacity);
+    }
+  }
+}
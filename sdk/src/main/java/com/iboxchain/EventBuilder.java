@@ -0,0 +1,156 @@
+package com.iboxchain;
+
+/**
+ * Builds and records a custom event without a segmentation map: segments are kept in primitive arrays and
+ * written to JSON directly, so numbers are not boxed and no map is allocated per event.
+ * <pre>
+ * countly.event("purchase").segment("country", "TR").segment("items", 3).sum(9.99).record();
+ * </pre>
+ * {@link Countly#event(String)} hands every thread its own builder and reuses it, with its segment arrays, for the
+ * next event of the thread once this one was recorded, so do not keep a builder after calling record.
+ */
+public final class EventBuilder {
+
+  private final Countly countly;
+  private String key;
+  private Segments segments;
+  private int count = 1;
+  private double sum;
+  private double dur;
+  private String appKey;
+  private String deviceId;
+  // true until reset and again once recorded
+  private boolean recorded = true;
+
+  EventBuilder(Countly countly) {
+    this.countly = countly;
+  }
+
+  /**
+   * Starts the next event, dropping the values of the previous one.
+   */
+  EventBuilder reset(String key) {
+    this.key = key;
+    count = 1;
+    sum = 0;
+    dur = 0;
+    appKey = null;
+    deviceId = null;
+    if (segments != null) {
+      segments.clear();
+    }
+    recorded = false;
+    return this;
+  }
+
+  /**
+   * @return false while the builder builds an event that was not recorded yet
+   */
+  boolean isRecorded() {
+    return recorded;
+  }
+
+  /**
+   * Sets a segment, replacing an earlier value of the same name. Segments with a null name are left out.
+   */
+  public EventBuilder segment(String name, long value) {
+    if (name != null) {
+      segments().putLong(name, value);
+    }
+    return this;
+  }
+
+  /**
+   * Sets a segment, replacing an earlier value of the same name. Segments with a null name are left out;
+   * a NaN or infinite value makes the event fail to serialize, like in a segmentation map.
+   */
+  public EventBuilder segment(String name, double value) {
+    if (name != null) {
+      segments().putDouble(name, value);
+    }
+    return this;
+  }
+
+  /**
+   * Sets a segment, replacing an earlier value of the same name. Segments with a null name or value are left out.
+   */
+  public EventBuilder segment(String name, String value) {
+    if (name != null && value != null) {
+      segments().putString(name, value);
+    }
+    return this;
+  }
+
+  /**
+   * Sets a segment, replacing an earlier value of the same name. Segments with a null name are left out.
+   */
+  public EventBuilder segment(String name, boolean value) {
+    if (name != null) {
+      segments().putBoolean(name, value);
+    }
+    return this;
+  }
+
+  /**
+   * @param count count to associate with the event, 1 by default
+   */
+  public EventBuilder count(int count) {
+    this.count = count;
+    return this;
+  }
+
+  /**
+   * @param sum sum to associate with the event, e.g. a revenue
+   */
+  public EventBuilder sum(double sum) {
+    this.sum = sum;
+    return this;
+  }
+
+  /**
+   * @param dur duration of the event in seconds
+   */
+  public EventBuilder dur(double dur) {
+    this.dur = dur;
+    return this;
+  }
+
+  /**
+   * @param appKey app key the event is recorded for, null for the app key of the Countly instance
+   */
+  public EventBuilder appKey(String appKey) {
+    this.appKey = appKey;
+    return this;
+  }
+
+  /**
+   * @param deviceId device or user id the event is recorded for, null for the device id of the Countly instance
+   */
+  public EventBuilder deviceId(String deviceId) {
+    this.deviceId = deviceId;
+    return this;
+  }
+
+  /**
+   * Records the event like {@link Countly#recordEvent(String, String, String, java.util.Map, int, double, double)}.
+   * Later calls do nothing.
+   */
+  public void record() {
+    if (recorded) {
+      return;
+    }
+    recorded = true;
+    countly.record(appKey, deviceId, key, null, segments != null && segments.size() > 0 ? segments : null, count, sum,
+        dur);
+  }
+
+  private Segments segments() {
+    if (recorded) {
+      throw new IllegalStateException("event already recorded: " + key);
+    }
+    if (segments == null) {
+      segments = new Segments();
+    }
+    return segments;
+  }
+}
@@ -0,0 +1,192 @@
+package com.iboxchain;
+
+import com.iboxchain.metrics.Metrics;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which recorded events are kept: events are sampled by the rate of their key or the rate of all keys,
+ * then limited by the token bucket of their key and by the token bucket of all events. Dropped events are counted
+ * in the metrics.
+ * <p>
+ * Rules are an immutable map replaced as a whole when a rule changes, so admitting an event takes no lock.
+ * A token bucket is a single compare-and-set of the time its next token is due; an event over the limit only
+ * reads it, so a runaway key does not contend on its bucket.
+ */
+class EventLimiter {
+
+  private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+    @Override
+    protected Random initialValue() {
+      return new Random();
+    }
+  };
+
+  private final Metrics metrics;
+  private final Ticker ticker;
+  // shared by all threads if set, otherwise every thread uses its own
+  private final Random random;
+  private final Object lock = new Object();
+  private volatile Map<String, Rule> rules = Collections.emptyMap();
+  private volatile double samplingRate = 1;
+  private volatile TokenBucket globalLimit;
+  // false until a rule was set, so recording without rules costs a single read
+  private volatile boolean active;
+
+  EventLimiter(Metrics metrics) {
+    this(metrics, Ticker.SYSTEM, null);
+  }
+
+  /**
+   * @param random random numbers for sampling, null for a random of every thread
+   */
+  EventLimiter(Metrics metrics, Ticker ticker, Random random) {
+    this.metrics = metrics;
+    this.ticker = ticker;
+    this.random = random;
+  }
+
+  /**
+   * @param key  event key, null for the rate of keys without a rate of their own
+   * @param rate fraction of events kept, 1 keeps all
+   */
+  void setSampling(String key, double rate) {
+    rate = Math.max(0, Math.min(1, rate));
+    synchronized (lock) {
+      if (key == null) {
+        samplingRate = rate;
+      } else {
+        Rule rule = rules.get(key);
+        put(key, new Rule(rate < 1 ? rate : Double.NaN, rule != null ? rule.limit : null));
+      }
+      active = true;
+    }
+  }
+
+  /**
+   * @param key             event key, null for the limit of all events
+   * @param eventsPerSecond events kept per second on average, 0 or less to remove the limit
+   * @param burst           events kept at once after a pause
+   */
+  void setRateLimit(String key, double eventsPerSecond, int burst) {
+    TokenBucket limit = eventsPerSecond > 0 ? new TokenBucket(eventsPerSecond, burst, ticker) : null;
+    synchronized (lock) {
+      if (key == null) {
+        globalLimit = limit;
+      } else {
+        Rule rule = rules.get(key);
+        put(key, new Rule(rule != null ? rule.samplingRate : Double.NaN, limit));
+      }
+      active = true;
+    }
+  }
+
+  private void put(String key, Rule rule) {
+    Map<String, Rule> updated = new HashMap<String, Rule>(rules);
+    if (rule.isEmpty()) {
+      updated.remove(key);
+    } else {
+      updated.put(key, rule);
+    }
+    rules = updated;
+  }
+
+  /**
+   * @return 0 if the event is dropped, otherwise the factor its count, sum and dur are scaled by,
+   * the inverse of its sampling rate
+   */
+  double admit(String key) {
+    if (!active) {
+      return 1;
+    }
+    Rule rule = rules.get(key);
+    boolean ownRate = rule != null && !Double.isNaN(rule.samplingRate);
+    double rate = ownRate ? rule.samplingRate : samplingRate;
+    double scale = 1;
+    if (rate < 1) {
+      if (random().nextDouble() >= rate) {
+        metrics.eventSampledOut(ownRate ? key : null);
+        return 0;
+      }
+      scale = 1 / rate;
+    }
+    if (rule != null && rule.limit != null && !rule.limit.tryAcquire()) {
+      metrics.eventRateLimited(key);
+      return 0;
+    }
+    TokenBucket globalLimit = this.globalLimit;
+    if (globalLimit != null && !globalLimit.tryAcquire()) {
+      metrics.eventRateLimited(null);
+      return 0;
+    }
+    return scale;
+  }
+
+  /**
+   * Scales a count, rounding up or down at random so the scaled counts add up to the expected total.
+   */
+  int scale(int count, double scale) {
+    double scaled = count * scale;
+    double floor = Math.floor(scaled);
+    if (floor >= Integer.MAX_VALUE) {
+      return Integer.MAX_VALUE;
+    }
+    return (int) floor + (random().nextDouble() < scaled - floor ? 1 : 0);
+  }
+
+  private Random random() {
+    return random != null ? random : RANDOM.get();
+  }
+
+  private static final class Rule {
+    // NaN for the rate of all keys
+    final double samplingRate;
+    final TokenBucket limit;
+
+    Rule(double samplingRate, TokenBucket limit) {
+      this.samplingRate = samplingRate;
+      this.limit = limit;
+    }
+
+    boolean isEmpty() {
+      return Double.isNaN(samplingRate) && limit == null;
+    }
+  }
+
+  /**
+   * Token bucket kept as the time the next token is due: an event is admitted if that time is at most
+   * burst - 1 intervals ahead, and moves it one interval further.
+   */
+  static final class TokenBucket {
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final Ticker ticker;
+    private final AtomicLong nextNanos;
+
+    TokenBucket(double eventsPerSecond, int burst, Ticker ticker) {
+      this.ticker = ticker;
+      this.nextNanos = new AtomicLong(ticker.nanoTime());
+      this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / eventsPerSecond));
+      this.toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+    }
+
+    boolean tryAcquire() {
+      long now = ticker.nanoTime();
+      for (; ; ) {
+        long next = nextNanos.get();
+        long due = next - now < 0 ? now : next;
+        if (due - now > toleranceNanos) {
+          return false;
+        }
+        if (nextNanos.compareAndSet(next, due + intervalNanos)) {
+          return true;
+        }
+      }
+    }
+  }
+}
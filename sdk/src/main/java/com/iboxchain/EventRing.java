@@ -0,0 +1,103 @@
+package com.iboxchain;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ring buffer of pre-allocated events, filled in place by the recording threads and serialized by the sender,
+ * so recording an event allocates nothing once the ring was created.
+ * <p>
+ * Slots carry sequence numbers like in BoundedQueue: a producer claims a slot by a compare-and-set of the tail,
+ * fills its event and publishes it by advancing the slot's sequence. The single consumer reads the event at the
+ * head in place and releases the slot once it was serialized. Capacity is rounded up to the next power of two.
+ */
+class EventRing {
+
+  private final int mask;
+  private final Event[] events;
+  private final AtomicLongArray sequences;
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+
+  EventRing(int capacity) {
+    int size = 1;
+    while (size < Math.max(1, capacity)) {
+      size <<= 1;
+    }
+    this.mask = size - 1;
+    this.events = new Event[size];
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      events[i] = new Event(null);
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Claims the next free slot. The caller must fill {@link #event(long)} and {@link #publish(long)} the slot
+   * right away, the consumer waits for it.
+   *
+   * @return sequence of the claimed slot, -1 if the ring is full
+   */
+  long claim() {
+    long pos = tail.get();
+    for (; ; ) {
+      long dif = sequences.get((int) pos & mask) - pos;
+      if (dif == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          return pos;
+        }
+        pos = tail.get();
+      } else if (dif < 0) {
+        return -1;
+      } else {
+        pos = tail.get();
+      }
+    }
+  }
+
+  /**
+   * @return the event of a claimed slot, to be filled by the producer
+   */
+  Event event(long sequence) {
+    return events[(int) sequence & mask];
+  }
+
+  void publish(long sequence) {
+    sequences.set((int) sequence & mask, sequence + 1);
+  }
+
+  /**
+   * Called by the consumer only.
+   *
+   * @return the oldest published event, read in place until {@link #release()}, or null if there is none
+   */
+  Event peek() {
+    long pos = head.get();
+    int index = (int) pos & mask;
+    return sequences.get(index) == pos + 1 ? events[index] : null;
+  }
+
+  /**
+   * Frees the slot of the event returned by {@link #peek()}, called by the consumer only.
+   */
+  void release() {
+    long pos = head.get();
+    int index = (int) pos & mask;
+    events[index].clear();
+    head.lazySet(pos + 1);
+    sequences.set(index, pos + mask + 1);
+  }
+
+  int size() {
+    long size = tail.get() - head.get();
+    if (size < 0) {
+      return 0;
+    }
+    return (int) Math.min(size, mask + 1);
+  }
+
+  boolean isEmpty() {
+    return tail.get() == head.get();
+  }
+}
@@ -0,0 +1,91 @@
+package com.iboxchain;
+
+import java.io.Closeable;
+import java.util.Map;
+
+/**
+ * Measures the duration of an event with System.nanoTime() and records the event with its duration when stopped.
+ * Closing the timer stops it, so it can be used in a try-with-resources block:
+ * <pre>
+ * try (EventTimer timer = countly.startTimer("checkout")) {
+ *   ...
+ * }
+ * </pre>
+ * A timer records its event once, later calls of stop do nothing. A timer is meant to be used by one thread.
+ */
+public final class EventTimer implements Closeable {
+
+  private static final double NANOS_PER_SECOND = 1e9;
+
+  private final Countly countly;
+  private final String key;
+  private final Map<String, Object> segmentation;
+  private final long startNanos;
+  private boolean done;
+
+  EventTimer(Countly countly, String key, Map<String, Object> segmentation) {
+    this.countly = countly;
+    this.key = key;
+    this.segmentation = segmentation;
+    this.startNanos = System.nanoTime();
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * @return nanos passed since the timer was started
+   */
+  public long elapsedNanos() {
+    return System.nanoTime() - startNanos;
+  }
+
+  /**
+   * Records the event with the segmentation given when the timer was started.
+   *
+   * @return duration in seconds, -1 if the timer was already stopped or cancelled
+   */
+  public double stop() {
+    return stop(segmentation, 1, 0);
+  }
+
+  /**
+   * Records the event with its duration in seconds.
+   *
+   * @param segmentation segmentation of the event, can be null
+   * @param count        count of the event
+   * @param sum          sum of the event
+   * @return duration in seconds, -1 if the timer was already stopped or cancelled
+   */
+  public double stop(Map<String, Object> segmentation, int count, double sum) {
+    if (done) {
+      return -1;
+    }
+    done = true;
+    double dur = elapsedNanos() / NANOS_PER_SECOND;
+    countly.recordEvent(key, segmentation, count, sum, dur);
+    return dur;
+  }
+
+  /**
+   * Stops the timer without recording the event.
+   *
+   * @return false if the timer was already stopped or cancelled
+   */
+  public boolean cancel() {
+    if (done) {
+      return false;
+    }
+    done = true;
+    return true;
+  }
+
+  /**
+   * Same as {@link #stop()}.
+   */
+  @Override
+  public void close() {
+    stop();
+  }
+}
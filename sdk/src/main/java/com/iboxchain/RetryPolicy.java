@@ -0,0 +1,87 @@
+package com.iboxchain;
+
+import com.iboxchain.consumer.HttpConsumer;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether a failed send is retried and how long to back off before the next attempt.
+ * Network errors, 408, 429 and 5xx responses are retriable, other responses are permanent and never retried, as
+ * are a missing file to upload and an unsupported encoding, which fail the same way on every attempt.
+ * The backoff doubles with every attempt up to a max delay, randomized into its upper half so senders that
+ * failed together do not retry together.
+ * Not thread safe, owned by one sender.
+ */
+class RetryPolicy {
+
+  private final int maxAttempts;
+  private final long baseDelayNanos;
+  private final long maxDelayNanos;
+  private final Random random;
+
+  /**
+   * @param maxAttempts      max number of attempts of a batch held in memory, a spooled batch is retried until
+   *                         it was delivered or dropped from the spool
+   * @param baseDelayMillis  backoff after the first failure
+   * @param maxDelayMillis   max backoff
+   */
+  RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+    this(maxAttempts, baseDelayMillis, maxDelayMillis, new Random());
+  }
+
+  RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, Random random) {
+    this.random = random;
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.baseDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, baseDelayMillis));
+    this.maxDelayNanos = Math.max(baseDelayNanos, TimeUnit.MILLISECONDS.toNanos(maxDelayMillis));
+  }
+
+  /**
+   * @return true if the send may succeed when it is repeated later
+   */
+  static boolean isRetriable(Throwable e) {
+    if (e instanceof HttpConsumer.HttpConsumerException) {
+      int status = statusOf(e);
+      return status == 408 || status == 429 || status >= 500;
+    }
+    if (e instanceof FileNotFoundException || e instanceof UnsupportedEncodingException) {
+      return false;
+    }
+    return e instanceof IOException;
+  }
+
+  /**
+   * @return HTTP status code of a failed send, 0 if no response was received
+   */
+  static int statusOf(Throwable e) {
+    if (e instanceof HttpConsumer.HttpConsumerException) {
+      return ((HttpConsumer.HttpConsumerException) e).getHttpStatusCode();
+    }
+    return 0;
+  }
+
+  /**
+   * @return true if a batch held in memory may be attempted again after the given number of failed attempts
+   */
+  boolean canRetry(int attempts) {
+    return attempts < maxAttempts;
+  }
+
+  /**
+   * @param attempts number of failed attempts so far, at least 1
+   * @return nanos to wait before the next attempt
+   */
+  long delayNanos(int attempts) {
+    long delay = maxDelayNanos;
+    int shift = attempts - 1;
+    if (shift < 62 && baseDelayNanos <= maxDelayNanos >> shift) {
+      delay = baseDelayNanos << shift;
+    }
+    long half = delay / 2;
+    return half + (long) (random.nextDouble() * (delay - half));
+  }
+}
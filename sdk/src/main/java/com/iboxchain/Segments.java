@@ -0,0 +1,217 @@
+package com.iboxchain;
+
+import com.iboxchain.utils.JsonWriter;
+import org.json.JSONException;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Segmentation of an event kept in parallel arrays: names, value kinds, numbers (longs and the bits of doubles)
+ * and strings, so building and serializing it boxes nothing. Filled by an EventBuilder, which clears and reuses it for
+ * its next event; an event keeps a {@link #copy()} or copies it into its own segments, read only afterwards.
+ */
+final class Segments {
+
+  private static final byte LONG = 0;
+  private static final byte DOUBLE = 1;
+  private static final byte STRING = 2;
+  private static final byte BOOLEAN = 3;
+
+  private String[] names;
+  private byte[] kinds;
+  private long[] numbers;
+  private String[] strings;
+  private int size;
+
+  Segments() {
+    this(4);
+  }
+
+  Segments(int capacity) {
+    names = new String[capacity];
+    kinds = new byte[capacity];
+    numbers = new long[capacity];
+    strings = new String[capacity];
+  }
+
+  void putLong(String name, long value) {
+    put(name, LONG, value, null);
+  }
+
+  void putDouble(String name, double value) {
+    put(name, DOUBLE, Double.doubleToLongBits(value), null);
+  }
+
+  void putString(String name, String value) {
+    put(name, STRING, 0, value);
+  }
+
+  void putBoolean(String name, boolean value) {
+    put(name, BOOLEAN, value ? 1 : 0, null);
+  }
+
+  /**
+   * Sets the value of a name, replacing an earlier value of the same name.
+   */
+  private void put(String name, byte kind, long number, String string) {
+    int index = 0;
+    while (index < size && !names[index].equals(name)) {
+      index++;
+    }
+    if (index == size) {
+      if (size == names.length) {
+        int capacity = Math.max(4, size * 2);
+        names = Arrays.copyOf(names, capacity);
+        kinds = Arrays.copyOf(kinds, capacity);
+        numbers = Arrays.copyOf(numbers, capacity);
+        strings = Arrays.copyOf(strings, capacity);
+      }
+      names[index] = name;
+      size++;
+    }
+    kinds[index] = kind;
+    numbers[index] = number;
+    strings[index] = string;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Removes all entries, keeping the arrays for the next ones.
+   */
+  void clear() {
+    Arrays.fill(names, 0, size, null);
+    Arrays.fill(strings, 0, size, null);
+    size = 0;
+  }
+
+  /**
+   * @return copy with arrays just large enough for the entries
+   */
+  Segments copy() {
+    Segments copy = new Segments(size);
+    copy.copyFrom(this);
+    return copy;
+  }
+
+  /**
+   * Replaces the entries with the entries of another Segments, growing the arrays if they are too small.
+   */
+  void copyFrom(Segments other) {
+    if (names.length < other.size) {
+      names = new String[other.size];
+      kinds = new byte[other.size];
+      numbers = new long[other.size];
+      strings = new String[other.size];
+    } else {
+      clear();
+    }
+    System.arraycopy(other.names, 0, names, 0, other.size);
+    System.arraycopy(other.kinds, 0, kinds, 0, other.size);
+    System.arraycopy(other.numbers, 0, numbers, 0, other.size);
+    System.arraycopy(other.strings, 0, strings, 0, other.size);
+    size = other.size;
+  }
+
+  /**
+   * Appends the entries as members of a JSON object, leaving out names that are also super properties.
+   *
+   * @return true if nothing was written before nor by this call, i.e. the object is still empty
+   */
+  boolean writeJSON(StringBuilder out, Map<String, Object> superProperties, boolean empty) throws JSONException {
+    boolean hasSuperProperties = superProperties != null && !superProperties.isEmpty();
+    for (int i = 0; i < size; i++) {
+      if (hasSuperProperties && superProperties.containsKey(names[i])) {
+        continue;
+      }
+      if (!empty) {
+        out.append(',');
+      }
+      empty = false;
+      JsonWriter.quote(out, names[i]);
+      out.append(':');
+      switch (kinds[i]) {
+        case LONG:
+          out.append(numbers[i]);
+          break;
+        case DOUBLE:
+          JsonWriter.number(out, Double.longBitsToDouble(numbers[i]));
+          break;
+        case STRING:
+          JsonWriter.quote(out, strings[i]);
+          break;
+        default:
+          out.append(numbers[i] != 0);
+      }
+    }
+    return empty;
+  }
+
+  /**
+   * @return the entries as a new map of boxed values
+   */
+  Map<String, Object> toMap() {
+    Map<String, Object> map = new LinkedHashMap<String, Object>();
+    for (int i = 0; i < size; i++) {
+      map.put(names[i], value(i));
+    }
+    return map;
+  }
+
+  private Object value(int i) {
+    switch (kinds[i]) {
+      case LONG:
+        return numbers[i];
+      case DOUBLE:
+        return Double.longBitsToDouble(numbers[i]);
+      case STRING:
+        return strings[i];
+      default:
+        return numbers[i] != 0;
+    }
+  }
+
+  /**
+   * Segments are equal if they have the same entries in the same order.
+   */
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof Segments)) {
+      return false;
+    }
+    Segments other = (Segments) o;
+    if (size != other.size) {
+      return false;
+    }
+    for (int i = 0; i < size; i++) {
+      if (kinds[i] != other.kinds[i] || numbers[i] != other.numbers[i] || !names[i].equals(other.names[i])
+          || (strings[i] == null ? other.strings[i] != null : !strings[i].equals(other.strings[i]))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = size;
+    for (int i = 0; i < size; i++) {
+      hash = 31 * hash + names[i].hashCode();
+      hash = 31 * hash + (int) (numbers[i] ^ (numbers[i] >>> 32));
+      hash = 31 * hash + (strings[i] != null ? strings[i].hashCode() : kinds[i]);
+    }
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return toMap().toString();
+  }
+}
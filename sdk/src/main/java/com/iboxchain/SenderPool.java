@@ -0,0 +1,142 @@
+package com.iboxchain;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Daemon threads shared by the async senders of all Countly instances, so adding instances does not add threads.
+ * Senders are not pinned to a worker: every worker runs the senders with work that no other worker is running
+ * right now, so a sender blocked on a slow or unresponsive server holds up one thread while the other workers
+ * go on with the other senders. Workers park while no sender has work.
+ */
+class SenderPool {
+
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private static SenderPool shared;
+
+  private final CopyOnWriteArrayList<AsyncSender> senders = new CopyOnWriteArrayList<AsyncSender>();
+  private final Worker[] workers;
+
+  /**
+   * @return the pool of all Countly instances, started with Config.SENDER_THREADS threads on first use
+   */
+  static synchronized SenderPool shared() {
+    if (shared == null) {
+      shared = new SenderPool(Config.SENDER_THREADS);
+    }
+    return shared;
+  }
+
+  SenderPool(int threads) {
+    workers = new Worker[Math.max(1, threads)];
+    for (int i = 0; i < workers.length; i++) {
+      workers[i] = new Worker(workers.length == 1 ? "countly-sender" : "countly-sender-" + i);
+    }
+  }
+
+  /**
+   * Adds the sender to the senders run by the workers until it terminated.
+   */
+  void register(AsyncSender sender) {
+    senders.add(sender);
+    wakeUp();
+  }
+
+  /**
+   * Wakes up one parked worker, if any.
+   */
+  void signal() {
+    for (Worker worker : workers) {
+      if (worker.waiting) {
+        LockSupport.unpark(worker.thread);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Wakes up every worker.
+   */
+  void wakeUp() {
+    for (Worker worker : workers) {
+      LockSupport.unpark(worker.thread);
+    }
+  }
+
+  /**
+   * @return false if every worker died
+   */
+  boolean isAlive() {
+    for (Worker worker : workers) {
+      if (worker.thread.isAlive()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private class Worker implements Runnable {
+    private final Thread thread;
+    private volatile boolean waiting;
+
+    Worker(String name) {
+      thread = new Thread(this, name);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    @Override
+    public void run() {
+      for (; ; ) {
+        long parkNanos = IDLE_PARK_NANOS;
+        for (AsyncSender sender : senders) {
+          if (!sender.startTurn()) {
+            // another worker runs it
+            continue;
+          }
+          long senderPark;
+          try {
+            senderPark = sender.process();
+          } catch (Throwable e) {
+            // never let one sender stop the others
+            senderPark = IDLE_PARK_NANOS;
+          } finally {
+            sender.endTurn();
+          }
+          if (sender.isTerminated()) {
+            senders.remove(sender);
+          }
+          parkNanos = Math.min(parkNanos, senderPark);
+        }
+        if (parkNanos <= 0) {
+          continue;
+        }
+        waiting = true;
+        if (!hasWork()) {
+          LockSupport.parkNanos(this, parkNanos);
+        }
+        waiting = false;
+      }
+    }
+
+    /**
+     * @return true if a sender that no other worker runs has work
+     */
+    private boolean hasWork() {
+      for (AsyncSender sender : senders) {
+        if (sender.startTurn()) {
+          try {
+            if (sender.hasWork()) {
+              return true;
+            }
+          } finally {
+            sender.endTurn();
+          }
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package com.iboxchain;
+
+/**
+ * Configuration of one Countly instance created by Countly.newInstance().
+ * New instances start with the defaults in Config and are changed by the setters of their Countly instance,
+ * the shared instance keeps using the static fields of Config.
+ */
+class Settings {
+  int consumerType = Config.TYPE_HTTP_CONSUMER;
+  boolean asyncEnabled = Config.IS_ASYNC_ENABLE;
+  int queueCapacity = Config.QUEUE_CAPACITY;
+  int overflowPolicy = Config.OVERFLOW_POLICY;
+  long overflowBlockTimeoutMillis = Config.OVERFLOW_BLOCK_TIMEOUT_MILLIS;
+  int batchMaxEvents = Config.BATCH_MAX_EVENTS;
+  int batchMaxBytes = Config.BATCH_MAX_BYTES;
+  long batchLingerMillis = Config.BATCH_LINGER_MILLIS;
+  int httpMethod = Config.HTTP_METHOD;
+  String spoolDir = Config.SPOOL_DIR;
+  int spoolSegmentBytes = Config.SPOOL_SEGMENT_BYTES;
+  long spoolMaxBytes = Config.SPOOL_MAX_BYTES;
+  long spoolSyncIntervalMillis = Config.SPOOL_SYNC_INTERVAL_MILLIS;
+  String logConsumerDir = Config.LOG_CONSUMER_DIR;
+  long logConsumerMaxFileBytes = Config.LOG_CONSUMER_MAX_FILE_BYTES;
+  long logConsumerRotateIntervalMillis = Config.LOG_CONSUMER_ROTATE_INTERVAL_MILLIS;
+  long logConsumerFlushIntervalMillis = Config.LOG_CONSUMER_FLUSH_INTERVAL_MILLIS;
+  boolean bulkEnabled = Config.IS_BULK_ENABLE;
+  int bulkMaxRequests = Config.BULK_MAX_REQUESTS;
+  int bulkMaxBytes = Config.BULK_MAX_BYTES;
+  int retryMaxAttempts = Config.RETRY_MAX_ATTEMPTS;
+  long retryBaseDelayMillis = Config.RETRY_BASE_DELAY_MILLIS;
+  long retryMaxDelayMillis = Config.RETRY_MAX_DELAY_MILLIS;
+  int circuitFailureThreshold = Config.CIRCUIT_FAILURE_THRESHOLD;
+  long circuitOpenMillis = Config.CIRCUIT_OPEN_MILLIS;
+  boolean gzipEnabled = Config.IS_GZIP_ENABLE;
+  int checksumAlgorithm = Config.CHECKSUM_ALGORITHM;
+  String checksumSalt = Config.CHECKSUM_SALT;
+  boolean aggregationEnabled = Config.IS_AGGREGATION_ENABLE;
+  long aggregationWindowMillis = Config.AGGREGATION_WINDOW_MILLIS;
+  boolean pooledEventsEnabled = Config.IS_POOLED_EVENTS_ENABLE;
+}
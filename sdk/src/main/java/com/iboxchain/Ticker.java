@@ -0,0 +1,16 @@
+package com.iboxchain;
+
+/**
+ * Source of System.nanoTime() for the classes that measure elapsed time, replaced by tests to control time.
+ */
+interface Ticker {
+
+  Ticker SYSTEM = new Ticker() {
+    @Override
+    public long nanoTime() {
+      return System.nanoTime();
+    }
+  };
+
+  long nanoTime();
+}
@@ -1,40 +1,47 @@
 package com.iboxchain;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Ensurer the TimeMillis is unique
+ * <p>
+ * Lock free: every timestamp is the current time, or the last returned timestamp + 1 if the clock did
+ * not move on yet, claimed with a compare-and-set. Under a burst the timestamps may run ahead of the
+ * clock until it catches up. When the clock itself is set back by more than MAX_CLOCK_REGRESSION_MS
+ * the generator follows the clock again instead of running ahead of it.
  **/
 public class TimeUniquesEnsurer {
-  private final List<Long> lastTsMs = new ArrayList(10);
+  static final long MAX_CLOCK_REGRESSION_MS = 1000;
+
+  private final AtomicLong lastTsMs = new AtomicLong(Long.MIN_VALUE);
+  // latest clock reading, racy updates are fine, it is only compared against the regression threshold
+  private volatile long lastClockMs = Long.MIN_VALUE;
   private final long addition = 0;
 
-  private long currentTimeMillis() {
+  protected long currentTimeMillis() {
     return System.currentTimeMillis() + addition;
   }
 
-  public synchronized long uniqueTimestamp() {
+  public long uniqueTimestamp() {
     long ms = currentTimeMillis();
-
-    // change time back case
-    if (lastTsMs.size() > 2) {
-      long min = Collections.min(lastTsMs);
-      if (ms < min) {
-        lastTsMs.clear();
-        lastTsMs.add(ms);
-        return ms;
-      }
+    long lastClock = lastClockMs;
+    boolean regressed = lastClock != Long.MIN_VALUE && ms < lastClock - MAX_CLOCK_REGRESSION_MS;
+    if (ms > lastClock || regressed) {
+      lastClockMs = ms;
     }
-    // usual case
-    while (lastTsMs.contains(ms)) {
-      ms += 1;
-    }
-    while (lastTsMs.size() >= 10) {
-      lastTsMs.remove(0);
+    for (; ; ) {
+      long last = lastTsMs.get();
+      long next = ms;
+      if (regressed && last - ms > MAX_CLOCK_REGRESSION_MS) {
+        // change time back case, restart from the clock
+        next = ms;
+      } else if (ms <= last) {
+        // usual case, several calls within the same millisecond
+        next = last + 1;
+      }
+      if (lastTsMs.compareAndSet(last, next)) {
+        return next;
+      }
     }
-    lastTsMs.add(ms);
-    return ms;
   }
 }
@@ -7,13 +7,17 @@ import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * This class hold the data of user
+ * <p>
+ * Immutable, created by a {@link Builder} for every update, so updates of different users can be
+ * serialized and sent concurrently.
  */
-public class UserData {
+public final class UserData {
   private static final String NAME_KEY = "name";
   private static final String USERNAME_KEY = "username";
   private static final String EMAIL_KEY = "email";
@@ -25,145 +29,110 @@ public class UserData {
   private static final String BYEAR_KEY = "byear";
   private static final String CUSTOM_KEY = "custom";
 
-  private static String name;
-  private static String username;
-  private static String email;
-  private static String org;
-  private static String phone;
-  private static String picture;
-  private static String picturePath;
-  private static String gender;
-  private static Map<String, String> custom;
-  private static Map<String, JSONObject> customMods;
-  private static int byear = 0;
+  private final String name;
+  private final String username;
+  private final String email;
+  private final String org;
+  private final String phone;
+  private final String picture;
+  private final String picturePath;
+  private final String gender;
+  private final Map<String, String> custom;
+  private final int byear;
+  // false if nothing was set, such an update sends no user details
+  private final boolean hasData;
 
-  private static boolean isSynced = true;
+  // collected by the deprecated setters for the next Countly.sendUserData(Map, Map)
+  private static volatile Builder legacy;
 
+  private UserData(Builder builder) {
+    name = builder.name;
+    username = builder.username;
+    email = builder.email;
+    org = builder.org;
+    phone = builder.phone;
+    picture = builder.picture;
+    picturePath = builder.picturePath;
+    gender = builder.gender;
+    custom = builder.custom == null ? null
+        : Collections.unmodifiableMap(new HashMap<String, String>(builder.custom));
+    byear = builder.byear;
+    hasData = builder.hasData;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @deprecated build the update with {@link #builder()} and send it with Countly.sendUserData(UserData)
+   */
+  @Deprecated
   public void setUserData(Map<String, String> data) {
     setUserData(data, null);
   }
 
   /**
-   * Sets information about user with custom properties.
-   * In custom properties you can provide any string key values to be stored with user
-   * Possible keys are:
-   * <ul>
-   * <li>
-   * name - (String) providing user's full name
-   * </li>
-   * <li>
-   * username - (String) providing user's nickname
-   * </li>
-   * <li>
-   * email - (String) providing user's email address
-   * </li>
-   * <li>
-   * organization - (String) providing user's organization's name where user works
-   * </li>
-   * <li>
-   * phone - (String) providing user's phone number
-   * </li>
-   * <li>
-   * picture - (String) providing WWW URL to user's avatar or profile picture
-   * </li>
-   * <li>
-   * picturePath - (String) providing local path to user's avatar or profile picture
-   * </li>
-   * <li>
-   * gender - (String) providing user's gender as M for male and F for female
-   * </li>
-   * <li>
-   * byear - (int) providing user's year of birth as integer
-   * </li>
-   * </ul>
+   * Sets information about user with custom properties, sent with the next Countly.sendUserData(Map, Map).
    *
-   * @param data       Map&lt;String, String&gt; with user data
+   * @param data       Map&lt;String, String&gt; with user data, see {@link Builder#data(Map)}
    * @param customData Map&lt;String, String&gt; with custom key values for this user
+   * @deprecated build the update with {@link #builder()} and send it with Countly.sendUserData(UserData)
    */
+  @Deprecated
   public void setUserData(Map<String, String> data, Map<String, String> customData) {
     UserData.setData(data);
     if (customData != null)
       UserData.setCustomData(customData);
   }
 
+  /**
+   * @deprecated use {@link Builder#customData(Map)}
+   */
+  @Deprecated
   public void setCustomUserData(Map<String, String> customdata) {
     if (customdata != null)
       UserData.setCustomData(customdata);
   }
 
+  /**
+   * @deprecated use {@link Builder#customProperty(String, String)}
+   */
+  @Deprecated
   public void setProperty(String key, String value) {
     UserData.setCustomProperty(key, value);
   }
 
   /**
-   * Clear all submitted information
+   * Clear all information set but not sent yet
+   *
+   * @deprecated every {@link UserData} is sent on its own, there is nothing to clear
    */
-  public static void clear() {
-    name = null;
-    username = null;
-    email = null;
-    org = null;
-    phone = null;
-    picture = null;
-    picturePath = null;
-    gender = null;
-    custom = null;
-    customMods = null;
-    byear = 0;
-    isSynced = true;
+  @Deprecated
+  public static synchronized void clear() {
+    legacy = null;
   }
 
-
-  public static void setData(Map<String, String> data) {
+  /**
+   * @deprecated use {@link Builder#data(Map)}
+   */
+  @Deprecated
+  public static synchronized void setData(Map<String, String> data) {
     if (data == null) {
       return;
     }
-    if (data.containsKey(NAME_KEY))
-      name = data.get(NAME_KEY);
-    if (data.containsKey(USERNAME_KEY))
-      username = data.get(USERNAME_KEY);
-    if (data.containsKey(EMAIL_KEY))
-      email = data.get(EMAIL_KEY);
-    if (data.containsKey(ORG_KEY))
-      org = data.get(ORG_KEY);
-    if (data.containsKey(PHONE_KEY)) {
-      phone = data.get(PHONE_KEY);
-    }
-    if (data.containsKey(PICTURE_PATH_KEY)) {
-      picturePath = data.get(PICTURE_PATH_KEY);
-    }
-    if (picturePath != null) {
-      File sourceFile = new File(picturePath);
-      if (!sourceFile.isFile()) {
-        picturePath = null;
-      }
-    }
-    if (data.containsKey(PICTURE_KEY)) {
-      picture = data.get(PICTURE_KEY);
-    }
-    if (data.containsKey(GENDER_KEY)) {
-      gender = data.get(GENDER_KEY);
-    }
-    if (data.containsKey(BYEAR_KEY)) {
-      try {
-        byear = Integer.parseInt(data.get(BYEAR_KEY));
-      } catch (NumberFormatException e) {
-        byear = 0;
-      }
-    }
-    isSynced = false;
+    legacyBuilder().data(data);
   }
 
   /**
    * Sets user custom properties and values.
    *
    * @param data Map with user custom key/values
+   * @deprecated use {@link Builder#customData(Map)}
    */
-  public static void setCustomData(Map<String, String> data) {
-    if (custom == null)
-      custom = new HashMap<String, String>();
-    custom.putAll(data);
-    isSynced = false;
+  @Deprecated
+  public static synchronized void setCustomData(Map<String, String> data) {
+    legacyBuilder().customData(data);
   }
 
   /**
@@ -171,12 +140,88 @@ public class UserData {
    *
    * @param key   String with key for the property
    * @param value String with value for the property
+   * @deprecated use {@link Builder#customProperty(String, String)}
+   */
+  @Deprecated
+  public static synchronized void setCustomProperty(String key, String value) {
+    legacyBuilder().customProperty(key, value);
+  }
+
+  private static Builder legacyBuilder() {
+    if (legacy == null) {
+      legacy = new Builder();
+    }
+    return legacy;
+  }
+
+  /**
+   * Creates user data from the given key/values set over what the deprecated setters collected,
+   * which are cleared.
+   */
+  static UserData takeLegacy(Map<String, String> data, Map<String, String> customData) {
+    if (legacy == null) {
+      return of(data, customData);
+    }
+    Builder builder;
+    synchronized (UserData.class) {
+      builder = legacy != null ? legacy : builder();
+      legacy = null;
+    }
+    return builder.data(data).customData(customData).build();
+  }
+
+  /**
+   * Creates user data from the key/values accepted by Countly.sendUserData(Map, Map).
+   *
+   * @param data       Map&lt;String, String&gt; with user data, can be null
+   * @param customData Map&lt;String, String&gt; with custom key values for this user, can be null
+   * @return user data
    */
-  public static void setCustomProperty(String key, String value) {
-    if (custom == null)
-      custom = new HashMap<String, String>();
-    custom.put(key, value);
-    isSynced = false;
+  public static UserData of(Map<String, String> data, Map<String, String> customData) {
+    return builder().data(data).customData(customData).build();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getUsername() {
+    return username;
+  }
+
+  public String getEmail() {
+    return email;
+  }
+
+  public String getOrganization() {
+    return org;
+  }
+
+  public String getPhone() {
+    return phone;
+  }
+
+  public String getPicture() {
+    return picture;
+  }
+
+  public String getPicturePath() {
+    return picturePath;
+  }
+
+  public String getGender() {
+    return gender;
+  }
+
+  public int getByear() {
+    return byear;
+  }
+
+  /**
+   * @return unmodifiable custom properties, or null if none were set
+   */
+  public Map<String, String> getCustom() {
+    return custom;
   }
 
   /**
@@ -209,45 +254,17 @@ public class UserData {
    *
    * @return a JSONObject containing the user data from this object
    */
-  public static JSONObject toJSON() {
+  public JSONObject toJSON() {
     final JSONObject json = new JSONObject();
 
     try {
-      if (name != null)
-        if (name.equals(""))
-          json.put(NAME_KEY, JSONObject.NULL);
-        else
-          json.put(NAME_KEY, name);
-      if (username != null)
-        if (username.equals(""))
-          json.put(USERNAME_KEY, JSONObject.NULL);
-        else
-          json.put(USERNAME_KEY, username);
-      if (email != null)
-        if (email.equals(""))
-          json.put(EMAIL_KEY, JSONObject.NULL);
-        else
-          json.put(EMAIL_KEY, email);
-      if (org != null)
-        if (org.equals(""))
-          json.put(ORG_KEY, JSONObject.NULL);
-        else
-          json.put(ORG_KEY, org);
-      if (phone != null)
-        if (phone.equals(""))
-          json.put(PHONE_KEY, JSONObject.NULL);
-        else
-          json.put(PHONE_KEY, phone);
-      if (picture != null)
-        if (picture.equals(""))
-          json.put(PICTURE_KEY, JSONObject.NULL);
-        else
-          json.put(PICTURE_KEY, picture);
-      if (gender != null)
-        if (gender.equals(""))
-          json.put(GENDER_KEY, JSONObject.NULL);
-        else
-          json.put(GENDER_KEY, gender);
+      putString(json, NAME_KEY, name);
+      putString(json, USERNAME_KEY, username);
+      putString(json, EMAIL_KEY, email);
+      putString(json, ORG_KEY, org);
+      putString(json, PHONE_KEY, phone);
+      putString(json, PICTURE_KEY, picture);
+      putString(json, GENDER_KEY, gender);
       if (byear != 0)
         if (byear > 0)
           json.put(BYEAR_KEY, byear);
@@ -260,11 +277,6 @@ public class UserData {
       } else {
         ob = new JSONObject();
       }
-      if (customMods != null) {
-        for (Map.Entry<String, JSONObject> entry : customMods.entrySet()) {
-          ob.put(entry.getKey(), entry.getValue());
-        }
-      }
       json.put(CUSTOM_KEY, ob);
     } catch (JSONException e) {
       e.printStackTrace();
@@ -276,33 +288,220 @@ public class UserData {
   /**
    * Returns &user_details= prefixed url to add to request data when making request to server
    *
-   * @return a String user_details url part with provided user data
+   * @return a String user_details url part with provided user data, empty if no data was set
+   */
+  public String getDataForRequest() {
+    if (!hasData) {
+      return "";
+    }
+    String result = toJSON().toString();
+    try {
+      result = java.net.URLEncoder.encode(result, "UTF-8");
+
+      if (result != null && !result.equals("")) {
+        result = "&user_details=" + result;
+        if (picturePath != null)
+          result += "&" + PICTURE_PATH_KEY + "=" + java.net.URLEncoder.encode(picturePath, "UTF-8");
+      } else {
+        result = "";
+        if (picturePath != null)
+          result += "&user_details&" + PICTURE_PATH_KEY + "=" + java.net.URLEncoder.encode(picturePath, "UTF-8");
+      }
+    } catch (UnsupportedEncodingException e) {
+      e.printStackTrace();
+    }
+    return result;
+  }
+
+  /**
+   * An empty string clears the field on the server.
    */
-  public static String getDataForRequest() {
-    if (!isSynced) {
-      isSynced = true;
-      final JSONObject json = UserData.toJSON();
-      if (json != null) {
-        String result = json.toString();
+  private static void putString(JSONObject json, String key, String value) throws JSONException {
+    if (value != null)
+      if (value.equals(""))
+        json.put(key, JSONObject.NULL);
+      else
+        json.put(key, value);
+  }
+
+  /**
+   * Collects the fields of one user data update. Not thread safe, use one builder per update.
+   */
+  public static final class Builder {
+    private String name;
+    private String username;
+    private String email;
+    private String org;
+    private String phone;
+    private String picture;
+    private String picturePath;
+    private String gender;
+    private Map<String, String> custom;
+    private int byear = 0;
+    private boolean hasData;
+
+    private Builder() {
+    }
+
+    /**
+     * Sets the fields given in the map.
+     * Possible keys are:
+     * <ul>
+     * <li>
+     * name - (String) providing user's full name
+     * </li>
+     * <li>
+     * username - (String) providing user's nickname
+     * </li>
+     * <li>
+     * email - (String) providing user's email address
+     * </li>
+     * <li>
+     * organization - (String) providing user's organization's name where user works
+     * </li>
+     * <li>
+     * phone - (String) providing user's phone number
+     * </li>
+     * <li>
+     * picture - (String) providing WWW URL to user's avatar or profile picture
+     * </li>
+     * <li>
+     * picturePath - (String) providing local path to user's avatar or profile picture
+     * </li>
+     * <li>
+     * gender - (String) providing user's gender as M for male and F for female
+     * </li>
+     * <li>
+     * byear - (int) providing user's year of birth as integer
+     * </li>
+     * </ul>
+     *
+     * @param data Map&lt;String, String&gt; with user data, can be null
+     * @return this builder
+     */
+    public Builder data(Map<String, String> data) {
+      if (data == null) {
+        return this;
+      }
+      hasData = true;
+      if (data.containsKey(NAME_KEY))
+        name = data.get(NAME_KEY);
+      if (data.containsKey(USERNAME_KEY))
+        username = data.get(USERNAME_KEY);
+      if (data.containsKey(EMAIL_KEY))
+        email = data.get(EMAIL_KEY);
+      if (data.containsKey(ORG_KEY))
+        org = data.get(ORG_KEY);
+      if (data.containsKey(PHONE_KEY))
+        phone = data.get(PHONE_KEY);
+      if (data.containsKey(PICTURE_PATH_KEY))
+        picturePath(data.get(PICTURE_PATH_KEY));
+      if (data.containsKey(PICTURE_KEY))
+        picture = data.get(PICTURE_KEY);
+      if (data.containsKey(GENDER_KEY))
+        gender = data.get(GENDER_KEY);
+      if (data.containsKey(BYEAR_KEY)) {
         try {
-          result = java.net.URLEncoder.encode(result, "UTF-8");
-
-          if (result != null && !result.equals("")) {
-            result = "&user_details=" + result;
-            if (picturePath != null)
-              result += "&" + PICTURE_PATH_KEY + "=" + java.net.URLEncoder.encode(picturePath, "UTF-8");
-          } else {
-            result = "";
-            if (picturePath != null)
-              result += "&user_details&" + PICTURE_PATH_KEY + "=" + java.net.URLEncoder.encode(picturePath, "UTF-8");
-          }
-        } catch (UnsupportedEncodingException e) {
-          e.printStackTrace();
+          byear = Integer.parseInt(data.get(BYEAR_KEY));
+        } catch (NumberFormatException e) {
+          byear = 0;
         }
+      }
+      return this;
+    }
 
-        return result;
+    /**
+     * Sets user custom properties and values.
+     *
+     * @param data Map with user custom key/values, can be null
+     * @return this builder
+     */
+    public Builder customData(Map<String, String> data) {
+      if (data == null) {
+        return this;
       }
+      hasData = true;
+      if (custom == null)
+        custom = new HashMap<String, String>();
+      custom.putAll(data);
+      return this;
+    }
+
+    /**
+     * Sets custom provide key/value as custom property.
+     *
+     * @param key   String with key for the property
+     * @param value String with value for the property
+     * @return this builder
+     */
+    public Builder customProperty(String key, String value) {
+      hasData = true;
+      if (custom == null)
+        custom = new HashMap<String, String>();
+      custom.put(key, value);
+      return this;
+    }
+
+    public Builder name(String name) {
+      this.name = name;
+      hasData = true;
+      return this;
+    }
+
+    public Builder username(String username) {
+      this.username = username;
+      hasData = true;
+      return this;
+    }
+
+    public Builder email(String email) {
+      this.email = email;
+      hasData = true;
+      return this;
+    }
+
+    public Builder organization(String organization) {
+      this.org = organization;
+      hasData = true;
+      return this;
+    }
+
+    public Builder phone(String phone) {
+      this.phone = phone;
+      hasData = true;
+      return this;
+    }
+
+    public Builder picture(String picture) {
+      this.picture = picture;
+      hasData = true;
+      return this;
+    }
+
+    /**
+     * @param picturePath local path of the user's picture, ignored if it is not a file
+     * @return this builder
+     */
+    public Builder picturePath(String picturePath) {
+      this.picturePath = picturePath != null && new File(picturePath).isFile() ? picturePath : null;
+      hasData = true;
+      return this;
+    }
+
+    public Builder gender(String gender) {
+      this.gender = gender;
+      hasData = true;
+      return this;
+    }
+
+    public Builder byear(int byear) {
+      this.byear = byear;
+      hasData = true;
+      return this;
+    }
+
+    public UserData build() {
+      return new UserData(this);
     }
-    return "";
   }
 }
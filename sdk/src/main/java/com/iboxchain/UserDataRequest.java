@@ -0,0 +1,17 @@
+package com.iboxchain;
+
+/**
+ * A user data update queued for the bulk endpoint, serialized by the sender thread.
+ */
+class UserDataRequest {
+  // null for the app key and device id of the Countly instance
+  final String appKey;
+  final String deviceId;
+  final UserData userData;
+
+  UserDataRequest(String appKey, String deviceId, UserData userData) {
+    this.appKey = appKey;
+    this.deviceId = deviceId;
+    this.userData = userData;
+  }
+}
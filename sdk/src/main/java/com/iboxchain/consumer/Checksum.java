@@ -0,0 +1,95 @@
+package com.iboxchain.consumer;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * How requests are checksummed: SHA-1 sent as the checksum parameter or SHA-256 sent as checksum256, each
+ * hashed over the request parameters followed by the salt configured for the app on the Countly server.
+ * Digests are kept per thread and reused, so a request costs no provider lookup and no digest allocation.
+ */
+public final class Checksum {
+
+  /**
+   * SHA-1 without salt, the default.
+   */
+  public static final Checksum SHA1 = new Checksum("SHA-1", "&checksum=", null);
+
+  private static final ThreadLocal<MessageDigest> SHA1_DIGEST = digest("SHA-1");
+  private static final ThreadLocal<MessageDigest> SHA256_DIGEST = digest("SHA-256");
+
+  private final String algorithm;
+  private final String parameter;
+  private final byte[] salt;
+
+  private Checksum(String algorithm, String parameter, String salt) {
+    this.algorithm = algorithm;
+    this.parameter = parameter;
+    try {
+      this.salt = salt != null && salt.length() > 0 ? salt.getBytes("UTF-8") : null;
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @param salt salt of the app, null for none
+   * @return SHA-1 sent as the checksum parameter
+   */
+  public static Checksum sha1(String salt) {
+    return salt == null || salt.length() == 0 ? SHA1 : new Checksum("SHA-1", "&checksum=", salt);
+  }
+
+  /**
+   * @param salt salt of the app, null for none
+   * @return SHA-256 sent as the checksum256 parameter
+   */
+  public static Checksum sha256(String salt) {
+    return new Checksum("SHA-256", "&checksum256=", salt);
+  }
+
+  /**
+   * @return "&amp;checksum=" or "&amp;checksum256="
+   */
+  String parameter() {
+    return parameter;
+  }
+
+  /**
+   * @return the reset digest of the calling thread, only one request per thread may use it at a time
+   */
+  MessageDigest digest() {
+    MessageDigest digest = (algorithm.equals("SHA-1") ? SHA1_DIGEST : SHA256_DIGEST).get();
+    digest.reset();
+    return digest;
+  }
+
+  /**
+   * Adds the salt and completes the hash.
+   */
+  byte[] complete(MessageDigest digest) {
+    if (salt != null) {
+      digest.update(salt);
+    }
+    return digest.digest();
+  }
+
+  private static ThreadLocal<MessageDigest> digest(final String algorithm) {
+    return new ThreadLocal<MessageDigest>() {
+      @Override
+      protected MessageDigest initialValue() {
+        try {
+          return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    };
+  }
+
+  @Override
+  public String toString() {
+    return algorithm + (salt != null ? " with salt" : "");
+  }
+}
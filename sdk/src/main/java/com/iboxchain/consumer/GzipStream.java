@@ -0,0 +1,72 @@
+package com.iboxchain.consumer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Gzip compresses a request body while it is streamed into the connection.
+ * Unlike GZIPOutputStream it borrows the Deflater of the current thread, so sending a request
+ * does not allocate and free a native zlib stream every time.
+ */
+class GzipStream extends DeflaterOutputStream {
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+  private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+    @Override
+    protected Deflater initialValue() {
+      return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+  };
+
+  private final CRC32 crc = new CRC32();
+  private boolean finished;
+
+  GzipStream(OutputStream out) throws IOException {
+    super(out, reset(DEFLATER.get()), BUFFER_SIZE);
+    out.write(HEADER);
+  }
+
+  private static Deflater reset(Deflater deflater) {
+    deflater.reset();
+    return deflater;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    super.write(b, off, len);
+    crc.update(b, off, len);
+  }
+
+  /**
+   * Writes the remaining compressed data and the gzip trailer without closing the underlying stream.
+   * The Deflater stays with the thread for the next request.
+   */
+  @Override
+  public void finish() throws IOException {
+    if (finished) {
+      return;
+    }
+    finished = true;
+    super.finish();
+    writeInt((int) crc.getValue());
+    writeInt((int) def.getBytesRead());
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    finish();
+  }
+
+  private void writeInt(int value) throws IOException {
+    out.write(value & 0xff);
+    out.write((value >> 8) & 0xff);
+    out.write((value >> 16) & 0xff);
+    out.write((value >> 24) & 0xff);
+  }
+}
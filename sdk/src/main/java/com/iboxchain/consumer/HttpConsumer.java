@@ -2,14 +2,16 @@ package com.iboxchain.consumer;
 
 import com.iboxchain.Config;
 import com.iboxchain.UserData;
+import com.iboxchain.metrics.Metrics;
 import com.iboxchain.utils.CommonUtil;
+import com.iboxchain.utils.TimeContext;
 import org.apache.log4j.Logger;
 
 import java.io.*;
-import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
-import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -18,11 +20,15 @@ import java.util.Map;
 public class HttpConsumer {
 
   private static final int BUFFER_SIZE = 256;
-  private static final int CONNECT_TIMEOUT_MILLIS = 2000;
-  private static final int READ_TIMEOUT_MILLIS = 10000;
 
-  private final static char[] hexArray = "0123456789ABCDEF".toCharArray();
+  private final String serverURL;
+  private final String appKey;
+  private final String deviceId;
   private final Map<String, String> httpHeaders;
+  private final Transport transport;
+  private final boolean gzip;
+  private final Metrics metrics;
+  private final Checksum checksum;
   private Logger log = Logger.getLogger(HttpConsumer.class);
 
   public static class HttpConsumerException extends Exception {
@@ -35,15 +41,15 @@ public class HttpConsumer {
       this.httpContent = httpContent;
     }
 
-    String getSendingData() {
+    public String getSendingData() {
       return sendingData;
     }
 
-    int getHttpStatusCode() {
+    public int getHttpStatusCode() {
       return httpStatusCode;
     }
 
-    String getHttpContent() {
+    public String getHttpContent() {
       return httpContent;
     }
 
@@ -53,94 +59,251 @@ public class HttpConsumer {
   }
 
   public HttpConsumer(Map<String, String> httpHeaders) {
+    this(httpHeaders, new UrlConnectionTransport());
+  }
+
+  /**
+   * Sends to Config.SERVER_URL with Config.APP_KEY and Config.DEVICE_ID, as configured at send time.
+   */
+  public HttpConsumer(Map<String, String> httpHeaders, Transport transport) {
+    this(null, null, null, httpHeaders, transport);
+  }
+
+  /**
+   * @param serverURL URL of the Countly server, null for Config.SERVER_URL
+   * @param appKey    app key sent with every request, null for Config.APP_KEY
+   * @param deviceId  device id sent with every request, null for Config.DEVICE_ID
+   */
+  public HttpConsumer(String serverURL, String appKey, String deviceId, Map<String, String> httpHeaders,
+                      Transport transport) {
+    this(serverURL, appKey, deviceId, httpHeaders, transport, false);
+  }
+
+  /**
+   * @param serverURL URL of the Countly server, null for Config.SERVER_URL
+   * @param appKey    app key sent with every request, null for Config.APP_KEY
+   * @param deviceId  device id sent with every request, null for Config.DEVICE_ID
+   * @param gzip      true to gzip the bodies of POST requests, the server has to accept Content-Encoding: gzip
+   */
+  public HttpConsumer(String serverURL, String appKey, String deviceId, Map<String, String> httpHeaders,
+                      Transport transport, boolean gzip) {
+    this(serverURL, appKey, deviceId, httpHeaders, transport, gzip, null);
+  }
+
+  /**
+   * @param serverURL URL of the Countly server, null for Config.SERVER_URL
+   * @param appKey    app key sent with every request, null for Config.APP_KEY
+   * @param deviceId  device id sent with every request, null for Config.DEVICE_ID
+   * @param gzip      true to gzip the bodies of POST requests, the server has to accept Content-Encoding: gzip
+   * @param metrics   metrics recording the checksum and send latency, null for metrics of this consumer only
+   */
+  public HttpConsumer(String serverURL, String appKey, String deviceId, Map<String, String> httpHeaders,
+                      Transport transport, boolean gzip, Metrics metrics) {
+    this(serverURL, appKey, deviceId, httpHeaders, transport, gzip, metrics, Checksum.SHA1);
+  }
+
+  /**
+   * @param serverURL URL of the Countly server, null for Config.SERVER_URL
+   * @param appKey    app key sent with every request, null for Config.APP_KEY
+   * @param deviceId  device id sent with every request, null for Config.DEVICE_ID
+   * @param gzip      true to gzip the bodies of POST requests, the server has to accept Content-Encoding: gzip
+   * @param metrics   metrics recording the checksum and send latency, null for metrics of this consumer only
+   * @param checksum  checksum parameter sent with every request, e.g. {@link Checksum#sha256(String)}
+   */
+  public HttpConsumer(String serverURL, String appKey, String deviceId, Map<String, String> httpHeaders,
+                      Transport transport, boolean gzip, Metrics metrics, Checksum checksum) {
+    this.checksum = checksum;
+    this.gzip = gzip;
+    this.metrics = metrics != null ? metrics : new Metrics();
+    this.serverURL = serverURL;
+    this.appKey = appKey;
+    this.deviceId = deviceId;
     this.httpHeaders = httpHeaders;
+    this.transport = transport;
   }
 
   /**
-   * Send data to server
+   * Send data to server with a GET request
    *
    * @param data url and params
    */
   public void sendData(String data) throws IOException, HttpConsumerException {
     URL url = new URL(data);
-    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-    conn.setReadTimeout(READ_TIMEOUT_MILLIS);
-    conn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
-    conn.setRequestMethod("GET");
-    conn.setDoOutput(true);
-    conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded;charset=utf8");
+    String method = "GET";
+    Transport.Body body = null;
+    Map<String, String> headers = headers("application/x-www-form-urlencoded;charset=utf8");
 
-    if (httpHeaders != null) {
-      for (Map.Entry<String, String> entry : httpHeaders.entrySet()) {
-        String key = entry.getKey();
-        String value = entry.getValue();
-        if (key != null && value != null && !key.isEmpty()) {
-          conn.addRequestProperty(key, value);
-        }
-      }
-    }
-
-    String picturePath = UserData.getPicturePathFromQuery(url);
+    final String picturePath = UserData.getPicturePathFromQuery(url);
     if (!picturePath.equals("")) {
       // Uploading files:
       // http://stackoverflow.com/questions/2793150/how-to-use-java-net-urlconnection-to-fire-and-handle-http-requests
 
-      File binaryFile = new File(picturePath);
-      conn.setDoOutput(true);
       // Just generate some unique random value.
-      String boundary = Long.toHexString(System.currentTimeMillis());
-      // Line separator required by multipart/form-data.
-      String CRLF = "\r\n";
-      String charset = "UTF-8";
-      conn.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
-      OutputStream output = conn.getOutputStream();
-      PrintWriter writer = new PrintWriter(new OutputStreamWriter(output, charset), true);
-      // Send binary file.
-      writer.append("--").append(boundary).append(CRLF);
-      writer.append("Content-Disposition: form-data; name=\"binaryFile\"; filename=\"").append(binaryFile.getName()).append("\"").append(CRLF);
-      writer.append("Content-Type: ").append(URLConnection.guessContentTypeFromName(binaryFile.getName())).append(CRLF);
-      writer.append("Content-Transfer-Encoding: binary").append(CRLF);
-      writer.append(CRLF).flush();
-      FileInputStream fileInputStream = new FileInputStream(binaryFile);
-      byte[] buffer = new byte[1024];
-      int len;
-      try {
-        while ((len = fileInputStream.read(buffer)) != -1) {
-          output.write(buffer, 0, len);
+      final String boundary = Long.toHexString(System.currentTimeMillis());
+      method = "POST";
+      headers.put("Content-Type", "multipart/form-data; boundary=" + boundary);
+      body = new Transport.Body() {
+        @Override
+        public void writeTo(OutputStream output) throws IOException {
+          File binaryFile = new File(picturePath);
+          // Line separator required by multipart/form-data.
+          String CRLF = "\r\n";
+          String charset = "UTF-8";
+          PrintWriter writer = new PrintWriter(new OutputStreamWriter(output, charset), true);
+          // Send binary file.
+          writer.append("--").append(boundary).append(CRLF);
+          writer.append("Content-Disposition: form-data; name=\"binaryFile\"; filename=\"").append(binaryFile.getName()).append("\"").append(CRLF);
+          writer.append("Content-Type: ").append(URLConnection.guessContentTypeFromName(binaryFile.getName())).append(CRLF);
+          writer.append("Content-Transfer-Encoding: binary").append(CRLF);
+          writer.append(CRLF).flush();
+          FileInputStream fileInputStream = new FileInputStream(binaryFile);
+          byte[] buffer = new byte[1024];
+          int len;
+          try {
+            while ((len = fileInputStream.read(buffer)) != -1) {
+              output.write(buffer, 0, len);
+            }
+          } catch (IOException ex) {
+            ex.printStackTrace();
+          }
+          // Important before continuing with writer!
+          output.flush();
+          // CRLF is important! It indicates end of boundary.
+          writer.append(CRLF).flush();
+          fileInputStream.close();
+
+          // End of multipart/form-data.
+          writer.append("--").append(boundary).append("--").append(CRLF).flush();
+        }
+      };
+    }
+
+    execute(method, url, headers, body, data);
+  }
+
+  /**
+   * Send data to server with a POST request. The request parameters are encoded and
+   * hashed while they are streamed into the request body.
+   * Requests uploading a picture fall back to GET.
+   *
+   * @param data even data or user data
+   * @param type Config.TYPE_SEND_EVENT or Config.TYPE_SEND_USER_DATA
+   */
+  public void postData(String data, int type) throws IOException, HttpConsumerException {
+    postData(data, type, null, null);
+  }
+
+  /**
+   * Send data of another app or device to server with a POST request.
+   *
+   * @param data     even data or user data
+   * @param type     Config.TYPE_SEND_EVENT or Config.TYPE_SEND_USER_DATA
+   * @param appKey   app key of the data, null for the app key of this consumer
+   * @param deviceId device id of the data, null for the device id of this consumer
+   */
+  public void postData(final String data, final int type, final String appKey, final String deviceId)
+      throws IOException, HttpConsumerException {
+    if (type == Config.TYPE_SEND_USER_DATA && data.contains("&picturePath=")) {
+      sendData(serverURL() + "/i?" + prepareRequestData(data, type, appKey, deviceId));
+      return;
+    }
+    post("/i", data, new Transport.Body() {
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        OutputStream body = gzip ? new GzipStream(out) : out;
+        RequestWriter writer = new RequestWriter(body, checksum);
+        writeRequestData(writer, data, type, appKey, deviceId);
+        writer.writeChecksum();
+        metrics.checksumLatency().record(writer.digestNanos());
+        writer.flush();
+        if (gzip) {
+          ((GzipStream) body).finish();
+        }
+      }
+    });
+  }
+
+  /**
+   * Send many requests to the bulk endpoint with one POST request.
+   *
+   * @param requests JSON request objects, see {@link RequestJson}
+   */
+  public void postBulk(final List<String> requests) throws IOException, HttpConsumerException {
+    post("/i/bulk", null, new Transport.Body() {
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        OutputStream body = gzip ? new GzipStream(out) : out;
+        RequestWriter writer = new RequestWriter(body, checksum);
+        writeBulkRequestData(writer, requests);
+        writer.writeChecksum();
+        metrics.checksumLatency().record(writer.digestNanos());
+        writer.flush();
+        if (gzip) {
+          ((GzipStream) body).finish();
         }
-      } catch (IOException ex) {
-        ex.printStackTrace();
       }
-      // Important before continuing with writer!
-      output.flush();
-      // CRLF is important! It indicates end of boundary.
-      writer.append(CRLF).flush();
-      fileInputStream.close();
+    });
+  }
 
-      // End of multipart/form-data.
-      writer.append("--").append(boundary).append("--").append(CRLF).flush();
+  private void post(String path, String data, Transport.Body body) throws IOException, HttpConsumerException {
+    URL url = new URL(serverURL() + path);
+    Map<String, String> headers = headers("application/x-www-form-urlencoded;charset=utf-8");
+    if (gzip) {
+      headers.put("Content-Encoding", "gzip");
     }
+    execute("POST", url, headers, body, data);
+  }
 
-    InputStream stream = null;
+  private void execute(String method, URL url, Map<String, String> headers, Transport.Body body, String data)
+      throws IOException, HttpConsumerException {
+    long start = System.nanoTime();
     try {
-      conn.connect();
-      stream = conn.getInputStream();
-      int responseCode = conn.getResponseCode();
-      String httpContent = slurp(stream);
-      if (responseCode < 200 || responseCode >= 300) {
-        throw new HttpConsumerException(
-            String.format("Unexpected response %d from countly-SDK-Java: %s", responseCode, httpContent), data,
-            responseCode, httpContent);
-      } else {
-        if (Config.IS_LOG_ENABLE) {
-          log.info("Send Data(countly-sdk-java):" + "\n url=" + url + "\n response:" + " message=" + httpContent + ",responseCode=" + responseCode);
+      checkResponse(transport.execute(method, url, headers, body), url, data);
+    } finally {
+      metrics.sendLatency().recordSince(start);
+    }
+  }
+
+  /**
+   * @return metrics of the requests sent by this consumer
+   */
+  public Metrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Release the connections of the transport
+   */
+  public void close() {
+    transport.close();
+  }
+
+  private Map<String, String> headers(String contentType) {
+    Map<String, String> headers = new LinkedHashMap<String, String>();
+    headers.put("Content-Type", contentType);
+    if (httpHeaders != null) {
+      for (Map.Entry<String, String> entry : httpHeaders.entrySet()) {
+        String key = entry.getKey();
+        String value = entry.getValue();
+        if (key != null && value != null && !key.isEmpty()) {
+          headers.put(key, value);
         }
       }
-    } finally {
-      if (stream != null) {
-        stream.close();
+    }
+    return headers;
+  }
+
+  private void checkResponse(Transport.Response response, URL url, String data) throws HttpConsumerException {
+    int responseCode = response.getCode();
+    String httpContent = response.getContent();
+    if (responseCode < 200 || responseCode >= 300) {
+      throw new HttpConsumerException(
+          String.format("Unexpected response %d from countly-SDK-Java: %s", responseCode, httpContent), data,
+          responseCode, httpContent);
+    } else {
+      if (Config.IS_LOG_ENABLE) {
+        log.info("Send Data(countly-sdk-java):" + "\n url=" + url + "\n response:" + " message=" + httpContent + ",responseCode=" + responseCode);
       }
-      conn.disconnect();
     }
   }
 
@@ -154,79 +317,116 @@ public class HttpConsumer {
    * @return request data
    */
   public String prepareRequestData(String data, int type) throws UnsupportedEncodingException {
-    String requestData = "app_key=" + Config.APP_KEY
-        + "&timestamp=" + CommonUtil.currentTimestampMs()
-        + "&hour=" + CommonUtil.currentHour()
-        + "&dow=" + CommonUtil.currentDayOfWeek()
-        + "&tz=" + CommonUtil.getTimezoneOffset()
-        + "&sdk_version=" + Config.SDK_VERSION
-        + "&sdk_name=" + Config.SDK_NAME;
-
-    if (type == Config.TYPE_SEND_EVENT) {
-      requestData += "&events=" + java.net.URLEncoder.encode(data, "UTF-8");
-    }
-    if (type == Config.TYPE_SEND_USER_DATA) {
-      requestData += data;
-    }
-
-    requestData += "&device_id=" + Config.DEVICE_ID;
-    return requestData + "&checksum=" + sha1Hash(requestData);
+    return prepareRequestData(data, type, null, null);
   }
 
   /**
-   * Hash request data. Make sure the data is not modified
+   * Prepare Request Data of another app or device
    *
-   * @param toHash
-   * @return
+   * @param data     even data or user data
+   * @param type     Config.TYPE_SEND_EVENT or Config.TYPE_SEND_USER_DATA
+   * @param appKey   app key of the data, null for the app key of this consumer
+   * @param deviceId device id of the data, null for the device id of this consumer
+   * @return request data
    */
-  private static String sha1Hash(String toHash) {
-    String hash = null;
+  public String prepareRequestData(String data, int type, String appKey, String deviceId)
+      throws UnsupportedEncodingException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE + data.length());
     try {
-      MessageDigest digest = MessageDigest.getInstance("SHA-1");
-      byte[] bytes = toHash.getBytes("UTF-8");
-      digest.update(bytes, 0, bytes.length);
-      bytes = digest.digest();
-      // This is ~55x faster than looping and String.formating()
-      hash = bytesToHex(bytes);
-    } catch (Throwable e) {
-      e.printStackTrace();
+      RequestWriter writer = new RequestWriter(out, checksum);
+      writeRequestData(writer, data, type, appKey, deviceId);
+      writer.writeChecksum().flush();
+      metrics.checksumLatency().record(writer.digestNanos());
+      return out.toString("US-ASCII");
+    } catch (UnsupportedEncodingException e) {
+      throw e;
+    } catch (IOException e) {
+      // ByteArrayOutputStream does not throw
+      throw new IllegalStateException(e);
     }
-    return hash;
   }
 
   /**
-   * http://stackoverflow.com/questions/9655181/convert-from-byte-array-to-hex-string-in-java=
+   * Prepare the request data of the bulk endpoint
+   *
+   * @param requests JSON request objects, see {@link RequestJson}
+   * @return request data for /i/bulk
    */
-  private static String bytesToHex(byte[] bytes) {
-    char[] hexChars = new char[bytes.length * 2];
-    for (int j = 0; j < bytes.length; j++) {
-      int v = bytes[j] & 0xFF;
-      hexChars[j * 2] = hexArray[v >>> 4];
-      hexChars[j * 2 + 1] = hexArray[v & 0x0F];
+  public String prepareBulkRequestData(List<String> requests) throws UnsupportedEncodingException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE + 256 * requests.size());
+    try {
+      RequestWriter writer = new RequestWriter(out, checksum);
+      writeBulkRequestData(writer, requests);
+      writer.writeChecksum().flush();
+      metrics.checksumLatency().record(writer.digestNanos());
+      return out.toString("US-ASCII");
+    } catch (UnsupportedEncodingException e) {
+      throw e;
+    } catch (IOException e) {
+      // ByteArrayOutputStream does not throw
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void writeRequestData(RequestWriter writer, String data, int type, String appKey, String deviceId)
+      throws IOException {
+    long timestamp = CommonUtil.currentTimestampMs();
+    TimeContext time = TimeContext.of(timestamp);
+    writer.raw("app_key=");
+    if (appKey != null) {
+      writer.encoded(appKey);
+    } else {
+      writer.raw(defaultAppKey());
+    }
+    writer.raw("&timestamp=").raw(timestamp)
+        .raw("&hour=").raw(time.getHour())
+        .raw("&dow=").raw(time.getDayOfWeek())
+        .raw("&tz=").raw(time.getTimezoneOffset())
+        .raw("&sdk_version=").raw(Config.SDK_VERSION)
+        .raw("&sdk_name=").raw(Config.SDK_NAME);
+
+    if (type == Config.TYPE_SEND_EVENT) {
+      writer.raw("&events=").encoded(data);
+    }
+    if (type == Config.TYPE_SEND_USER_DATA) {
+      writer.raw(data);
+    }
+
+    writer.raw("&device_id=");
+    if (deviceId != null) {
+      writer.encoded(deviceId);
+    } else {
+      writer.raw(defaultDeviceId());
     }
-    return new String(hexChars).toLowerCase();
   }
 
   /**
-   * Get response message from server
-   *
-   * @param in InputStream from HttpURLConnection
-   * @return response message from server
+   * The requests carry their own app key and device id; the app key of this consumer identifies the sender.
    */
-  private String slurp(InputStream in) throws IOException {
-    final StringBuilder out = new StringBuilder();
-    InputStreamReader reader = new InputStreamReader(in, "utf8");
-
-    char[] readBuffer = new char[BUFFER_SIZE];
-    int readCount = 0;
-    do {
-      readCount = reader.read(readBuffer);
-      if (readCount > 0) {
-        out.append(readBuffer, 0, readCount);
+  private void writeBulkRequestData(RequestWriter writer, List<String> requests) throws IOException {
+    writer.raw("app_key=").raw(defaultAppKey())
+        .raw("&sdk_version=").raw(Config.SDK_VERSION)
+        .raw("&sdk_name=").raw(Config.SDK_NAME)
+        .raw("&requests=").encoded("[");
+    for (int i = 0, n = requests.size(); i < n; i++) {
+      if (i > 0) {
+        writer.encoded(",");
       }
-    } while (readCount != -1);
+      writer.encoded(requests.get(i));
+    }
+    writer.encoded("]");
+  }
+
+  private String defaultAppKey() {
+    return appKey != null ? appKey : Config.APP_KEY;
+  }
+
+  private String defaultDeviceId() {
+    return deviceId != null ? deviceId : Config.DEVICE_ID;
+  }
 
-    return out.toString();
+  private String serverURL() {
+    return serverURL != null ? serverURL : Config.SERVER_URL;
   }
 
-}
\ No newline at end of file
+}
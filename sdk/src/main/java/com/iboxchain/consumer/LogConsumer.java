@@ -0,0 +1,235 @@
+package com.iboxchain.consumer;
+
+import com.iboxchain.Config;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes data(event data or user data) to rolling local files instead of sending it to the server,
+ * so a log shipper can pick it up.
+ * Every line is one JSON request object with the same fields as a Countly request, e.g.
+ * {"app_key":"..","device_id":"..","timestamp":..,"hour":..,"dow":..,"tz":..,"sdk_name":"..",
+ * "sdk_version":"..","events":[..]}
+ * Writes are buffered and flushed by a background thread shared by all log consumers; a new file is
+ * started before a line would take the current one past maxFileBytes, or once it is older than
+ * rotateIntervalMillis.
+ * <p>
+ * Lines are built and encoded on the calling thread without a lock. Copying them into the buffer is
+ * serialized, and so is the file write whenever the buffer fills or the file rotates. Without the async
+ * sender these writes run on the threads that record events.
+ */
+public class LogConsumer {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final String FILE_PREFIX = "countly-";
+  private static final String FILE_SUFFIX = ".log";
+  // shared by all consumers, so consumers writing to the same directory never share a file
+  private static final AtomicInteger FILE_SEQUENCE = new AtomicInteger();
+
+  private final File directory;
+  private final long maxFileBytes;
+  private final long rotateIntervalMillis;
+  private final String appKey;
+  private final String deviceId;
+  private final ScheduledFuture<?> flusher;
+
+  // null once closed
+  private OutputStream out;
+  // bytes written to the current file, buffered ones included
+  private long fileBytes;
+  private long fileOpenedAt;
+
+  private Logger log = Logger.getLogger(LogConsumer.class);
+
+  /**
+   * Writes Config.APP_KEY and Config.DEVICE_ID, as configured at write time.
+   *
+   * @param directory            directory for the log files, created if missing
+   * @param maxFileBytes         max size of a file, a line that would exceed it starts a new file
+   * @param rotateIntervalMillis start a new file once the current one is older than this
+   * @param flushIntervalMillis  how often buffered lines are written to the file
+   */
+  public LogConsumer(String directory, long maxFileBytes, long rotateIntervalMillis, long flushIntervalMillis)
+      throws IOException {
+    this(directory, maxFileBytes, rotateIntervalMillis, flushIntervalMillis, null, null);
+  }
+
+  /**
+   * @param directory            directory for the log files, created if missing
+   * @param maxFileBytes         max size of a file, a line that would exceed it starts a new file
+   * @param rotateIntervalMillis start a new file once the current one is older than this
+   * @param flushIntervalMillis  how often buffered lines are written to the file
+   * @param appKey               app key written with every line, null for Config.APP_KEY
+   * @param deviceId             device id written with every line, null for Config.DEVICE_ID
+   */
+  public LogConsumer(String directory, long maxFileBytes, long rotateIntervalMillis, long flushIntervalMillis,
+                     String appKey, String deviceId) throws IOException {
+    this.directory = new File(directory);
+    if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+      throw new IOException("Can not create log directory " + directory);
+    }
+    this.maxFileBytes = maxFileBytes;
+    this.rotateIntervalMillis = rotateIntervalMillis;
+    this.appKey = appKey;
+    this.deviceId = deviceId;
+    open(System.currentTimeMillis());
+
+    flusher = FlusherHolder.executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          flush();
+        } catch (IOException e) {
+          log.error("Flush log file failed(countly-sdk-java)", e);
+        }
+      }
+    }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Write event data
+   *
+   * @param events JSON array of events
+   */
+  public void writeEvents(String events) throws IOException {
+    write("events", events, null, null);
+  }
+
+  /**
+   * Write event data of another app or device
+   *
+   * @param events   JSON array of events
+   * @param appKey   app key of the events, null for the app key of this consumer
+   * @param deviceId device id of the events, null for the device id of this consumer
+   */
+  public void writeEvents(String events, String appKey, String deviceId) throws IOException {
+    write("events", events, appKey, deviceId);
+  }
+
+  /**
+   * Write user data
+   *
+   * @param userDetails JSON object with the user details
+   */
+  public void writeUserData(String userDetails) throws IOException {
+    write("user_details", userDetails, null, null);
+  }
+
+  /**
+   * Write user data of another app or device
+   *
+   * @param userDetails JSON object with the user details
+   * @param appKey      app key of the user, null for the app key of this consumer
+   * @param deviceId    device id of the user, null for the device id of this consumer
+   */
+  public void writeUserData(String userDetails, String appKey, String deviceId) throws IOException {
+    write("user_details", userDetails, appKey, deviceId);
+  }
+
+  /**
+   * Write complete request objects, one line each
+   *
+   * @param requests JSON request objects as sent to the bulk endpoint
+   */
+  public void writeRequests(List<String> requests) throws IOException {
+    for (String request : requests) {
+      writeLine(request);
+    }
+  }
+
+  private String defaultAppKey() {
+    return appKey != null ? appKey : Config.APP_KEY;
+  }
+
+  private String defaultDeviceId() {
+    return deviceId != null ? deviceId : Config.DEVICE_ID;
+  }
+
+  /**
+   * Write the buffered lines to the file and start a new file if the current one is due for rotation.
+   */
+  public synchronized void flush() throws IOException {
+    if (out == null) {
+      return;
+    }
+    out.flush();
+    if (System.currentTimeMillis() - fileOpenedAt >= rotateIntervalMillis) {
+      rotate(System.currentTimeMillis());
+    }
+  }
+
+  /**
+   * Flush and close the current file and stop flushing it.
+   */
+  public void close() throws IOException {
+    flusher.cancel(false);
+    synchronized (this) {
+      if (out != null) {
+        out.close();
+        out = null;
+      }
+    }
+  }
+
+  private void write(String field, String data, String appKey, String deviceId) throws IOException {
+    StringBuilder line = new StringBuilder(192 + data.length());
+    RequestJson.write(line, appKey != null ? appKey : defaultAppKey(), deviceId != null ? deviceId : defaultDeviceId(),
+        field, data);
+    writeLine(line.toString());
+  }
+
+  private void writeLine(String line) throws IOException {
+    byte[] bytes = (line + '\n').getBytes("UTF-8");
+    synchronized (this) {
+      if (out == null) {
+        throw new IOException("LogConsumer is closed");
+      }
+      if (fileBytes > 0 && fileBytes + bytes.length > maxFileBytes) {
+        rotate(System.currentTimeMillis());
+      }
+      out.write(bytes);
+      fileBytes += bytes.length;
+    }
+  }
+
+  private void rotate(long now) throws IOException {
+    out.close();
+    open(now);
+  }
+
+  private void open(long now) throws IOException {
+    String name = FILE_PREFIX + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(now));
+    File file = new File(directory, name + "-" + FILE_SEQUENCE.getAndIncrement() + FILE_SUFFIX);
+    out = new BufferedOutputStream(new FileOutputStream(file, true), BUFFER_SIZE);
+    fileBytes = 0;
+    fileOpenedAt = now;
+    if (Config.IS_LOG_ENABLE) {
+      log.info("Open log file(countly-sdk-java): \n file=" + file);
+    }
+  }
+
+  private static class FlusherHolder {
+    static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "countly-log-flusher");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+}
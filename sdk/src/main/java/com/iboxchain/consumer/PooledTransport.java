@@ -0,0 +1,609 @@
+package com.iboxchain.consumer;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP/1.1 transport with its own keep-alive connection pool.
+ * At most maxConnectionsPerHost requests run against one host at a time, idle connections
+ * are reused most-recently-used first and closed once they were idle for idleTimeoutMillis.
+ * TLS sockets are created by one shared SSLSocketFactory, so reconnects resume the TLS session
+ * instead of doing a full handshake.
+ * <p>
+ * Requests to hosts the default ProxySelector (http.proxyHost, https.proxyHost, ...) routes through a proxy
+ * are not pooled but executed by a UrlConnectionTransport, which talks to the proxy.
+ */
+public class PooledTransport implements Transport {
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+  private static final int READ_TIMEOUT_MILLIS = 10000;
+  private static final int SAN_DNS_NAME = 2;
+  private static final int SAN_IP_ADDRESS = 7;
+
+  private final int maxConnectionsPerHost;
+  private final long idleTimeoutMillis;
+  private final SSLSocketFactory sslSocketFactory;
+  private final Transport proxyTransport;
+  private final ConcurrentHashMap<String, HostPool> pools = new ConcurrentHashMap<String, HostPool>();
+  private final AtomicInteger openConnections = new AtomicInteger();
+
+  private volatile long lastEviction = System.currentTimeMillis();
+  private volatile boolean closed;
+
+  public PooledTransport(int maxConnectionsPerHost, long idleTimeoutMillis) {
+    this(maxConnectionsPerHost, idleTimeoutMillis, (SSLSocketFactory) SSLSocketFactory.getDefault());
+  }
+
+  public PooledTransport(int maxConnectionsPerHost, long idleTimeoutMillis, SSLSocketFactory sslSocketFactory) {
+    if (maxConnectionsPerHost < 1) {
+      throw new IllegalArgumentException("maxConnectionsPerHost must be positive: " + maxConnectionsPerHost);
+    }
+    this.maxConnectionsPerHost = maxConnectionsPerHost;
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    this.sslSocketFactory = sslSocketFactory;
+    this.proxyTransport = new UrlConnectionTransport(sslSocketFactory);
+  }
+
+  @Override
+  public Response execute(String method, URL url, Map<String, String> headers, Body body) throws IOException {
+    if (closed) {
+      throw new IOException("Transport is closed");
+    }
+    if (proxied(url)) {
+      return proxyTransport.execute(method, url, headers, body);
+    }
+    long now = System.currentTimeMillis();
+    if (now - lastEviction > idleTimeoutMillis / 2) {
+      lastEviction = now;
+      evictIdle(now);
+    }
+
+    HostPool pool = pool(url);
+    try {
+      if (!pool.permits.tryAcquire(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+        throw new IOException("No free connection to " + pool.key + " within " + CONNECT_TIMEOUT_MILLIS + "ms");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a connection to " + pool.key);
+    }
+    try {
+      Connection conn = pool.poll(now);
+      if (conn != null) {
+        try {
+          return exchange(pool, conn, method, url, headers, body);
+        } catch (StaleConnectionException e) {
+          // the server closed the idle connection before it got the request, resend on a fresh one
+        }
+      }
+      return exchange(pool, open(url), method, url, headers, body);
+    } finally {
+      pool.permits.release();
+    }
+  }
+
+  /**
+   * @return number of connections currently open, in use or idle
+   */
+  public int openConnections() {
+    return openConnections.get();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    for (HostPool pool : pools.values()) {
+      pool.closeIdle();
+    }
+  }
+
+  private static boolean proxied(URL url) {
+    ProxySelector selector = ProxySelector.getDefault();
+    if (selector == null) {
+      return false;
+    }
+    List<Proxy> proxies;
+    try {
+      proxies = selector.select(url.toURI());
+    } catch (URISyntaxException e) {
+      return false;
+    }
+    for (Proxy proxy : proxies) {
+      if (proxy.type() != Proxy.Type.DIRECT) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private HostPool pool(URL url) {
+    String key = url.getProtocol() + "://" + url.getHost() + ":" + port(url);
+    HostPool pool = pools.get(key);
+    if (pool == null) {
+      pool = new HostPool(key);
+      HostPool existing = pools.putIfAbsent(key, pool);
+      if (existing != null) {
+        pool = existing;
+      }
+    }
+    return pool;
+  }
+
+  private void evictIdle(long now) {
+    for (HostPool pool : pools.values()) {
+      pool.evict(now);
+    }
+  }
+
+  private Connection open(URL url) throws IOException {
+    String host = host(url);
+    int port = port(url);
+    Socket socket = new Socket();
+    try {
+      socket.setTcpNoDelay(true);
+      socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+      socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+      if ("https".equalsIgnoreCase(url.getProtocol())) {
+        SSLSocket sslSocket = (SSLSocket) sslSocketFactory.createSocket(socket, host, port, true);
+        socket = sslSocket;
+        sslSocket.startHandshake();
+        verifyHostname(host, sslSocket.getSession());
+      }
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+    openConnections.incrementAndGet();
+    return new Connection(socket);
+  }
+
+  private Response exchange(HostPool pool, Connection conn, String method, URL url, Map<String, String> headers,
+                            Body body) throws IOException {
+    boolean keepAlive = false;
+    try {
+      long sentBefore = conn.sent;
+      try {
+        writeRequest(conn, method, url, headers, body);
+      } catch (IOException e) {
+        // only resend if no byte of the request reached the socket, otherwise the server may have got it
+        if (conn.reused && conn.sent == sentBefore) {
+          throw new StaleConnectionException(e);
+        }
+        throw e;
+      }
+      int first = conn.in.read();
+      if (first == -1) {
+        EOFException eof = new EOFException("Connection closed by " + pool.key);
+        if (conn.reused) {
+          // closed without a response, the server closed the idle connection as the request arrived
+          throw new StaleConnectionException(eof);
+        }
+        throw eof;
+      }
+
+      String statusLine = readLine(conn.in, first);
+      int code = statusCode(statusLine);
+      boolean http10 = statusLine.startsWith("HTTP/1.0");
+      String connectionHeader = null;
+      String transferEncoding = null;
+      long contentLength = -1;
+      for (; ; ) {
+        String line = readLine(conn.in, conn.in.read());
+        if (line.length() == 0) {
+          if (code >= 100 && code < 200) {
+            // interim response, the real one follows
+            statusLine = readLine(conn.in, conn.in.read());
+            code = statusCode(statusLine);
+            continue;
+          }
+          break;
+        }
+        int idx = line.indexOf(':');
+        if (idx <= 0) {
+          continue;
+        }
+        String name = line.substring(0, idx).trim();
+        String value = line.substring(idx + 1).trim();
+        if ("Content-Length".equalsIgnoreCase(name)) {
+          try {
+            contentLength = Long.parseLong(value);
+          } catch (NumberFormatException e) {
+            throw new IOException("Malformed Content-Length: " + value);
+          }
+        } else if ("Transfer-Encoding".equalsIgnoreCase(name)) {
+          transferEncoding = value;
+        } else if ("Connection".equalsIgnoreCase(name)) {
+          connectionHeader = value;
+        }
+      }
+      keepAlive = http10
+          ? "keep-alive".equalsIgnoreCase(connectionHeader) : !"close".equalsIgnoreCase(connectionHeader);
+
+      ByteArrayOutputStream content = new ByteArrayOutputStream();
+      if ("HEAD".equals(method) || code == 204 || code == 304) {
+        // no body
+      } else if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+        readChunked(conn.in, content);
+      } else if (contentLength >= 0) {
+        readFully(conn.in, content, contentLength);
+      } else {
+        keepAlive = false;
+        readFully(conn.in, content, Long.MAX_VALUE);
+      }
+      return new Response(code, content.toString("UTF-8"));
+    } finally {
+      if (keepAlive && !closed) {
+        conn.reused = true;
+        pool.release(conn);
+      } else {
+        closeQuietly(conn);
+      }
+    }
+  }
+
+  private void writeRequest(Connection conn, String method, URL url, Map<String, String> headers, Body body)
+      throws IOException {
+    String path = url.getFile();
+    StringBuilder head = new StringBuilder(256);
+    head.append(method).append(' ').append(path.length() == 0 ? "/" : path).append(" HTTP/1.1\r\n");
+    head.append("Host: ").append(url.getHost());
+    if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+      head.append(':').append(url.getPort());
+    }
+    head.append("\r\n");
+    head.append("Connection: keep-alive\r\n");
+    if (headers != null) {
+      for (Map.Entry<String, String> entry : headers.entrySet()) {
+        head.append(entry.getKey()).append(": ").append(entry.getValue()).append("\r\n");
+      }
+    }
+    if (body != null) {
+      head.append("Transfer-Encoding: chunked\r\n");
+    }
+    head.append("\r\n");
+    conn.out.write(head.toString().getBytes("ISO-8859-1"));
+    if (body != null) {
+      ChunkedOutputStream chunked = new ChunkedOutputStream(conn.out);
+      body.writeTo(chunked);
+      chunked.close();
+    }
+    conn.out.flush();
+  }
+
+  private static int statusCode(String statusLine) throws IOException {
+    int start = statusLine.indexOf(' ');
+    if (start < 0 || statusLine.length() < start + 4) {
+      throw new IOException("Malformed status line: " + statusLine);
+    }
+    try {
+      return Integer.parseInt(statusLine.substring(start + 1, start + 4));
+    } catch (NumberFormatException e) {
+      throw new IOException("Malformed status line: " + statusLine);
+    }
+  }
+
+  private static String readLine(InputStream in, int b) throws IOException {
+    StringBuilder line = new StringBuilder();
+    while (b != '\n') {
+      if (b == -1) {
+        throw new EOFException("Unexpected end of response");
+      }
+      if (b != '\r') {
+        line.append((char) b);
+      }
+      b = in.read();
+    }
+    return line.toString();
+  }
+
+  private static void readChunked(InputStream in, OutputStream out) throws IOException {
+    for (; ; ) {
+      String line = readLine(in, in.read());
+      int ext = line.indexOf(';');
+      long size;
+      try {
+        size = Long.parseLong((ext < 0 ? line : line.substring(0, ext)).trim(), 16);
+      } catch (NumberFormatException e) {
+        throw new IOException("Malformed chunk size: " + line);
+      }
+      if (size == 0) {
+        // skip trailers
+        while (readLine(in, in.read()).length() > 0) {
+        }
+        return;
+      }
+      readFully(in, out, size);
+      readLine(in, in.read());
+    }
+  }
+
+  private static void readFully(InputStream in, OutputStream out, long length) throws IOException {
+    byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(length, 1))];
+    long remaining = length;
+    while (remaining > 0) {
+      int len = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+      if (len == -1) {
+        if (length == Long.MAX_VALUE) {
+          return;
+        }
+        throw new EOFException("Unexpected end of response");
+      }
+      out.write(buffer, 0, len);
+      remaining -= len;
+    }
+  }
+
+  private static String host(URL url) {
+    String host = url.getHost();
+    if (host.startsWith("[") && host.endsWith("]")) {
+      host = host.substring(1, host.length() - 1);
+    }
+    return host;
+  }
+
+  private static int port(URL url) {
+    return url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+  }
+
+  /**
+   * SSLSocket does not check the peer's name, so match it against the certificate like HttpsURLConnection does.
+   */
+  private static void verifyHostname(String host, SSLSession session) throws IOException {
+    Certificate[] certificates = session.getPeerCertificates();
+    if (certificates.length == 0 || !(certificates[0] instanceof X509Certificate)) {
+      throw new SSLPeerUnverifiedException("No X.509 certificate from " + host);
+    }
+    X509Certificate certificate = (X509Certificate) certificates[0];
+    boolean ipAddress = host.indexOf(':') >= 0 || host.matches("[0-9.]+");
+    boolean hasDnsName = false;
+    Collection<List<?>> names;
+    try {
+      names = certificate.getSubjectAlternativeNames();
+    } catch (CertificateParsingException e) {
+      throw new SSLPeerUnverifiedException("Invalid certificate from " + host + ": " + e.getMessage());
+    }
+    if (names != null) {
+      for (List<?> name : names) {
+        int type = (Integer) name.get(0);
+        Object value = name.get(1);
+        if (ipAddress && type == SAN_IP_ADDRESS && host.equalsIgnoreCase(String.valueOf(value))) {
+          return;
+        }
+        if (type == SAN_DNS_NAME) {
+          hasDnsName = true;
+          if (!ipAddress && matchesHostname(host, String.valueOf(value))) {
+            return;
+          }
+        }
+      }
+    }
+    if (!ipAddress && !hasDnsName) {
+      try {
+        LdapName subject = new LdapName(certificate.getSubjectX500Principal().getName());
+        for (Rdn rdn : subject.getRdns()) {
+          if ("CN".equalsIgnoreCase(rdn.getType()) && matchesHostname(host, String.valueOf(rdn.getValue()))) {
+            return;
+          }
+        }
+      } catch (InvalidNameException e) {
+        // fall through
+      }
+    }
+    throw new SSLPeerUnverifiedException("Certificate does not match host " + host);
+  }
+
+  private static boolean matchesHostname(String host, String pattern) {
+    host = host.toLowerCase();
+    pattern = pattern.toLowerCase();
+    if (pattern.startsWith("*.")) {
+      String suffix = pattern.substring(1);
+      if (!host.endsWith(suffix)) {
+        return false;
+      }
+      String label = host.substring(0, host.length() - suffix.length());
+      return label.length() > 0 && label.indexOf('.') < 0;
+    }
+    return host.equals(pattern);
+  }
+
+  private void closeQuietly(Connection conn) {
+    try {
+      conn.socket.close();
+    } catch (IOException e) {
+      // ignore
+    }
+    openConnections.decrementAndGet();
+  }
+
+  private static class StaleConnectionException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    StaleConnectionException(IOException cause) {
+      super(cause.getMessage());
+      initCause(cause);
+    }
+  }
+
+  private static class Connection {
+    final Socket socket;
+    final InputStream in;
+    final OutputStream out;
+    long lastUsed;
+    boolean reused;
+    // bytes the socket accepted
+    long sent;
+
+    Connection(Socket socket) throws IOException {
+      this.socket = socket;
+      this.in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+      this.out = new BufferedOutputStream(new FilterOutputStream(socket.getOutputStream()) {
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          out.write(b, off, len);
+          sent += len;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+          out.write(b);
+          sent++;
+        }
+      }, BUFFER_SIZE);
+    }
+  }
+
+  private class HostPool {
+    final String key;
+    final Semaphore permits = new Semaphore(maxConnectionsPerHost);
+    // most recently used connection last
+    private final LinkedList<Connection> idle = new LinkedList<Connection>();
+
+    HostPool(String key) {
+      this.key = key;
+    }
+
+    Connection poll(long now) {
+      for (; ; ) {
+        Connection conn;
+        synchronized (idle) {
+          conn = idle.pollLast();
+        }
+        if (conn == null) {
+          return null;
+        }
+        if (now - conn.lastUsed < idleTimeoutMillis && !conn.socket.isClosed()) {
+          return conn;
+        }
+        closeQuietly(conn);
+      }
+    }
+
+    void release(Connection conn) {
+      conn.lastUsed = System.currentTimeMillis();
+      synchronized (idle) {
+        idle.addLast(conn);
+      }
+    }
+
+    void evict(long now) {
+      synchronized (idle) {
+        Iterator<Connection> iterator = idle.iterator();
+        while (iterator.hasNext()) {
+          Connection conn = iterator.next();
+          if (now - conn.lastUsed < idleTimeoutMillis) {
+            break;
+          }
+          iterator.remove();
+          closeQuietly(conn);
+        }
+      }
+    }
+
+    void closeIdle() {
+      synchronized (idle) {
+        for (Connection conn : idle) {
+          closeQuietly(conn);
+        }
+        idle.clear();
+      }
+    }
+  }
+
+  /**
+   * Chunked transfer encoding. Buffers writes into chunks of BUFFER_SIZE bytes;
+   * close() writes the last chunk but leaves the connection open.
+   */
+  private static class ChunkedOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private boolean finished;
+
+    ChunkedOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      if (position == buffer.length) {
+        writeChunk();
+      }
+      buffer[position++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (position == buffer.length) {
+          writeChunk();
+        }
+        int n = Math.min(len, buffer.length - position);
+        System.arraycopy(b, off, buffer, position, n);
+        position += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    @Override
+    public void flush() {
+      // chunks are only written when full, so callers flushing often do not produce tiny chunks
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (finished) {
+        return;
+      }
+      finished = true;
+      writeChunk();
+      out.write(new byte[]{'0', '\r', '\n', '\r', '\n'});
+    }
+
+    private void writeChunk() throws IOException {
+      if (position == 0) {
+        return;
+      }
+      out.write(Integer.toHexString(position).getBytes("ISO-8859-1"));
+      out.write('\r');
+      out.write('\n');
+      out.write(buffer, 0, position);
+      out.write('\r');
+      out.write('\n');
+      position = 0;
+    }
+  }
+}
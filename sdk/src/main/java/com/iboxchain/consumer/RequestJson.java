@@ -0,0 +1,47 @@
+package com.iboxchain.consumer;
+
+import com.iboxchain.Config;
+import com.iboxchain.utils.CommonUtil;
+import com.iboxchain.utils.JsonWriter;
+import com.iboxchain.utils.TimeContext;
+
+/**
+ * Writes Countly request objects as JSON, the form taken by the /i/bulk endpoint and written by the LogConsumer:
+ * {"app_key":"..","device_id":"..","timestamp":..,"hour":..,"dow":..,"tz":..,"sdk_name":"..","sdk_version":"..",..}
+ */
+public final class RequestJson {
+
+  private RequestJson() {
+  }
+
+  /**
+   * Writes the opening brace and the app_key, device_id, time and sdk fields of a request object.
+   * The caller appends the data fields and the closing brace.
+   */
+  public static void writeHeader(StringBuilder out, String appKey, String deviceId) {
+    long timestamp = CommonUtil.currentTimestampMs();
+    TimeContext time = TimeContext.of(timestamp);
+    out.append("{\"app_key\":");
+    JsonWriter.quote(out, appKey);
+    out.append(",\"device_id\":");
+    JsonWriter.quote(out, deviceId);
+    out.append(",\"timestamp\":").append(timestamp)
+        .append(",\"hour\":").append(time.getHour())
+        .append(",\"dow\":").append(time.getDayOfWeek())
+        .append(",\"tz\":").append(time.getTimezoneOffset())
+        .append(",\"sdk_name\":\"").append(Config.SDK_NAME)
+        .append("\",\"sdk_version\":\"").append(Config.SDK_VERSION)
+        .append('"');
+  }
+
+  /**
+   * Writes a whole request object with one data field.
+   *
+   * @param field name of the data field, e.g. "events" or "user_details"
+   * @param data  JSON value of the data field
+   */
+  public static void write(StringBuilder out, String appKey, String deviceId, String field, String data) {
+    writeHeader(out, appKey, deviceId);
+    out.append(",\"").append(field).append("\":").append(data).append('}');
+  }
+}
@@ -0,0 +1,164 @@
+package com.iboxchain.consumer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+/**
+ * Writes x-www-form-urlencoded request parameters straight into an OutputStream
+ * while hashing every written byte, so the checksum is available as soon as the
+ * last parameter is written and the request never exists as one big String.
+ * Values are encoded exactly like URLEncoder.encode(value, "UTF-8").
+ * Uses the digest of the calling thread, so a thread writes one request at a time.
+ */
+class RequestWriter {
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+  private static final char[] HEX_LOWER = "0123456789abcdef".toCharArray();
+  private static final boolean[] UNRESERVED = new boolean[128];
+
+  static {
+    for (char c = 'a'; c <= 'z'; c++) {
+      UNRESERVED[c] = true;
+    }
+    for (char c = 'A'; c <= 'Z'; c++) {
+      UNRESERVED[c] = true;
+    }
+    for (char c = '0'; c <= '9'; c++) {
+      UNRESERVED[c] = true;
+    }
+    UNRESERVED['.'] = true;
+    UNRESERVED['-'] = true;
+    UNRESERVED['*'] = true;
+    UNRESERVED['_'] = true;
+  }
+
+  private final OutputStream out;
+  private final Checksum checksum;
+  private final MessageDigest digest;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int position;
+  // the hash is complete, bytes written afterwards are not hashed
+  private boolean complete;
+  private long digestNanos;
+
+  RequestWriter(OutputStream out, Checksum checksum) {
+    this.out = out;
+    this.checksum = checksum;
+    this.digest = checksum.digest();
+  }
+
+  /**
+   * Appends an already encoded ASCII part of the request, such as "&amp;app_key=".
+   */
+  RequestWriter raw(String value) throws IOException {
+    if (value == null) {
+      value = "null";
+    }
+    for (int i = 0, n = value.length(); i < n; i++) {
+      write(value.charAt(i));
+    }
+    return this;
+  }
+
+  RequestWriter raw(long value) throws IOException {
+    return raw(String.valueOf(value));
+  }
+
+  /**
+   * Appends a value, form-encoding it on the fly.
+   */
+  RequestWriter encoded(String value) throws IOException {
+    for (int i = 0, n = value.length(); i < n; i++) {
+      char c = value.charAt(i);
+      if (c < 128 && UNRESERVED[c]) {
+        write(c);
+      } else if (c == ' ') {
+        write('+');
+      } else if (c < 0x80) {
+        escape(c);
+      } else if (c < 0x800) {
+        escape(0xC0 | (c >> 6));
+        escape(0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int cp = Character.toCodePoint(c, value.charAt(++i));
+        escape(0xF0 | (cp >> 18));
+        escape(0x80 | ((cp >> 12) & 0x3F));
+        escape(0x80 | ((cp >> 6) & 0x3F));
+        escape(0x80 | (cp & 0x3F));
+      } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+        // unpaired surrogate, URLEncoder replaces it with '?'
+        escape('?');
+      } else {
+        escape(0xE0 | (c >> 12));
+        escape(0x80 | ((c >> 6) & 0x3F));
+        escape(0x80 | (c & 0x3F));
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Appends the checksum parameter of everything written so far, the hex digits go straight into the buffer.
+   * Nothing written afterwards is hashed.
+   */
+  RequestWriter writeChecksum() throws IOException {
+    byte[] hash = completeHash();
+    raw(checksum.parameter());
+    for (byte b : hash) {
+      write(HEX_LOWER[(b >> 4) & 0x0F]);
+      write(HEX_LOWER[b & 0x0F]);
+    }
+    return this;
+  }
+
+  private byte[] completeHash() throws IOException {
+    flushBuffer();
+    complete = true;
+    long start = System.nanoTime();
+    byte[] hash = checksum.complete(digest);
+    digestNanos += System.nanoTime() - start;
+    return hash;
+  }
+
+  /**
+   * @return nanos spent hashing so far, without encoding and writing to the stream
+   */
+  long digestNanos() {
+    return digestNanos;
+  }
+
+  /**
+   * Writes the buffered bytes to the stream and flushes it.
+   */
+  void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+  }
+
+  private void escape(int b) throws IOException {
+    write('%');
+    write(HEX[(b >> 4) & 0x0F]);
+    write(HEX[b & 0x0F]);
+  }
+
+  private void write(int b) throws IOException {
+    if (position == buffer.length) {
+      flushBuffer();
+    }
+    buffer[position++] = (byte) b;
+  }
+
+  private void flushBuffer() throws IOException {
+    if (position > 0) {
+      if (!complete) {
+        long start = System.nanoTime();
+        digest.update(buffer, 0, position);
+        digestNanos += System.nanoTime() - start;
+      }
+      out.write(buffer, 0, position);
+      position = 0;
+    }
+  }
+}
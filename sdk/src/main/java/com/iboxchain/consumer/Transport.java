@@ -0,0 +1,54 @@
+package com.iboxchain.consumer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Executes HTTP requests for HttpConsumer.
+ * Implementations must be thread safe, one instance may be shared by many consumers.
+ */
+public interface Transport {
+
+  /**
+   * Streams a request body. May be called again if the request has to be resent on a new connection.
+   */
+  interface Body {
+    void writeTo(OutputStream out) throws IOException;
+  }
+
+  /**
+   * Execute one request and read the whole response.
+   *
+   * @param method  GET or POST
+   * @param url     request url, including the query string
+   * @param headers request headers
+   * @param body    request body, null for none
+   * @return status code and content of the response
+   */
+  Response execute(String method, URL url, Map<String, String> headers, Body body) throws IOException;
+
+  /**
+   * Release all connections held by this transport.
+   */
+  void close();
+
+  class Response {
+    private final int code;
+    private final String content;
+
+    public Response(int code, String content) {
+      this.code = code;
+      this.content = content;
+    }
+
+    public int getCode() {
+      return code;
+    }
+
+    public String getContent() {
+      return content;
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package com.iboxchain.consumer;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Transport based on HttpURLConnection.
+ * Connections are never disconnected explicitly and responses are always read to the end,
+ * so the JDK keep-alive cache can reuse the socket for the next request to the same host.
+ * All https connections share one SSLSocketFactory, so TLS sessions are resumed.
+ */
+public class UrlConnectionTransport implements Transport {
+
+  private static final int BUFFER_SIZE = 256;
+  private static final int CHUNK_SIZE = 8192;
+  private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+  private static final int READ_TIMEOUT_MILLIS = 10000;
+
+  private final SSLSocketFactory sslSocketFactory;
+
+  public UrlConnectionTransport() {
+    this(HttpsURLConnection.getDefaultSSLSocketFactory());
+  }
+
+  public UrlConnectionTransport(SSLSocketFactory sslSocketFactory) {
+    this.sslSocketFactory = sslSocketFactory;
+  }
+
+  @Override
+  public Response execute(String method, URL url, Map<String, String> headers, Body body) throws IOException {
+    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+    if (conn instanceof HttpsURLConnection) {
+      ((HttpsURLConnection) conn).setSSLSocketFactory(sslSocketFactory);
+    }
+    conn.setReadTimeout(READ_TIMEOUT_MILLIS);
+    conn.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+    conn.setRequestMethod(method);
+    if (headers != null) {
+      for (Map.Entry<String, String> entry : headers.entrySet()) {
+        conn.setRequestProperty(entry.getKey(), entry.getValue());
+      }
+    }
+
+    try {
+      if (body != null) {
+        conn.setDoOutput(true);
+        conn.setChunkedStreamingMode(CHUNK_SIZE);
+        OutputStream out = conn.getOutputStream();
+        try {
+          body.writeTo(out);
+        } finally {
+          out.close();
+        }
+      }
+      int responseCode = conn.getResponseCode();
+      InputStream stream = responseCode >= 400 ? conn.getErrorStream() : conn.getInputStream();
+      return new Response(responseCode, stream == null ? "" : slurp(stream));
+    } catch (IOException e) {
+      // the connection is in an unknown state, do not hand it back to the keep-alive cache
+      conn.disconnect();
+      throw e;
+    }
+  }
+
+  @Override
+  public void close() {
+  }
+
+  /**
+   * Get response message from server
+   *
+   * @param in InputStream from HttpURLConnection
+   * @return response message from server
+   */
+  private String slurp(InputStream in) throws IOException {
+    final StringBuilder out = new StringBuilder();
+    InputStreamReader reader = new InputStreamReader(in, "utf8");
+    try {
+      char[] readBuffer = new char[BUFFER_SIZE];
+      int readCount = 0;
+      do {
+        readCount = reader.read(readBuffer);
+        if (readCount > 0) {
+          out.append(readBuffer, 0, readCount);
+        }
+      } while (readCount != -1);
+    } finally {
+      reader.close();
+    }
+    return out.toString();
+  }
+}
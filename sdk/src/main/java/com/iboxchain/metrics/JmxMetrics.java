@@ -0,0 +1,135 @@
+package com.iboxchain.metrics;
+
+import java.util.Map;
+
+/**
+ * Reads every attribute from a fresh snapshot, JMX clients poll rarely.
+ */
+class JmxMetrics implements MetricsMXBean {
+
+  private final Metrics metrics;
+
+  JmxMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public long getEventsRecorded() {
+    return metrics.snapshot().getEventsRecorded();
+  }
+
+  @Override
+  public long getEventsSent() {
+    return metrics.snapshot().getEventsSent();
+  }
+
+  @Override
+  public long getEventsDropped() {
+    return metrics.snapshot().getEventsDropped();
+  }
+
+  @Override
+  public long getEventsSampledOut() {
+    return metrics.snapshot().getEventsSampledOut();
+  }
+
+  @Override
+  public long getEventsRateLimited() {
+    return metrics.snapshot().getEventsRateLimited();
+  }
+
+  @Override
+  public Map<String, Long> getEventsLimitedByKey() {
+    return metrics.snapshot().getEventsLimitedByKey();
+  }
+
+  @Override
+  public long getEventsAggregated() {
+    return metrics.snapshot().getEventsAggregated();
+  }
+
+  @Override
+  public long getRequestsSent() {
+    return metrics.snapshot().getRequestsSent();
+  }
+
+  @Override
+  public long getRequestsRetried() {
+    return metrics.snapshot().getRequestsRetried();
+  }
+
+  @Override
+  public long getRequestsFailed() {
+    return metrics.snapshot().getRequestsFailed();
+  }
+
+  @Override
+  public Map<Integer, Long> getRequestsFailedByStatus() {
+    return metrics.snapshot().getRequestsFailedByStatus();
+  }
+
+  @Override
+  public long getQueueDepth() {
+    return metrics.snapshot().getQueueDepth();
+  }
+
+  @Override
+  public long getSpoolBytes() {
+    return metrics.snapshot().getSpoolBytes();
+  }
+
+  @Override
+  public long getOpenConnections() {
+    return metrics.snapshot().getOpenConnections();
+  }
+
+  @Override
+  public long getSerializeCount() {
+    return metrics.serializeLatency().snapshot().getCount();
+  }
+
+  @Override
+  public long getSerializeP50Nanos() {
+    return metrics.serializeLatency().snapshot().getPercentileNanos(50);
+  }
+
+  @Override
+  public long getSerializeP99Nanos() {
+    return metrics.serializeLatency().snapshot().getPercentileNanos(99);
+  }
+
+  @Override
+  public long getChecksumCount() {
+    return metrics.checksumLatency().snapshot().getCount();
+  }
+
+  @Override
+  public long getChecksumP50Nanos() {
+    return metrics.checksumLatency().snapshot().getPercentileNanos(50);
+  }
+
+  @Override
+  public long getChecksumP99Nanos() {
+    return metrics.checksumLatency().snapshot().getPercentileNanos(99);
+  }
+
+  @Override
+  public long getSendCount() {
+    return metrics.sendLatency().snapshot().getCount();
+  }
+
+  @Override
+  public long getSendP50Nanos() {
+    return metrics.sendLatency().snapshot().getPercentileNanos(50);
+  }
+
+  @Override
+  public long getSendP99Nanos() {
+    return metrics.sendLatency().snapshot().getPercentileNanos(99);
+  }
+
+  @Override
+  public long getSendMaxNanos() {
+    return metrics.sendLatency().snapshot().getMaxNanos();
+  }
+}
@@ -0,0 +1,135 @@
+package com.iboxchain.metrics;
+
+import com.iboxchain.utils.Stripes;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations with power of two buckets: bucket i counts durations of less than 2^i nanos
+ * that did not fit into bucket i - 1. Recording is a bit scan and two uncontended adds to the cells
+ * of the calling thread's stripe, percentiles are reported as the upper bound of their bucket.
+ */
+public final class LatencyHistogram {
+
+  // 2^47 nanos is about 39 hours, longer durations go to the last bucket
+  static final int BUCKETS = 48;
+  private static final int SUM = BUCKETS;
+  // buckets and sum of a stripe, padded so stripes do not share cache lines
+  private static final int STRIDE = (BUCKETS + 1 + Stripes.PADDING - 1) / Stripes.PADDING * Stripes.PADDING;
+
+  private final AtomicLongArray cells = new AtomicLongArray(Stripes.COUNT * STRIDE);
+
+  /**
+   * @param nanos duration to record, negative durations count as 0
+   */
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    int base = Stripes.index() * STRIDE;
+    cells.getAndIncrement(base + bucket);
+    cells.getAndAdd(base + SUM, nanos);
+  }
+
+  /**
+   * Records the time passed since startNanos.
+   *
+   * @param startNanos value of System.nanoTime() when the measured phase started
+   */
+  public void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  public Snapshot snapshot() {
+    long[] counts = new long[BUCKETS];
+    long total = 0;
+    for (int stripe = 0; stripe < Stripes.COUNT; stripe++) {
+      int base = stripe * STRIDE;
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] += cells.get(base + i);
+      }
+      total += cells.get(base + SUM);
+    }
+    return new Snapshot(counts, total);
+  }
+
+  /**
+   * Recorded durations at the time of the snapshot.
+   */
+  public static final class Snapshot {
+
+    private final long[] counts;
+    private final long count;
+    private final long totalNanos;
+
+    Snapshot(long[] counts, long totalNanos) {
+      this.counts = counts;
+      long count = 0;
+      for (long c : counts) {
+        count += c;
+      }
+      this.count = count;
+      this.totalNanos = totalNanos;
+    }
+
+    /**
+     * @return number of recorded durations
+     */
+    public long getCount() {
+      return count;
+    }
+
+    public long getTotalNanos() {
+      return totalNanos;
+    }
+
+    /**
+     * @return mean duration, 0 if nothing was recorded
+     */
+    public long getMeanNanos() {
+      return count == 0 ? 0 : totalNanos / count;
+    }
+
+    /**
+     * @param percentile percentile between 0 and 100, e.g. 99.9
+     * @return upper bound of the bucket holding the percentile, 0 if nothing was recorded
+     */
+    public long getPercentileNanos(double percentile) {
+      if (count == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100);
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= Math.max(1, rank)) {
+          return upperBound(i);
+        }
+      }
+      return upperBound(counts.length - 1);
+    }
+
+    /**
+     * @return upper bound of the bucket of the longest recorded duration, 0 if nothing was recorded
+     */
+    public long getMaxNanos() {
+      for (int i = counts.length - 1; i >= 0; i--) {
+        if (counts[i] > 0) {
+          return upperBound(i);
+        }
+      }
+      return 0;
+    }
+
+    private static long upperBound(int bucket) {
+      return bucket == 0 ? 0 : (1L << bucket) - 1;
+    }
+
+    @Override
+    public String toString() {
+      return "count=" + count + ",mean=" + getMeanNanos() + "ns,p50=" + getPercentileNanos(50)
+          + "ns,p99=" + getPercentileNanos(99) + "ns,max=" + getMaxNanos() + "ns";
+    }
+  }
+}
@@ -0,0 +1,210 @@
+package com.iboxchain.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Counters and latency histograms of one Countly instance, updated by the recording threads, the sender
+ * and the HttpConsumer. Counters are striped, so counting on many threads does not contend on a cache line.
+ * Gauges are read from their source when a snapshot is taken.
+ * Thread safe.
+ */
+public final class Metrics {
+
+  /**
+   * Current values of the gauges, read when a snapshot is taken.
+   */
+  public interface Gauges {
+    /**
+     * @return events and user data updates waiting in the async queue
+     */
+    long queueDepth();
+
+    /**
+     * @return bytes of the spool not yet delivered
+     */
+    long spoolBytes();
+
+    /**
+     * @return connections open in the transport
+     */
+    long openConnections();
+  }
+
+  private static final Gauges NO_GAUGES = new Gauges() {
+    @Override
+    public long queueDepth() {
+      return 0;
+    }
+
+    @Override
+    public long spoolBytes() {
+      return 0;
+    }
+
+    @Override
+    public long openConnections() {
+      return 0;
+    }
+  };
+
+  private final Gauges gauges;
+  private final StripedCounter eventsRecorded = new StripedCounter();
+  private final StripedCounter eventsSent = new StripedCounter();
+  private final StripedCounter eventsDropped = new StripedCounter();
+  private final StripedCounter eventsSampledOut = new StripedCounter();
+  private final StripedCounter eventsAggregated = new StripedCounter();
+  private final StripedCounter eventsRateLimited = new StripedCounter();
+  private final ConcurrentMap<String, StripedCounter> eventsLimited = new ConcurrentHashMap<String, StripedCounter>();
+  private final StripedCounter requestsSent = new StripedCounter();
+  private final StripedCounter requestsRetried = new StripedCounter();
+  private final ConcurrentMap<Integer, StripedCounter> requestsFailed =
+      new ConcurrentHashMap<Integer, StripedCounter>();
+  private final LatencyHistogram serializeLatency = new LatencyHistogram();
+  private final LatencyHistogram checksumLatency = new LatencyHistogram();
+  private final LatencyHistogram sendLatency = new LatencyHistogram();
+
+  public Metrics() {
+    this(NO_GAUGES);
+  }
+
+  public Metrics(Gauges gauges) {
+    this.gauges = gauges;
+  }
+
+  public void eventRecorded() {
+    eventsRecorded.increment();
+  }
+
+  /**
+   * @param events events delivered with a request, user data updates are not counted
+   */
+  public void requestSent(long events) {
+    requestsSent.increment();
+    if (events > 0) {
+      eventsSent.add(events);
+    }
+  }
+
+  /**
+   * @param events events dropped because the queue or the spool was full, the server was unavailable or rejected them
+   */
+  public void eventsDropped(long events) {
+    if (events > 0) {
+      eventsDropped.add(events);
+    }
+  }
+
+  /**
+   * @param key key of the sampling rule that dropped the event, null for the rule of all keys
+   */
+  public void eventSampledOut(String key) {
+    eventsSampledOut.increment();
+    if (key != null) {
+      counter(eventsLimited, key).increment();
+    }
+  }
+
+  /**
+   * @param key key of the rate limit that dropped the event, null for the limit of all events
+   */
+  public void eventRateLimited(String key) {
+    eventsRateLimited.increment();
+    if (key != null) {
+      counter(eventsLimited, key).increment();
+    }
+  }
+
+  /**
+   * @param events events folded into an event recorded before them, negative when an aggregated count too
+   *               large for one event is split into several events
+   */
+  public void eventsAggregated(long events) {
+    eventsAggregated.add(events);
+  }
+
+  public void requestRetried() {
+    requestsRetried.increment();
+  }
+
+  /**
+   * @param status HTTP status code of the response, 0 if no response was received
+   */
+  public void requestFailed(int status) {
+    counter(requestsFailed, status).increment();
+  }
+
+  private static <K> StripedCounter counter(ConcurrentMap<K, StripedCounter> counters, K key) {
+    StripedCounter counter = counters.get(key);
+    if (counter == null) {
+      StripedCounter created = new StripedCounter();
+      counter = counters.putIfAbsent(key, created);
+      if (counter == null) {
+        counter = created;
+      }
+    }
+    return counter;
+  }
+
+  /**
+   * Time spent serializing an event to JSON.
+   */
+  public LatencyHistogram serializeLatency() {
+    return serializeLatency;
+  }
+
+  /**
+   * Time spent hashing the parameters of a request, one value per request. Encoding the parameters,
+   * compressing and writing them to the connection is not included.
+   */
+  public LatencyHistogram checksumLatency() {
+    return checksumLatency;
+  }
+
+  /**
+   * Time from opening a request until its response was read.
+   */
+  public LatencyHistogram sendLatency() {
+    return sendLatency;
+  }
+
+  public MetricsSnapshot snapshot() {
+    Map<Integer, Long> failed = new TreeMap<Integer, Long>();
+    for (Map.Entry<Integer, StripedCounter> entry : requestsFailed.entrySet()) {
+      failed.put(entry.getKey(), entry.getValue().sum());
+    }
+    Map<String, Long> limited = new TreeMap<String, Long>();
+    for (Map.Entry<String, StripedCounter> entry : eventsLimited.entrySet()) {
+      limited.put(entry.getKey(), entry.getValue().sum());
+    }
+    return new MetricsSnapshot(eventsRecorded.sum(), eventsSent.sum(), eventsDropped.sum(), eventsSampledOut.sum(),
+        eventsRateLimited.sum(), limited, eventsAggregated.sum(), requestsSent.sum(), requestsRetried.sum(), failed, gauges.queueDepth(),
+        gauges.spoolBytes(), gauges.openConnections(), serializeLatency.snapshot(), checksumLatency.snapshot(),
+        sendLatency.snapshot());
+  }
+
+  /**
+   * Registers the metrics with the platform MBeanServer as com.iboxchain:type=Countly,name=&lt;name&gt;.
+   *
+   * @param name name of the Countly instance, unique within the JVM
+   * @return name of the registered MBean, pass it to {@link #unregisterMBean(ObjectName)}
+   * @throws JMException if an MBean with the name is already registered
+   */
+  public ObjectName registerMBean(String name) throws JMException {
+    ObjectName objectName = new ObjectName("com.iboxchain:type=Countly,name=" + ObjectName.quote(name));
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    server.registerMBean(new StandardMBean(new JmxMetrics(this), MetricsMXBean.class, true), objectName);
+    return objectName;
+  }
+
+  public static void unregisterMBean(ObjectName objectName) throws JMException {
+    ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+  }
+}
@@ -0,0 +1,58 @@
+package com.iboxchain.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics of a Countly instance, see {@link Metrics#registerMBean(String)}.
+ * Latencies are in nanos.
+ */
+public interface MetricsMXBean {
+
+  long getEventsRecorded();
+
+  long getEventsSent();
+
+  long getEventsDropped();
+
+  long getEventsSampledOut();
+
+  long getEventsRateLimited();
+
+  Map<String, Long> getEventsLimitedByKey();
+
+  long getEventsAggregated();
+
+  long getRequestsSent();
+
+  long getRequestsRetried();
+
+  long getRequestsFailed();
+
+  Map<Integer, Long> getRequestsFailedByStatus();
+
+  long getQueueDepth();
+
+  long getSpoolBytes();
+
+  long getOpenConnections();
+
+  long getSerializeCount();
+
+  long getSerializeP50Nanos();
+
+  long getSerializeP99Nanos();
+
+  long getChecksumCount();
+
+  long getChecksumP50Nanos();
+
+  long getChecksumP99Nanos();
+
+  long getSendCount();
+
+  long getSendP50Nanos();
+
+  long getSendP99Nanos();
+
+  long getSendMaxNanos();
+}
@@ -0,0 +1,179 @@
+package com.iboxchain.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Values of the metrics of a Countly instance at the time of the snapshot.
+ * Counters count since the instance was created.
+ */
+public final class MetricsSnapshot {
+
+  private final long eventsRecorded;
+  private final long eventsSent;
+  private final long eventsDropped;
+  private final long eventsSampledOut;
+  private final long eventsRateLimited;
+  private final Map<String, Long> eventsLimited;
+  private final long eventsAggregated;
+  private final long requestsSent;
+  private final long requestsRetried;
+  private final Map<Integer, Long> requestsFailed;
+  private final long queueDepth;
+  private final long spoolBytes;
+  private final long openConnections;
+  private final LatencyHistogram.Snapshot serializeLatency;
+  private final LatencyHistogram.Snapshot checksumLatency;
+  private final LatencyHistogram.Snapshot sendLatency;
+
+  MetricsSnapshot(long eventsRecorded, long eventsSent, long eventsDropped, long eventsSampledOut,
+                  long eventsRateLimited, Map<String, Long> eventsLimited, long eventsAggregated, long requestsSent,
+                  long requestsRetried, Map<Integer, Long> requestsFailed, long queueDepth, long spoolBytes,
+                  long openConnections, LatencyHistogram.Snapshot serializeLatency,
+                  LatencyHistogram.Snapshot checksumLatency, LatencyHistogram.Snapshot sendLatency) {
+    this.eventsRecorded = eventsRecorded;
+    this.eventsSent = eventsSent;
+    this.eventsDropped = eventsDropped;
+    this.eventsSampledOut = eventsSampledOut;
+    this.eventsRateLimited = eventsRateLimited;
+    this.eventsLimited = Collections.unmodifiableMap(eventsLimited);
+    this.eventsAggregated = eventsAggregated;
+    this.requestsSent = requestsSent;
+    this.requestsRetried = requestsRetried;
+    this.requestsFailed = Collections.unmodifiableMap(requestsFailed);
+    this.queueDepth = queueDepth;
+    this.spoolBytes = spoolBytes;
+    this.openConnections = openConnections;
+    this.serializeLatency = serializeLatency;
+    this.checksumLatency = checksumLatency;
+    this.sendLatency = sendLatency;
+  }
+
+  /**
+   * @return events passed to recordEvent
+   */
+  public long getEventsRecorded() {
+    return eventsRecorded;
+  }
+
+  /**
+   * @return events accepted by the server, or written by the log consumer
+   */
+  public long getEventsSent() {
+    return eventsSent;
+  }
+
+  /**
+   * @return events dropped because the queue was full, the server was unavailable or rejected them
+   */
+  public long getEventsDropped() {
+    return eventsDropped;
+  }
+
+  /**
+   * @return events dropped by sampling, the sent counts of the sampled events make up for them
+   */
+  public long getEventsSampledOut() {
+    return eventsSampledOut;
+  }
+
+  /**
+   * @return events dropped by a rate limit
+   */
+  public long getEventsRateLimited() {
+    return eventsRateLimited;
+  }
+
+  /**
+   * @return events dropped by the sampling rate or rate limit of their key, by key; keys without a rule of their own
+   * are not listed
+   */
+  public Map<String, Long> getEventsLimitedByKey() {
+    return eventsLimited;
+  }
+
+  /**
+   * @return events folded into another event by aggregation, the count of the sent event includes them;
+   * recorded events are the sent, dropped, sampled out, rate limited and aggregated ones plus those still queued
+   */
+  public long getEventsAggregated() {
+    return eventsAggregated;
+  }
+
+  /**
+   * @return requests accepted by the server, or written by the log consumer
+   */
+  public long getRequestsSent() {
+    return requestsSent;
+  }
+
+  /**
+   * @return failed requests scheduled for another attempt
+   */
+  public long getRequestsRetried() {
+    return requestsRetried;
+  }
+
+  /**
+   * @return failed attempts by HTTP status code, 0 for attempts without a response
+   */
+  public Map<Integer, Long> getRequestsFailedByStatus() {
+    return requestsFailed;
+  }
+
+  /**
+   * @return failed attempts of all status codes
+   */
+  public long getRequestsFailed() {
+    long failed = 0;
+    for (Long count : requestsFailed.values()) {
+      failed += count;
+    }
+    return failed;
+  }
+
+  /**
+   * @return events and user data updates waiting in the async queue
+   */
+  public long getQueueDepth() {
+    return queueDepth;
+  }
+
+  /**
+   * @return bytes of the spool not yet delivered
+   */
+  public long getSpoolBytes() {
+    return spoolBytes;
+  }
+
+  /**
+   * @return connections open in a PooledTransport, 0 for other transports
+   */
+  public long getOpenConnections() {
+    return openConnections;
+  }
+
+  public LatencyHistogram.Snapshot getSerializeLatency() {
+    return serializeLatency;
+  }
+
+  public LatencyHistogram.Snapshot getChecksumLatency() {
+    return checksumLatency;
+  }
+
+  public LatencyHistogram.Snapshot getSendLatency() {
+    return sendLatency;
+  }
+
+  @Override
+  public String toString() {
+    return "eventsRecorded=" + eventsRecorded + ",eventsSent=" + eventsSent + ",eventsDropped=" + eventsDropped
+        + ",eventsSampledOut=" + eventsSampledOut + ",eventsRateLimited=" + eventsRateLimited
+        + ",eventsLimitedByKey=" + eventsLimited + ",eventsAggregated=" + eventsAggregated
+        + ",requestsSent=" + requestsSent
+        + ",requestsRetried=" + requestsRetried
+        + ",requestsFailed=" + requestsFailed + ",queueDepth=" + queueDepth + ",spoolBytes=" + spoolBytes
+        + ",openConnections=" + openConnections + "\n serialize: " + serializeLatency
+        + "\n checksum: " + checksumLatency + "\n send: " + sendLatency;
+  }
+}
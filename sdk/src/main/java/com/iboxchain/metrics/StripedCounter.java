@@ -0,0 +1,31 @@
+package com.iboxchain.metrics;
+
+import com.iboxchain.utils.Stripes;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter that spreads its updates over cells picked by the calling thread, so threads counting the same
+ * event do not contend on one cache line. Every cell is padded to its own cache line.
+ * Reading sums up the cells and is not an atomic snapshot while the counter is updated.
+ */
+public final class StripedCounter {
+
+  private final AtomicLongArray cells = new AtomicLongArray(Stripes.COUNT * Stripes.PADDING);
+
+  public void increment() {
+    add(1);
+  }
+
+  public void add(long delta) {
+    cells.getAndAdd(Stripes.index() * Stripes.PADDING, delta);
+  }
+
+  public long sum() {
+    long sum = 0;
+    for (int i = 0; i < Stripes.COUNT; i++) {
+      sum += cells.get(i * Stripes.PADDING);
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,366 @@
+package com.iboxchain.spool;
+
+import org.apache.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Durable append-only log of records, used to keep undelivered events across failures and restarts.
+ * <p>
+ * Records are appended to fixed size, memory-mapped segment files, so an append is a memory copy and
+ * not a syscall; {@link #sync()} forces the written pages to disk and is meant to be called
+ * periodically (group fsync). A reader cursor walks the records in order, {@link #ack(long)} commits
+ * the cursor to a checkpoint file and deletes segments that were read completely.
+ * When the spool would grow beyond maxBytes the oldest segment is dropped, see {@link #droppedRecords()}.
+ * <p>
+ * Segment layout: a sequence of [int length][int crc32][length bytes UTF-8], terminated by a zero
+ * length (never written space) or ROLL_MARKER when the writer moved on to the next segment.
+ * Not meant to be shared by several processes.
+ */
+public class Spool implements Closeable {
+
+  private static final String SEGMENT_SUFFIX = ".spool";
+  private static final String CHECKPOINT_FILE = "checkpoint";
+  private static final int HEADER_BYTES = 8;
+  private static final int ROLL_MARKER = -1;
+
+  private final File directory;
+  private final int segmentBytes;
+  private final int maxSegments;
+  // segment sequence -> mapped segment, oldest first
+  private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<Long, MappedByteBuffer>();
+  private final MappedByteBuffer checkpoint;
+  private final RandomAccessFile checkpointFile;
+  private final CRC32 crc = new CRC32();
+
+  private long writeSegment;
+  private MappedByteBuffer writeBuffer;
+  private long readSegment;
+  private int readOffset;
+  private long ackedSegment;
+  private int ackedOffset;
+  private long droppedSegments;
+  private long droppedRecords;
+
+  private Logger log = Logger.getLogger(Spool.class);
+
+  /**
+   * Opens the spool in the given directory, recovering records that were not acknowledged yet.
+   *
+   * @param directory    directory for the segment files, created if missing
+   * @param segmentBytes size of one segment file, also the max size of one record
+   * @param maxBytes     max disk usage, at least two segments are kept
+   */
+  public Spool(File directory, int segmentBytes, long maxBytes) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Can not create spool directory " + directory);
+    }
+    this.directory = directory;
+    this.segmentBytes = segmentBytes;
+    this.maxSegments = (int) Math.max(2, maxBytes / segmentBytes);
+
+    checkpointFile = new RandomAccessFile(new File(directory, CHECKPOINT_FILE), "rw");
+    checkpoint = checkpointFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 16);
+
+    for (long sequence : listSegments()) {
+      segments.put(sequence, map(sequence));
+    }
+    if (segments.isEmpty()) {
+      segments.put(0L, map(0));
+    }
+
+    ackedSegment = checkpoint.getLong(0);
+    ackedOffset = (int) checkpoint.getLong(8);
+    if (!segments.containsKey(ackedSegment)) {
+      // the checkpointed segment is gone, start with the oldest one still there
+      ackedSegment = segments.firstKey();
+      ackedOffset = 0;
+    }
+    readSegment = ackedSegment;
+    readOffset = ackedOffset;
+    deleteBefore(ackedSegment);
+
+    writeSegment = segments.lastKey();
+    writeBuffer = segments.get(writeSegment);
+    writeBuffer.position(recoverEnd(writeBuffer));
+  }
+
+  /**
+   * Appends a record. The record is durable after the next {@link #sync()}.
+   *
+   * @param record record to append
+   */
+  public synchronized void append(String record) throws IOException {
+    byte[] bytes = record.getBytes("UTF-8");
+    if (bytes.length + HEADER_BYTES > segmentBytes - 4) {
+      throw new IOException("Record of " + bytes.length + " bytes does not fit into a spool segment");
+    }
+    if (writeBuffer.remaining() < bytes.length + HEADER_BYTES + 4) {
+      roll();
+    }
+    crc.reset();
+    crc.update(bytes, 0, bytes.length);
+    int position = writeBuffer.position();
+    writeBuffer.putInt(position + 4, (int) crc.getValue());
+    writeBuffer.position(position + HEADER_BYTES);
+    writeBuffer.put(bytes);
+    // publish the length last, a torn write leaves a zero length behind
+    writeBuffer.putInt(position, bytes.length);
+  }
+
+  /**
+   * Reads the record after the read cursor and moves the cursor behind it.
+   *
+   * @return the record or null if all records were read
+   */
+  public synchronized String read() throws IOException {
+    for (; ; ) {
+      MappedByteBuffer buffer = segments.get(readSegment);
+      if (buffer == null) {
+        return null;
+      }
+      int length = readOffset + HEADER_BYTES <= segmentBytes ? buffer.getInt(readOffset) : ROLL_MARKER;
+      if (length < 0 || length > segmentBytes - readOffset - HEADER_BYTES) {
+        length = ROLL_MARKER;
+      }
+      if (length == 0 || length == ROLL_MARKER) {
+        if (readSegment == writeSegment) {
+          return null;
+        }
+        // end of an older segment, continue with the next one
+        Long next = segments.higherKey(readSegment);
+        if (next == null) {
+          return null;
+        }
+        readSegment = next;
+        readOffset = 0;
+        continue;
+      }
+      byte[] bytes = copy(buffer, readOffset + HEADER_BYTES, length);
+      readOffset += HEADER_BYTES + length;
+      return decode(bytes);
+    }
+  }
+
+  /**
+   * @return position of the read cursor, to be passed to {@link #ack(long)}
+   */
+  public synchronized long position() {
+    return (readSegment << 32) | readOffset;
+  }
+
+  /**
+   * Marks every record before the given position as delivered and deletes fully delivered segments.
+   *
+   * @param position a value returned by {@link #position()}
+   */
+  public synchronized void ack(long position) {
+    long segment = position >>> 32;
+    if (segment < ackedSegment) {
+      // the segment was dropped in the meantime
+      return;
+    }
+    ackedSegment = segment;
+    ackedOffset = (int) position;
+    checkpoint.putLong(0, ackedSegment);
+    checkpoint.putLong(8, ackedOffset);
+    deleteBefore(ackedSegment);
+  }
+
+  /**
+   * Moves the read cursor back to the last acknowledged record, so failed records are read again.
+   */
+  public synchronized void rewind() {
+    readSegment = ackedSegment;
+    readOffset = ackedOffset;
+  }
+
+  /**
+   * Forces appended records and the checkpoint to disk.
+   */
+  public synchronized void sync() {
+    writeBuffer.force();
+    checkpoint.force();
+  }
+
+  /**
+   * @return approximate number of bytes not acknowledged yet
+   */
+  public synchronized long pendingBytes() {
+    long bytes = 0;
+    for (Long sequence : segments.keySet()) {
+      if (sequence == writeSegment) {
+        bytes += writeBuffer.position();
+      } else {
+        bytes += segmentBytes;
+      }
+    }
+    return Math.max(0, bytes - ackedOffset);
+  }
+
+  /**
+   * @return number of segments dropped because the spool was full
+   */
+  public synchronized long droppedSegments() {
+    return droppedSegments;
+  }
+
+  /**
+   * @return number of records dropped with full segments before they were read
+   */
+  public synchronized long droppedRecords() {
+    return droppedRecords;
+  }
+
+  public synchronized boolean isEmpty() {
+    return ackedSegment == writeSegment && ackedOffset >= writeBuffer.position();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    sync();
+    checkpointFile.close();
+  }
+
+  private void roll() throws IOException {
+    if (writeBuffer.remaining() >= 4) {
+      writeBuffer.putInt(writeBuffer.position(), ROLL_MARKER);
+    }
+    writeBuffer.force();
+    while (segments.size() >= maxSegments) {
+      long oldest = segments.firstKey();
+      MappedByteBuffer dropped = segments.remove(oldest);
+      // records already read are in the hands of the reader
+      int records = readSegment == oldest ? countRecords(dropped, readOffset) : 0;
+      delete(oldest);
+      droppedSegments++;
+      droppedRecords += records;
+      log.error("Spool full(countly-sdk-java): dropped undelivered segment " + oldest + "\n records=" + records);
+      if (ackedSegment <= oldest) {
+        ackedSegment = segments.firstKey();
+        ackedOffset = 0;
+      }
+      if (readSegment <= oldest) {
+        readSegment = ackedSegment;
+        readOffset = 0;
+      }
+    }
+    writeSegment++;
+    writeBuffer = map(writeSegment);
+    segments.put(writeSegment, writeBuffer);
+  }
+
+  private MappedByteBuffer map(long sequence) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(segmentFile(sequence), "rw");
+    try {
+      // the mapping stays valid after the file is closed
+      return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+    } finally {
+      file.close();
+    }
+  }
+
+  /**
+   * Finds the end of the valid records of a segment, skipping a record that was only half written.
+   */
+  private int recoverEnd(MappedByteBuffer buffer) {
+    int offset = 0;
+    while (offset + HEADER_BYTES <= segmentBytes) {
+      int length = buffer.getInt(offset);
+      if (length <= 0 || length > segmentBytes - offset - HEADER_BYTES) {
+        break;
+      }
+      byte[] bytes = copy(buffer, offset + HEADER_BYTES, length);
+      crc.reset();
+      crc.update(bytes, 0, length);
+      if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+        buffer.putInt(offset, 0);
+        break;
+      }
+      offset += HEADER_BYTES + length;
+    }
+    return offset;
+  }
+
+  /**
+   * @return number of records of a segment from the given offset on
+   */
+  private int countRecords(MappedByteBuffer buffer, int offset) {
+    int records = 0;
+    while (offset + HEADER_BYTES <= segmentBytes) {
+      int length = buffer.getInt(offset);
+      if (length <= 0 || length > segmentBytes - offset - HEADER_BYTES) {
+        break;
+      }
+      records++;
+      offset += HEADER_BYTES + length;
+    }
+    return records;
+  }
+
+  private void deleteBefore(long sequence) {
+    while (!segments.isEmpty() && segments.firstKey() < sequence) {
+      delete(segments.pollFirstEntry().getKey());
+    }
+  }
+
+  private void delete(long sequence) {
+    File file = segmentFile(sequence);
+    if (!file.delete() && file.exists()) {
+      // still mapped on some platforms, retry on the next start
+      file.deleteOnExit();
+    }
+  }
+
+  private File segmentFile(long sequence) {
+    return new File(directory, String.format("%020d", sequence) + SEGMENT_SUFFIX);
+  }
+
+  private long[] listSegments() {
+    String[] names = directory.list(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(SEGMENT_SUFFIX);
+      }
+    });
+    if (names == null) {
+      return new long[0];
+    }
+    long[] sequences = new long[names.length];
+    int n = 0;
+    for (String name : names) {
+      try {
+        sequences[n] = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        n++;
+      } catch (NumberFormatException e) {
+        // not ours
+      }
+    }
+    sequences = Arrays.copyOf(sequences, n);
+    Arrays.sort(sequences);
+    return sequences;
+  }
+
+  private static byte[] copy(MappedByteBuffer buffer, int offset, int length) {
+    ByteBuffer view = buffer.duplicate();
+    view.position(offset);
+    byte[] bytes = new byte[length];
+    view.get(bytes);
+    return bytes;
+  }
+
+  private static String decode(byte[] bytes) throws UnsupportedEncodingException {
+    return new String(bytes, "UTF-8");
+  }
+}
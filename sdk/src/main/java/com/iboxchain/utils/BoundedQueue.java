@@ -0,0 +1,127 @@
+package com.iboxchain.utils;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free bounded queue backed by a ring buffer.
+ * Every slot carries a sequence number so producers and consumers only ever CAS
+ * on the head/tail counters, never block each other and never allocate.
+ * Capacity is rounded up to the next power of two.
+ */
+public class BoundedQueue<E> {
+
+  private final int mask;
+  private final AtomicReferenceArray<E> buffer;
+  private final AtomicLongArray sequences;
+  private final AtomicLong head = new AtomicLong();
+  private final AtomicLong tail = new AtomicLong();
+
+  public BoundedQueue(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+    int size = 1;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    this.mask = size - 1;
+    this.buffer = new AtomicReferenceArray<E>(size);
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Inserts the element if there is room for it.
+   *
+   * @param e element to insert, must not be null
+   * @return false if the queue is full
+   */
+  public boolean offer(E e) {
+    if (e == null) {
+      throw new NullPointerException();
+    }
+    long pos = tail.get();
+    int index;
+    for (; ; ) {
+      index = (int) pos & mask;
+      long dif = sequences.get(index) - pos;
+      if (dif == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          break;
+        }
+        pos = tail.get();
+      } else if (dif < 0) {
+        return false;
+      } else {
+        pos = tail.get();
+      }
+    }
+    buffer.lazySet(index, e);
+    sequences.set(index, pos + 1);
+    return true;
+  }
+
+  /**
+   * Removes the oldest element.
+   *
+   * @return the element or null if the queue is empty
+   */
+  public E poll() {
+    long pos = head.get();
+    int index;
+    for (; ; ) {
+      index = (int) pos & mask;
+      long dif = sequences.get(index) - (pos + 1);
+      if (dif == 0) {
+        if (head.compareAndSet(pos, pos + 1)) {
+          break;
+        }
+        pos = head.get();
+      } else if (dif < 0) {
+        return null;
+      } else {
+        pos = head.get();
+      }
+    }
+    E e = buffer.get(index);
+    buffer.lazySet(index, null);
+    sequences.set(index, pos + mask + 1);
+    return e;
+  }
+
+  /**
+   * Moves up to maxElements elements into the given collection.
+   *
+   * @return number of elements moved
+   */
+  public int drainTo(Collection<? super E> target, int maxElements) {
+    int n = 0;
+    E e;
+    while (n < maxElements && (e = poll()) != null) {
+      target.add(e);
+      n++;
+    }
+    return n;
+  }
+
+  public int size() {
+    long size = tail.get() - head.get();
+    if (size < 0) {
+      return 0;
+    }
+    return (int) Math.min(size, capacity());
+  }
+
+  public boolean isEmpty() {
+    return tail.get() == head.get();
+  }
+
+  public int capacity() {
+    return mask + 1;
+  }
+}
@@ -0,0 +1,159 @@
+package com.iboxchain.utils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONString;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Appends JSON values straight into a StringBuilder, without building org.json object trees.
+ * Strings and numbers are written exactly the way org.json writes them, so the output stays
+ * the same as JSONObject.toString().
+ */
+public final class JsonWriter {
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private JsonWriter() {
+  }
+
+  /**
+   * Appends a quoted and escaped string, same as JSONObject.quote().
+   *
+   * @param out   builder to append to
+   * @param value string to quote, null is written as an empty string
+   */
+  public static void quote(StringBuilder out, String value) {
+    out.append('"');
+    if (value == null) {
+      out.append('"');
+      return;
+    }
+    int length = value.length();
+    int start = 0;
+    char previous = 0;
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      String escape = null;
+      switch (c) {
+        case '"':
+          escape = "\\\"";
+          break;
+        case '\\':
+          escape = "\\\\";
+          break;
+        case '/':
+          if (previous == '<') {
+            escape = "\\/";
+          }
+          break;
+        case '\b':
+          escape = "\\b";
+          break;
+        case '\t':
+          escape = "\\t";
+          break;
+        case '\n':
+          escape = "\\n";
+          break;
+        case '\f':
+          escape = "\\f";
+          break;
+        case '\r':
+          escape = "\\r";
+          break;
+        default:
+          if (c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100')) {
+            out.append(value, start, i);
+            out.append("\\u").append(HEX[c >> 12]).append(HEX[(c >> 8) & 0xf])
+                .append(HEX[(c >> 4) & 0xf]).append(HEX[c & 0xf]);
+            start = i + 1;
+          }
+      }
+      if (escape != null) {
+        out.append(value, start, i).append(escape);
+        start = i + 1;
+      }
+      previous = c;
+    }
+    out.append(value, start, length).append('"');
+  }
+
+  /**
+   * Appends a number, same as JSONObject.numberToString().
+   *
+   * @param out   builder to append to
+   * @param value number to write
+   * @throws JSONException if the number is NaN or infinite
+   */
+  public static void number(StringBuilder out, Number value) throws JSONException {
+    if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+      out.append(value.longValue());
+    } else if (value instanceof Double || value instanceof Float) {
+      number(out, value.doubleValue(), value.toString());
+    } else {
+      out.append(JSONObject.numberToString(value));
+    }
+  }
+
+  /**
+   * Appends a double, same as JSONObject.numberToString().
+   *
+   * @param out   builder to append to
+   * @param value number to write
+   * @throws JSONException if the number is NaN or infinite
+   */
+  public static void number(StringBuilder out, double value) throws JSONException {
+    number(out, value, null);
+  }
+
+  /**
+   * Appends any value org.json accepts: strings, numbers, booleans, null, maps, collections,
+   * arrays and JSONString. Other objects are written as their quoted toString().
+   *
+   * @param out   builder to append to
+   * @param value value to write
+   * @throws JSONException if a number is NaN or infinite
+   */
+  public static void value(StringBuilder out, Object value) throws JSONException {
+    if (value == null || JSONObject.NULL.equals(value)) {
+      out.append("null");
+    } else if (value instanceof String) {
+      quote(out, (String) value);
+    } else if (value instanceof Number) {
+      number(out, (Number) value);
+    } else if (value instanceof Boolean) {
+      out.append(((Boolean) value).booleanValue());
+    } else if (value instanceof JSONString || value instanceof JSONObject || value instanceof JSONArray
+        || value instanceof Map || value instanceof Collection || value.getClass().isArray()) {
+      // rare and nested, let org.json handle them
+      String array = new JSONArray().put(value).toString();
+      out.append(array, 1, array.length() - 1);
+    } else {
+      quote(out, value.toString());
+    }
+  }
+
+  private static void number(StringBuilder out, double value, String text) throws JSONException {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      throw new JSONException("JSON does not allow non-finite numbers.");
+    }
+    if (text == null) {
+      text = Double.toString(value);
+    }
+    int end = text.length();
+    if (text.indexOf('.') > 0 && text.indexOf('e') < 0 && text.indexOf('E') < 0) {
+      // strip trailing zeros and a trailing dot, 1.50 -> 1.5, 2.0 -> 2
+      while (text.charAt(end - 1) == '0') {
+        end--;
+      }
+      if (text.charAt(end - 1) == '.') {
+        end--;
+      }
+    }
+    out.append(text, 0, end);
+  }
+}
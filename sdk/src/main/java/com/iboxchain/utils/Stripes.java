@@ -0,0 +1,40 @@
+package com.iboxchain.utils;
+
+/**
+ * Picks the stripe of the calling thread for striped counters, so threads updating the same value
+ * mostly update different cells. A cell is padded to a cache line of its own.
+ */
+public final class Stripes {
+
+  /**
+   * Number of stripes, the power of two at or above twice the number of cpus, at most 64.
+   */
+  public static final int COUNT = count();
+
+  /**
+   * Longs per cache line, a striped long uses the first long of its line.
+   */
+  public static final int PADDING = 8;
+
+  private Stripes() {
+  }
+
+  /**
+   * @return the stripe of the calling thread, between 0 and COUNT - 1
+   */
+  public static int index() {
+    long id = Thread.currentThread().getId();
+    // spread consecutive thread ids over the stripes
+    int hash = (int) (id * 0x9E3779B97F4A7C15L >>> 32);
+    return hash & (COUNT - 1);
+  }
+
+  private static int count() {
+    int cpus = Runtime.getRuntime().availableProcessors();
+    int stripes = 1;
+    while (stripes < cpus * 2 && stripes < 64) {
+      stripes <<= 1;
+    }
+    return stripes;
+  }
+}
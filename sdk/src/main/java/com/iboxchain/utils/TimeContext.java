@@ -0,0 +1,98 @@
+package com.iboxchain.utils;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Hour, day of week and timezone offset of a timestamp, in the default timezone.
+ * <p>
+ * These fields only change at local hour boundaries (or when the default timezone changes), so the
+ * last computed context is cached and reused for every timestamp within its hour. The cache is
+ * recomputed at the next hour boundary, and at least every TIMEZONE_CHECK_MILLIS to pick up a
+ * changed default timezone. Instances are immutable.
+ */
+public final class TimeContext {
+
+  private static final long HOUR_MILLIS = 60 * 60 * 1000;
+  private static final long TIMEZONE_CHECK_MILLIS = 60 * 1000;
+
+  private static volatile TimeContext cached;
+
+  private final long fromMs;
+  private final long untilMs;
+  private final int hour;
+  private final int dayOfWeek;
+  private final int timezoneOffset;
+
+  private TimeContext(long timestampMs) {
+    TimeZone zone = TimeZone.getDefault();
+    Calendar calendar = Calendar.getInstance(zone);
+    calendar.setTimeInMillis(timestampMs);
+    hour = calendar.get(Calendar.HOUR_OF_DAY);
+    dayOfWeek = dayOfWeek(calendar.get(Calendar.DAY_OF_WEEK));
+    timezoneOffset = zone.getOffset(timestampMs) / 60000;
+
+    calendar.set(Calendar.MINUTE, 0);
+    calendar.set(Calendar.SECOND, 0);
+    calendar.set(Calendar.MILLISECOND, 0);
+    fromMs = calendar.getTimeInMillis();
+    untilMs = Math.min(fromMs + HOUR_MILLIS, timestampMs + TIMEZONE_CHECK_MILLIS);
+  }
+
+  /**
+   * @param timestampMs timestamp in milliseconds
+   * @return the time context of the timestamp, usually without any allocation
+   */
+  public static TimeContext of(long timestampMs) {
+    TimeContext context = cached;
+    if (context != null && timestampMs >= context.fromMs && timestampMs < context.untilMs) {
+      return context;
+    }
+    context = new TimeContext(timestampMs);
+    TimeContext current = cached;
+    // do not replace a newer context with one for an old timestamp
+    if (current == null || timestampMs >= current.fromMs) {
+      cached = context;
+    }
+    return context;
+  }
+
+  /**
+   * @return hour of day, 0 - 23
+   */
+  public int getHour() {
+    return hour;
+  }
+
+  /**
+   * @return day of week, 0 for Sunday, 1 for Monday ... 6 for Saturday
+   */
+  public int getDayOfWeek() {
+    return dayOfWeek;
+  }
+
+  /**
+   * @return offset of the timezone in minutes
+   */
+  public int getTimezoneOffset() {
+    return timezoneOffset;
+  }
+
+  private static int dayOfWeek(int day) {
+    switch (day) {
+      case Calendar.MONDAY:
+        return 1;
+      case Calendar.TUESDAY:
+        return 2;
+      case Calendar.WEDNESDAY:
+        return 3;
+      case Calendar.THURSDAY:
+        return 4;
+      case Calendar.FRIDAY:
+        return 5;
+      case Calendar.SATURDAY:
+        return 6;
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,71 @@
+package com.iboxchain;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+
+  private final ManualTicker ticker = new ManualTicker();
+  private final CircuitBreaker breaker = new CircuitBreaker(3, 1000, ticker);
+
+  @Test
+  public void opensAfterConsecutiveFailures() {
+    breaker.onResult(new IOException());
+    breaker.onResult(new IOException());
+    // a response in between resets the count
+    breaker.onResult(null);
+    breaker.onResult(new IOException());
+    breaker.onResult(new IOException());
+    assertFalse(breaker.isOpen());
+    assertTrue(breaker.allowRequest());
+
+    breaker.onResult(new IOException());
+    assertTrue(breaker.isOpen());
+    assertFalse(breaker.allowRequest());
+    assertEquals(TimeUnit.SECONDS.toNanos(1), breaker.remainingNanos(ticker.nanoTime()));
+  }
+
+  @Test
+  public void letsOneProbeThroughOnceOpenTimePassed() {
+    open();
+    ticker.advance(999);
+    assertFalse(breaker.allowRequest());
+    ticker.advance(1);
+    assertEquals(0, breaker.remainingNanos(ticker.nanoTime()));
+    assertTrue(breaker.allowRequest());
+    assertFalse(breaker.allowRequest());
+
+    // a failed probe opens the circuit for another openMillis
+    breaker.onResult(new IOException());
+    assertTrue(breaker.isOpen());
+    assertFalse(breaker.allowRequest());
+    ticker.advance(1000);
+    assertTrue(breaker.allowRequest());
+
+    // a successful probe closes it
+    breaker.onResult(null);
+    assertFalse(breaker.isOpen());
+    assertTrue(breaker.allowRequest());
+    assertTrue(breaker.allowRequest());
+  }
+
+  @Test
+  public void rejectedRequestsCountAsAnswers() {
+    open();
+    ticker.advance(1000);
+    assertTrue(breaker.allowRequest());
+    breaker.onResult(new IllegalArgumentException("not retriable"));
+    assertFalse(breaker.isOpen());
+  }
+
+  private void open() {
+    for (int i = 0; i < 3; i++) {
+      breaker.onResult(new IOException());
+    }
+    assertTrue(breaker.isOpen());
+  }
+}
@@ -0,0 +1,140 @@
+package com.iboxchain;
+
+import com.iboxchain.metrics.Metrics;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class EventAggregatorTest {
+
+  private final List<Event> emitted = new CopyOnWriteArrayList<Event>();
+  private final Metrics metrics = new Metrics();
+  private final EventAggregator aggregator = new EventAggregator(60000, new EventAggregator.Sink() {
+    @Override
+    public void emit(Event event) {
+      emitted.add(event);
+    }
+  }, metrics);
+
+  @After
+  public void tearDown() {
+    aggregator.close();
+  }
+
+  @Test
+  public void foldsEqualEventsOfManyThreads() throws Exception {
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 1000; i++) {
+            // a new but equal segmentation every time
+            add(null, "click", Collections.<String, Object>singletonMap("city", "Istanbul"), null, 1, 2, 0.5);
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    add(null, "click", Collections.<String, Object>singletonMap("city", "Ankara"), null, 3, 1, 0);
+    add("user-1", "click", Collections.<String, Object>singletonMap("city", "Istanbul"), null, 1, 0, 0);
+    aggregator.flush();
+
+    assertEquals(3, emitted.size());
+    for (Event event : emitted) {
+      if (event.getDeviceId() != null) {
+        assertEquals(1, event.getCount());
+      } else if (event.getSegmentation().get("city").equals("Istanbul")) {
+        assertEquals(4000, event.getCount());
+        assertEquals(8000, event.getSum(), 0);
+        assertEquals(2000, event.getDur(), 0);
+      } else {
+        assertEquals(3, event.getCount());
+        assertEquals(1, event.getSum(), 0);
+      }
+    }
+  }
+
+  @Test
+  public void emitsEveryWindowOnce() {
+    aggregator.flush();
+    assertEquals(0, emitted.size());
+    add(null, "view", null, null, 1, 0, 0);
+    aggregator.flush();
+    aggregator.flush();
+    assertEquals(1, emitted.size());
+    add(null, "view", null, null, 1, 0, 0);
+    aggregator.close();
+    assertEquals(2, emitted.size());
+  }
+
+  @Test
+  public void countsFoldedEvents() {
+    add(null, "view", null, null, 1, 0, 0);
+    add(null, "view", null, null, 5, 0, 0);
+    add(null, "view", null, null, 1, 0, 0);
+    add(null, "click", null, null, 1, 0, 0);
+    aggregator.flush();
+
+    assertEquals(2, emitted.size());
+    assertEquals(2, metrics.snapshot().getEventsAggregated());
+  }
+
+  @Test
+  public void refusesEventsAfterClose() {
+    assertTrue(add(null, "view", null, null, 1, 0, 0));
+    aggregator.close();
+    assertFalse(add(null, "view", null, null, 1, 0, 0));
+    aggregator.flush();
+    assertEquals(1, emitted.size());
+    assertEquals(1, emitted.get(0).getCount());
+  }
+
+  @Test
+  public void splitsCountsBeyondAnInt() {
+    add(null, "view", null, null, Integer.MAX_VALUE, 1, 0);
+    add(null, "view", null, null, Integer.MAX_VALUE, 1, 0);
+    add(null, "view", null, null, 2, 1, 0);
+    aggregator.flush();
+
+    assertEquals(3, emitted.size());
+    assertEquals(Integer.MAX_VALUE, emitted.get(0).getCount());
+    assertEquals(3, emitted.get(0).getSum(), 0);
+    assertEquals(Integer.MAX_VALUE, emitted.get(1).getCount());
+    assertEquals(0, emitted.get(1).getSum(), 0);
+    assertEquals(2, emitted.get(2).getCount());
+    // three adds sent as three events
+    assertEquals(0, metrics.snapshot().getEventsAggregated());
+  }
+
+  @Test
+  public void comparesSegmentsByValue() {
+    add(null, "purchase", null, segments("TR"), 1, 0, 0);
+    add(null, "purchase", null, segments("TR"), 1, 0, 0);
+    add(null, "purchase", null, segments("DE"), 1, 0, 0);
+    aggregator.flush();
+
+    assertEquals(2, emitted.size());
+    assertEquals(3, emitted.get(0).getCount() + emitted.get(1).getCount());
+  }
+
+  private boolean add(String deviceId, String key, Map<String, Object> segmentation, Segments segments, int count,
+                      double sum, double dur) {
+    return aggregator.add(null, deviceId, key, segmentation, segments, null, count, sum, dur);
+  }
+
+  private static Segments segments(String country) {
+    Segments segments = new Segments();
+    segments.putString("country", country);
+    return segments;
+  }
+}
@@ -0,0 +1,121 @@
+package com.iboxchain;
+
+import com.iboxchain.metrics.Metrics;
+import com.iboxchain.metrics.MetricsSnapshot;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class EventLimiterTest {
+
+  private final Metrics metrics = new Metrics();
+  private final ManualTicker ticker = new ManualTicker();
+
+  @Test
+  public void samplingKeepsTheRateAndScalesUp() {
+    EventLimiter limiter = new EventLimiter(metrics, ticker, cycle(0.1, 0.3, 0.6, 0.9));
+    limiter.setSampling("sampled", 0.25);
+    int kept = 0;
+    for (int i = 0; i < 4000; i++) {
+      double scale = limiter.admit("sampled");
+      if (scale > 0) {
+        kept++;
+        assertEquals(4, scale, 0);
+      }
+    }
+    assertEquals(1000, kept);
+    assertEquals(1, limiter.admit("other"), 0);
+
+    MetricsSnapshot snapshot = metrics.snapshot();
+    assertEquals(3000, snapshot.getEventsSampledOut());
+    assertEquals(Long.valueOf(3000), snapshot.getEventsLimitedByKey().get("sampled"));
+  }
+
+  @Test
+  public void rateOfAllKeysAppliesToKeysWithoutARate() {
+    EventLimiter limiter = new EventLimiter(metrics, ticker, cycle(0.2, 0.7));
+    limiter.setSampling(null, 0.5);
+    limiter.setSampling("never", 0);
+    assertEquals(2, limiter.admit("a"), 0);
+    assertEquals(0, limiter.admit("b"), 0);
+    assertEquals(0, limiter.admit("never"), 0);
+
+    MetricsSnapshot snapshot = metrics.snapshot();
+    assertEquals(2, snapshot.getEventsSampledOut());
+    assertNull(snapshot.getEventsLimitedByKey().get("b"));
+    assertEquals(Long.valueOf(1), snapshot.getEventsLimitedByKey().get("never"));
+  }
+
+  @Test
+  public void scaleRoundsAtRandom() {
+    assertEquals(5, new EventLimiter(metrics, ticker, cycle(0.4)).scale(3, 1.5));
+    assertEquals(4, new EventLimiter(metrics, ticker, cycle(0.6)).scale(3, 1.5));
+    assertEquals(Integer.MAX_VALUE, new EventLimiter(metrics, ticker, cycle(0.5)).scale(Integer.MAX_VALUE, 2));
+  }
+
+  @Test
+  public void tokenBucketAdmitsBurstThenRate() {
+    EventLimiter limiter = new EventLimiter(metrics, ticker, null);
+    limiter.setRateLimit("limited", 10, 3);
+    assertAdmitted(limiter, "limited", 3);
+    ticker.advance(100);
+    assertAdmitted(limiter, "limited", 1);
+    // a long pause refills the bucket up to the burst only
+    ticker.advance(10000);
+    assertAdmitted(limiter, "limited", 3);
+
+    assertEquals(3, metrics.snapshot().getEventsRateLimited());
+    assertEquals(Long.valueOf(3), metrics.snapshot().getEventsLimitedByKey().get("limited"));
+  }
+
+  @Test
+  public void limitOfAllEventsAppliesAfterTheLimitOfTheKey() {
+    EventLimiter limiter = new EventLimiter(metrics, ticker, null);
+    limiter.setRateLimit(null, 1, 2);
+    limiter.setRateLimit("limited", 1, 1);
+    assertEquals(1, limiter.admit("limited"), 0);
+    assertEquals(0, limiter.admit("limited"), 0);
+    assertEquals(1, limiter.admit("other"), 0);
+    assertEquals(0, limiter.admit("other"), 0);
+
+    assertEquals(2, metrics.snapshot().getEventsRateLimited());
+    assertNull(metrics.snapshot().getEventsLimitedByKey().get("other"));
+  }
+
+  @Test
+  public void removedLimitAdmitsAgain() {
+    EventLimiter limiter = new EventLimiter(metrics, ticker, null);
+    limiter.setRateLimit("limited", 1, 1);
+    assertAdmitted(limiter, "limited", 1);
+    limiter.setRateLimit("limited", 0, 0);
+    for (int i = 0; i < 10; i++) {
+      assertEquals(1, limiter.admit("limited"), 0);
+    }
+  }
+
+  /**
+   * Asserts that exactly the given number of events is admitted now.
+   */
+  private static void assertAdmitted(EventLimiter limiter, String key, int events) {
+    for (int i = 0; i < events; i++) {
+      assertEquals(1, limiter.admit(key), 0);
+    }
+    assertEquals(0, limiter.admit(key), 0);
+  }
+
+  /**
+   * @return random returning the given values in turn
+   */
+  private static Random cycle(final double... values) {
+    return new Random() {
+      private int next;
+
+      @Override
+      public double nextDouble() {
+        return values[next++ % values.length];
+      }
+    };
+  }
+}
@@ -0,0 +1,20 @@
+package com.iboxchain;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ticker that only moves when the test advances it.
+ */
+class ManualTicker implements Ticker {
+
+  private long nanos = 1000;
+
+  @Override
+  public long nanoTime() {
+    return nanos;
+  }
+
+  void advance(long millis) {
+    nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+}
@@ -0,0 +1,61 @@
+package com.iboxchain;
+
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RetryPolicyTest {
+
+  @Test
+  public void retriesNetworkErrorsOnly() {
+    assertTrue(RetryPolicy.isRetriable(new IOException()));
+    assertTrue(RetryPolicy.isRetriable(new SocketTimeoutException()));
+    assertFalse(RetryPolicy.isRetriable(new IllegalStateException()));
+    assertEquals(0, RetryPolicy.statusOf(new IOException()));
+  }
+
+  @Test
+  public void localIoErrorsArePermanent() {
+    // a missing picturePath or charset fails the same way on every attempt
+    assertFalse(RetryPolicy.isRetriable(new FileNotFoundException("/tmp/missing.png")));
+    assertFalse(RetryPolicy.isRetriable(new UnsupportedEncodingException("UTF-9")));
+  }
+
+  @Test
+  public void limitsAttempts() {
+    RetryPolicy policy = new RetryPolicy(3, 100, 1000);
+    assertTrue(policy.canRetry(1));
+    assertTrue(policy.canRetry(2));
+    assertFalse(policy.canRetry(3));
+  }
+
+  @Test
+  public void backoffDoublesUpToTheMaxDelay() {
+    RetryPolicy shortest = new RetryPolicy(10, 100, 1000, fixed(0));
+    RetryPolicy longest = new RetryPolicy(10, 100, 1000, fixed(1));
+    long[] delaysMillis = {100, 200, 400, 800, 1000, 1000};
+    for (int i = 0; i < delaysMillis.length; i++) {
+      long delay = TimeUnit.MILLISECONDS.toNanos(delaysMillis[i]);
+      // randomized into the upper half of the delay
+      assertEquals(delay / 2, shortest.delayNanos(i + 1));
+      assertEquals(delay, longest.delayNanos(i + 1));
+    }
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), longest.delayNanos(Integer.MAX_VALUE));
+  }
+
+  private static Random fixed(final double value) {
+    return new Random() {
+      @Override
+      public double nextDouble() {
+        return value;
+      }
+    };
+  }
+}
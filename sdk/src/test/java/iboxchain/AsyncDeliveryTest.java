@@ -0,0 +1,173 @@
+package iboxchain;
+
+import com.iboxchain.Config;
+import com.iboxchain.metrics.MetricsSnapshot;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class AsyncDeliveryTest extends ServerTestSupport {
+
+  @Test
+  public void asyncSendsEachEvent() throws Exception {
+    countly.setAsyncEnabled(true);
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    countly.recordEvent("event1");
+    countly.recordEvent("event2");
+    assertTrue(countly.flush(5000));
+
+    assertEquals(2, server.requests.size());
+    assertEquals(2, server.countEvents());
+  }
+
+  @Test
+  public void batchesEventsIntoOneRequest() throws Exception {
+    countly.setBatchSize(10, 64 * 1024, 60000);
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    for (int i = 0; i < 25; i++) {
+      countly.recordEvent("event" + i);
+    }
+    assertTrue(countly.flush(5000));
+
+    assertEquals(3, server.requests.size());
+    assertEquals(25, server.countEvents());
+  }
+
+  @Test
+  public void batchesAreSplitBySize() throws Exception {
+    countly.setBatchSize(100, 400, 60000);
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    for (int i = 0; i < 10; i++) {
+      countly.recordEvent("event" + i);
+    }
+    assertTrue(countly.flush(5000));
+
+    assertTrue(server.requests.size() > 1);
+    assertEquals(10, server.countEvents());
+  }
+
+  @Test
+  public void lingerSendsPartialBatch() throws Exception {
+    countly.setBatchSize(100, 64 * 1024, 50);
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    countly.recordEvent("event1");
+    assertTrue(server.awaitRequests(1, 5000));
+    assertEquals(1, server.countEvents());
+  }
+
+  @Test
+  public void initAgainDeliversQueuedEventsWithThePreviousSettings() throws Exception {
+    TestServer other = new TestServer();
+    try {
+      countly.setBatchSize(10, 64 * 1024, 60000);
+      countly.init(server.url(), "appkey1", Config.TYPE_HTTP_CONSUMER);
+      for (int i = 0; i < 3; i++) {
+        countly.recordEvent("event" + i);
+      }
+      countly.setChecksum(Config.CHECKSUM_SHA256, "salt2");
+      countly.init(other.url(), "appkey2", Config.TYPE_HTTP_CONSUMER);
+      countly.recordEvent("event3");
+      assertTrue(countly.flush(5000));
+
+      // the batch of the first init went to its server, signed with its checksum
+      assertTrue(server.awaitRequests(1, 5000));
+      assertEquals(3, server.countEvents());
+      assertEquals("appkey1", TestServer.param(server.requests.get(0), "app_key"));
+      TestServer.assertChecksum(server.requests.get(0));
+      assertEquals(1, other.countEvents());
+      assertEquals("appkey2", TestServer.param(other.requests.get(0), "app_key"));
+    } finally {
+      other.stop();
+    }
+  }
+
+  @Test
+  public void pooledEventsAreDeliveredFromTheRing() throws Exception {
+    countly.setPooledEvents(true);
+    countly.setQueueCapacity(4);
+    countly.setOverflowPolicy(Config.OVERFLOW_BLOCK, 5000);
+    countly.setBatchSize(50, 64 * 1024, 60000);
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final Map<String, Object> segmentation = Collections.<String, Object>singletonMap("thread", t);
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 50; i++) {
+            countly.recordEvent("pooled", segmentation, i, 0.5);
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue(countly.flush(5000));
+    MetricsSnapshot metrics = countly.getMetrics();
+
+    assertEquals(200, metrics.getEventsSent());
+    assertEquals(0, metrics.getEventsDropped());
+    assertEquals(200, server.countEvents());
+    // every thread recorded the counts 0 to 49 once
+    int[] counts = new int[4];
+    for (String request : server.requests) {
+      String events = TestServer.param(request, "events");
+      if (events == null) {
+        continue;
+      }
+      JSONArray array = new JSONArray(events);
+      for (int i = 0; i < array.length(); i++) {
+        JSONObject event = array.getJSONObject(i);
+        assertEquals("pooled", event.getString("key"));
+        assertEquals(0.5, event.getDouble("sum"), 0);
+        counts[event.getJSONObject("segmentation").getInt("thread")] += event.getInt("count");
+      }
+    }
+    for (int count : counts) {
+      assertEquals(49 * 50 / 2, count);
+    }
+  }
+
+  @Test
+  public void builtEventsAreCopiedIntoTheRing() throws Exception {
+    countly.setPooledEvents(true);
+    countly.setQueueCapacity(4);
+    countly.setOverflowPolicy(Config.OVERFLOW_BLOCK, 5000);
+    countly.setBatchSize(50, 64 * 1024, 60000);
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      final int thread = t;
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 50; i++) {
+            // the builder and its segments are reused for every event of the thread
+            countly.event("built").segment("thread", thread).segment("i", i).count(i + 1).record();
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue(countly.flush(5000));
+
+    assertEquals(200, server.countEvents());
+    for (String request : server.requests) {
+      JSONArray array = new JSONArray(TestServer.param(request, "events"));
+      for (int i = 0; i < array.length(); i++) {
+        JSONObject event = array.getJSONObject(i);
+        assertEquals(event.getInt("count"), event.getJSONObject("segmentation").getInt("i") + 1);
+      }
+    }
+  }
+}
@@ -0,0 +1,69 @@
+package iboxchain;
+
+import com.iboxchain.utils.BoundedQueue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class BoundedQueueTest {
+
+  @Test
+  public void offerAndPoll() {
+    BoundedQueue<Integer> queue = new BoundedQueue<Integer>(3);
+    assertEquals(4, queue.capacity());
+    assertTrue(queue.isEmpty());
+    for (int i = 0; i < 4; i++) {
+      assertTrue(queue.offer(i));
+    }
+    assertFalse(queue.offer(4));
+    assertEquals(4, queue.size());
+    assertEquals(Integer.valueOf(0), queue.poll());
+    assertTrue(queue.offer(4));
+
+    List<Integer> drained = new ArrayList<Integer>();
+    assertEquals(4, queue.drainTo(drained, 10));
+    assertEquals(Integer.valueOf(1), drained.get(0));
+    assertEquals(Integer.valueOf(4), drained.get(3));
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void concurrentProducers() throws InterruptedException {
+    final int producers = 4;
+    final int perProducer = 20000;
+    final BoundedQueue<Integer> queue = new BoundedQueue<Integer>(1024);
+    final CountDownLatch done = new CountDownLatch(producers);
+    for (int p = 0; p < producers; p++) {
+      final int base = p * perProducer;
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < perProducer; i++) {
+            while (!queue.offer(base + i)) {
+              Thread.yield();
+            }
+          }
+          done.countDown();
+        }
+      }).start();
+    }
+
+    Set<Integer> seen = new HashSet<Integer>();
+    while (seen.size() < producers * perProducer) {
+      Integer value = queue.poll();
+      if (value == null) {
+        Thread.yield();
+      } else {
+        assertTrue(seen.add(value));
+      }
+    }
+    done.await();
+    assertTrue(queue.isEmpty());
+  }
+}
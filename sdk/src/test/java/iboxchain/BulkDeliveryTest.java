@@ -0,0 +1,90 @@
+package iboxchain;
+
+import com.iboxchain.Config;
+import com.iboxchain.UserData;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BulkDeliveryTest extends ServerTestSupport {
+
+  @Test
+  public void eventsOfManyDevicesGoOutAsOneBulkRequest() throws Exception {
+    countly.setBatchSize(100, 64 * 1024, 60000);
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    countly.recordEvent("user-1", "event1", null, 1, 0, 0);
+    countly.recordEvent("user-2", "event1", null, 1, 0, 0);
+    countly.recordEvent("user-1", "event2", null, 1, 0, 0);
+    countly.recordEvent("appkey2", "user-1", "event1", null, 1, 0, 0);
+    countly.recordEvent("event1");
+    assertTrue(countly.flush(5000));
+
+    assertEquals(1, server.requests.size());
+    String request = server.requests.get(0);
+    TestServer.assertChecksum(request);
+    JSONArray bulk = new JSONArray(TestServer.param(request, "requests"));
+    assertEquals(4, bulk.length());
+    assertRequest(bulk.getJSONObject(0), "appkey", "user-1", 2);
+    assertRequest(bulk.getJSONObject(1), "appkey", "user-2", 1);
+    assertRequest(bulk.getJSONObject(2), "appkey2", "user-1", 1);
+    // the event of the instance's own, random device id
+    assertRequest(bulk.getJSONObject(3), "appkey", bulk.getJSONObject(3).getString("device_id"), 1);
+    assertFalse(bulk.getJSONObject(3).getString("device_id").startsWith("user-"));
+  }
+
+  @Test
+  public void bulkModePacksUserDataWithEvents() throws Exception {
+    countly.setBulkEnabled(true);
+    countly.setBatchSize(100, 64 * 1024, 60000);
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    countly.recordEvent("user-1", "event1", null, 1, 0, 0);
+    countly.sendUserData(null, "user-1", UserData.builder().name("User One").build());
+    countly.recordEvent("user-2", "event1", null, 1, 0, 0);
+    assertTrue(countly.flush(5000));
+
+    assertEquals(1, server.requests.size());
+    JSONArray bulk = new JSONArray(TestServer.param(server.requests.get(0), "requests"));
+    assertEquals(3, bulk.length());
+    assertEquals("user-1", bulk.getJSONObject(0).getString("device_id"));
+    assertEquals("User One", bulk.getJSONObject(0).getJSONObject("user_details").getString("name"));
+    assertRequest(bulk.getJSONObject(1), "appkey", "user-1", 1);
+    assertRequest(bulk.getJSONObject(2), "appkey", "user-2", 1);
+  }
+
+  @Test
+  public void bulkRequestsAreSplitByRequestCount() throws Exception {
+    countly.setBulkEnabled(true);
+    countly.setBulkSize(2, 1024 * 1024);
+    countly.setBatchSize(100, 64 * 1024, 60000);
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    for (int i = 0; i < 5; i++) {
+      countly.recordEvent("user-" + i, "event1", null, 1, 0, 0);
+      countly.recordEvent("user-" + i, "event2", null, 1, 0, 0);
+    }
+    assertTrue(countly.flush(5000));
+
+    // two devices per bulk request, the last device alone goes out as a normal request
+    assertEquals(3, server.requests.size());
+    int events = server.countEvents();
+    for (String request : server.requests) {
+      String bulk = TestServer.param(request, "requests");
+      if (bulk != null) {
+        JSONArray objects = new JSONArray(bulk);
+        assertEquals(2, objects.length());
+        for (int i = 0; i < objects.length(); i++) {
+          events += objects.getJSONObject(i).getJSONArray("events").length();
+        }
+      }
+    }
+    assertEquals(10, events);
+  }
+
+  private static void assertRequest(JSONObject request, String appKey, String deviceId, int events) throws Exception {
+    assertEquals(appKey, request.getString("app_key"));
+    assertEquals(deviceId, request.getString("device_id"));
+    assertEquals(Config.SDK_NAME, request.getString("sdk_name"));
+    assertEquals(events, request.getJSONArray("events").length());
+  }
+}
@@ -13,17 +13,16 @@ import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
-import org.mockito.invocation.InvocationOnMock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.mockito.junit.MockitoRule;
-import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
@@ -36,8 +35,6 @@ public class CountlyApITest {
   Countly countly;
   @Mock
   HttpConsumer httpConsumer;
-  @Mock
-  ConcurrentHashMap<String, Object> superProperties = new ConcurrentHashMap<String, Object>();
   @Rule
   public MockitoRule mockitoRule = MockitoJUnit.rule();
 
@@ -46,6 +43,7 @@ public class CountlyApITest {
     Config.SERVER_URL = "https://serverUrl";
     Config.APP_KEY = "appkey";
     Config.CONSUMER_TYPE = Config.TYPE_HTTP_CONSUMER;
+    Config.HTTP_METHOD = Config.HTTP_METHOD_GET;
   }
 
   @Test
@@ -88,7 +86,7 @@ public class CountlyApITest {
   }
 
   @Test
-  public void sendUserData() {
+  public void sendUserData() throws IOException {
     final HashMap<String, String> data = new HashMap<String, String>();
     data.put("name", "First name Last name");
     data.put("username", "nickname");
@@ -100,29 +98,21 @@ public class CountlyApITest {
     data.put("picture", "http://example.com/pictures/profile_pic.png");
     data.put("byear", "1987");
 
-    when(countly.sendUserData(data)).then(
-        new Answer() {
-          @Override
-          public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
-            String userData = UserData.toJSON().toString();
-            assert (userData.contains("\"name\":\"First name Last name\""));
-            assert (userData.contains("\"username\":\"nickname\""));
-            assert (userData.contains("\"email\":\"test@test.com\""));
-            assert (userData.contains("\"organization\":\"Tester\""));
-            assert (userData.contains("\"phone\":\"+123456789\""));
-            assert (userData.contains("\"gender\":\"M\""));
-            assert (userData.contains("\"picture\":\"http://example.com/pictures/profile_pic.png\""));
-            assert (userData.contains("\"byear\":1987"));
-            assert (userData.contains("\"custom\":{}"));
-            return null;
-          }
-        }
-    );
     countly.sendUserData(data);
+    String userData = capturedUserData();
+    assert (userData.contains("\"name\":\"First name Last name\""));
+    assert (userData.contains("\"username\":\"nickname\""));
+    assert (userData.contains("\"email\":\"test@test.com\""));
+    assert (userData.contains("\"organization\":\"Tester\""));
+    assert (userData.contains("\"phone\":\"+123456789\""));
+    assert (userData.contains("\"gender\":\"M\""));
+    assert (userData.contains("\"picture\":\"http://example.com/pictures/profile_pic.png\""));
+    assert (userData.contains("\"byear\":1987"));
+    assert (userData.contains("\"custom\":{}"));
   }
 
   @Test
-  public void sendCustomUserData() {
+  public void sendCustomUserData() throws IOException {
     final HashMap<String, String> data = new HashMap<String, String>();
     data.put("name", "First name Last name");
     data.put("username", "nickname");
@@ -140,65 +130,104 @@ public class CountlyApITest {
     custom.put("city", "Istanbul");
     custom.put("address", "My house 11");
 
-    when(countly.sendUserData(data, custom)).then(
-        new Answer() {
-          @Override
-          public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
-            String userData = UserData.toJSON().toString();
-            assert (userData.contains("\"name\":\"First name Last name\""));
-            assert (userData.contains("\"username\":\"nickname\""));
-            assert (userData.contains("\"email\":\"test@test.com\""));
-            assert (userData.contains("\"organization\":\"Tester\""));
-            assert (userData.contains("\"phone\":\"+123456789\""));
-            assert (userData.contains("\"gender\":\"M\""));
-            assert (userData.contains("\"picture\":\"http://example.com/pictures/profile_pic.png\""));
-            assert (userData.contains("\"byear\":1987"));
-            assert (userData.contains("\"custom\":{\"country\":\"Turkey\",\"address\":\"My house 11\",\"city\":\"Istanbul\"}"));
-            return null;
-          }
-        }
-    );
     countly.sendUserData(data, custom);
+    String userData = capturedUserData();
+    assert (userData.contains("\"name\":\"First name Last name\""));
+    assert (userData.contains("\"username\":\"nickname\""));
+    assert (userData.contains("\"email\":\"test@test.com\""));
+    assert (userData.contains("\"organization\":\"Tester\""));
+    assert (userData.contains("\"phone\":\"+123456789\""));
+    assert (userData.contains("\"gender\":\"M\""));
+    assert (userData.contains("\"picture\":\"http://example.com/pictures/profile_pic.png\""));
+    assert (userData.contains("\"byear\":1987"));
+    assert (userData.contains("\"custom\":{\"country\":\"Turkey\",\"address\":\"My house 11\",\"city\":\"Istanbul\"}"));
+  }
+
+  @Test
+  public void sendUserDataBuilder() throws IOException {
+    UserData userData = UserData.builder()
+        .name("First name Last name")
+        .email("")
+        .byear(1987)
+        .customProperty("country", "Turkey")
+        .build();
+    countly.sendUserData(userData);
+    String sent = capturedUserData();
+    assert (sent.contains("\"name\":\"First name Last name\""));
+    assert (sent.contains("\"email\":null"));
+    assert (sent.contains("\"byear\":1987"));
+    assert (sent.contains("\"custom\":{\"country\":\"Turkey\"}"));
   }
 
   @Test
-  public void sendNullUserData() {
-    when(countly.sendUserData(null, null)).then(
-        new Answer() {
-          @Override
-          public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
-            String userData = UserData.toJSON().toString();
-            assert (userData.equals("{\"custom\":{}}"));
-            return null;
-          }
-        }
-    );
+  public void sendNullUserData() throws IOException {
     countly.sendUserData(null, null);
+    // nothing was set, so no user details are sent
+    verify(httpConsumer).prepareRequestData(eq(""), eq(Config.TYPE_SEND_USER_DATA));
+    assert (UserData.of(null, null).toJSON().toString().equals("{\"custom\":{}}"));
   }
 
   @Test
-  public void registerSuperProperties() {
+  @SuppressWarnings("deprecation")
+  public void sendUserDataSetWithDeprecatedSetters() throws IOException {
+    UserData.setCustomProperty("country", "Turkey");
+    countly.sendUserData(Collections.singletonMap("name", "First name Last name"), null);
+    String userData = capturedUserData();
+    assert (userData.contains("\"name\":\"First name Last name\""));
+    assert (userData.contains("\"custom\":{\"country\":\"Turkey\"}"));
+
+    // sent data is cleared
+    countly.sendUserData(Collections.singletonMap("name", "Other"), null);
+    assert (capturedUserData().contains("\"custom\":{}"));
+  }
+
+  @Test
+  public void registerSuperProperties() throws IOException {
     HashMap<String, Object> map = new HashMap<String, Object>();
     map.put("ip", "127.0.0.1");
     map.put("port", "1080");
     countly.registerSuperProperties(map);
 
-    verify(superProperties, times(1)).put("ip", "127.0.0.1");
-    verify(superProperties, times(1)).put("port", "1080");
+    Map<String, Object> segmentation = new HashMap<String, Object>();
+    segmentation.put("port", "80");
+    segmentation.put("country", "Turkey");
+    countly.recordEvent("event1", segmentation, 1);
+    String events = capturedEvents();
+    assert (events.contains("\"ip\":\"127.0.0.1\""));
+    assert (events.contains("\"port\":\"1080\""));
+    assert (events.contains("\"country\":\"Turkey\""));
+    // the caller's map is left alone
+    assert (segmentation.size() == 2 && "80".equals(segmentation.get("port")));
+
+    // no segmentation at all
+    countly.recordEvent("event2", null, 1);
+    assert (capturedEvents().contains("\"ip\":\"127.0.0.1\""));
   }
 
   @Test
-  public void clearSuperProperties() {
+  public void clearSuperProperties() throws IOException {
     HashMap<String, Object> map = new HashMap<String, Object>();
     map.put("ip", "127.0.0.1");
     map.put("port", "1080");
     countly.registerSuperProperties(map);
+    countly.clearSuperProperties();
 
-    verify(superProperties, times(1)).put("ip", "127.0.0.1");
-    verify(superProperties, times(1)).put("port", "1080");
+    countly.recordEvent("event1", null, 1);
+    assert (capturedEvents().contains("\"segmentation\":{}"));
+  }
 
-    countly.clearSuperProperties();
-    verify(superProperties, times(1)).clear();
+  private String capturedUserData() throws IOException {
+    ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+    verify(httpConsumer, atLeastOnce()).prepareRequestData(captor.capture(), eq(Config.TYPE_SEND_USER_DATA));
+    String data = captor.getValue();
+    assert (data.startsWith("&user_details="));
+    return URLDecoder.decode(data.substring("&user_details=".length()), "UTF-8");
+  }
+
+  private String capturedEvents() throws IOException {
+    ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+    verify(httpConsumer, atLeastOnce()).prepareRequestData(captor.capture(), eq(Config.TYPE_SEND_EVENT));
+    return captor.getValue();
   }
 
   @Test
@@ -231,4 +260,14 @@ public class CountlyApITest {
     assert (requestData.contains("\"param3\":3.1"));
 
   }
+
+  @Test
+  public void prepareRequestDataEncoding() throws UnsupportedEncodingException {
+    String events = "[{\"key\":\"a b&c=d+e/f\u00e9\u4e2d\ud83d\ude00\ud800*._-~\"}]";
+    HttpConsumer consumer = new HttpConsumer(null);
+
+    String requestData = consumer.prepareRequestData(events, Config.TYPE_SEND_EVENT);
+    String expected = "&events=" + java.net.URLEncoder.encode(events, "UTF-8") + "&device_id=";
+    assert (requestData.contains(expected));
+  }
 }
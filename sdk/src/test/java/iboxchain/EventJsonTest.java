@@ -0,0 +1,142 @@
+package iboxchain;
+
+import com.iboxchain.Event;
+import com.iboxchain.utils.JsonWriter;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class EventJsonTest {
+
+  @Test
+  public void sameJSONAsToJSON() throws JSONException {
+    Event event = new Event("event1");
+    event.setCount(3);
+    event.setSum(7);
+    assertSameJSON(event);
+
+    event.setDur(1.5);
+    event.setSegmentation(Collections.<String, Object>singletonMap("country", "Turkey"));
+    assertSameJSON(event);
+
+    Map<String, Object> segmentation = new HashMap<String, Object>();
+    segmentation.put("missing", null);
+    event.setSegmentation(segmentation);
+    event.setDur(2.0);
+    assertSameJSON(event);
+  }
+
+  @Test
+  public void writesFieldsInFixedOrder() throws JSONException {
+    Event event = new Event("event1");
+    event.setCount(3);
+    event.setSum(7.5);
+    event.setDur(1.5);
+    event.setTimestamp(1000);
+    event.setHour(5);
+    event.setDow(2);
+    event.setSegmentation(Collections.<String, Object>singletonMap("country", "Turkey"));
+    assertEquals("{\"key\":\"event1\",\"count\":3,\"sum\":7.5,\"dur\":1.5,\"timestamp\":1000,\"hour\":5,\"dow\":2,"
+        + "\"segmentation\":{\"country\":\"Turkey\"}}", write(event));
+  }
+
+  @Test
+  public void keepsFractionalSum() throws JSONException {
+    Event event = new Event("purchase");
+    event.setSum(19.99);
+    assertSameJSON(event);
+    assertEquals(19.99, new JSONObject(write(event)).getDouble("sum"), 0);
+  }
+
+  @Test
+  public void mergesSuperProperties() throws JSONException {
+    Event event = new Event("event1");
+    event.setSuperProperties(Collections.<String, Object>singletonMap("ip", "127.0.0.1"));
+    assertSameJSON(event);
+
+    // super properties override segmentation entries with the same key
+    event.setSegmentation(Collections.<String, Object>singletonMap("ip", "10.0.0.1"));
+    assertSameJSON(event);
+    assertEquals("127.0.0.1", new JSONObject(write(event)).getJSONObject("segmentation").getString("ip"));
+  }
+
+  @Test
+  public void segmentationValues() throws JSONException {
+    Event event = new Event("event1");
+    Object[] values = {"中文", 1, 2L, 1.25, 3.0f, true, new BigDecimal("1.500"),
+        Arrays.asList(1, "a"), Collections.singletonMap("k", "v"), new int[]{1, 2}, new StringBuilder("sb")};
+    for (Object value : values) {
+      event.setSegmentation(Collections.<String, Object>singletonMap("value", value));
+      assertSameJSON(event);
+    }
+  }
+
+  @Test
+  public void escaping() {
+    String[] strings = {"", "plain", "quote\"back\\slash", "</script>", "a/b", "\b\t\n\f\r",
+        "\u0001\u001f", "\u0085", "  ", "中文😀"};
+    for (String string : strings) {
+      StringBuilder out = new StringBuilder();
+      JsonWriter.quote(out, string);
+      assertEquals(JSONObject.quote(string), out.toString());
+    }
+    StringBuilder out = new StringBuilder();
+    JsonWriter.quote(out, null);
+    assertEquals(JSONObject.quote(null), out.toString());
+  }
+
+  @Test(expected = JSONException.class)
+  public void rejectsNonFiniteNumbers() throws JSONException {
+    Event event = new Event("event1");
+    event.setSegmentation(Collections.<String, Object>singletonMap("value", Double.NaN));
+    write(event);
+  }
+
+  /**
+   * Asserts that writeJSON writes the same members and values as toJSON, in whatever order.
+   */
+  private static void assertSameJSON(Event event) throws JSONException {
+    assertSameValue(new JSONObject(event.toJSON().toString()), new JSONObject(write(event)));
+  }
+
+  private static void assertSameValue(Object expected, Object actual) throws JSONException {
+    if (expected instanceof JSONObject) {
+      assertTrue(String.valueOf(actual), actual instanceof JSONObject);
+      JSONObject expectedObject = (JSONObject) expected;
+      JSONObject actualObject = (JSONObject) actual;
+      assertEquals(actual.toString(), expectedObject.length(), actualObject.length());
+      Iterator<?> keys = expectedObject.keys();
+      while (keys.hasNext()) {
+        String key = (String) keys.next();
+        assertTrue(key, actualObject.has(key));
+        assertSameValue(expectedObject.get(key), actualObject.get(key));
+      }
+    } else if (expected instanceof JSONArray) {
+      assertTrue(String.valueOf(actual), actual instanceof JSONArray);
+      JSONArray expectedArray = (JSONArray) expected;
+      JSONArray actualArray = (JSONArray) actual;
+      assertEquals(expectedArray.length(), actualArray.length());
+      for (int i = 0; i < expectedArray.length(); i++) {
+        assertSameValue(expectedArray.get(i), actualArray.get(i));
+      }
+    } else {
+      assertEquals(expected, actual);
+    }
+  }
+
+  private static String write(Event event) throws JSONException {
+    StringBuilder out = new StringBuilder();
+    event.writeJSON(out);
+    return out.toString();
+  }
+}
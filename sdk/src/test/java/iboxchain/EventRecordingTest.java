@@ -0,0 +1,214 @@
+package iboxchain;
+
+import com.iboxchain.Config;
+import com.iboxchain.EventBuilder;
+import com.iboxchain.EventTimer;
+import com.iboxchain.metrics.MetricsSnapshot;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class EventRecordingTest extends ServerTestSupport {
+
+  @Test
+  public void aggregatesIdenticalEventsOfAWindow() throws Exception {
+    countly.setBatchSize(100, 64 * 1024, 60000);
+    countly.setAggregation(true, 60000);
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 1000; i++) {
+            // a new but equal segmentation every time
+            countly.recordEvent("click", Collections.<String, Object>singletonMap("city", "Istanbul"), 1, 2);
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    countly.recordEvent("click", Collections.<String, Object>singletonMap("city", "Ankara"), 3, 1, 0.5);
+    countly.recordEvent("view");
+    assertTrue(countly.flush(5000));
+
+    assertEquals(1, server.requests.size());
+    JSONArray events = new JSONArray(TestServer.param(server.requests.get(0), "events"));
+    assertEquals(3, events.length());
+    for (int i = 0; i < events.length(); i++) {
+      JSONObject event = events.getJSONObject(i);
+      if (event.getString("key").equals("view")) {
+        assertEquals(1, event.getInt("count"));
+      } else if (event.getJSONObject("segmentation").getString("city").equals("Istanbul")) {
+        assertEquals(4000, event.getInt("count"));
+        assertEquals(8000, event.getInt("sum"));
+      } else {
+        assertEquals(3, event.getInt("count"));
+        assertEquals(0.5, event.getDouble("dur"), 0);
+      }
+    }
+    MetricsSnapshot metrics = countly.getMetrics();
+    assertEquals(4002, metrics.getEventsRecorded());
+    assertEquals(3999, metrics.getEventsAggregated());
+    assertEquals(metrics.getEventsRecorded(), metrics.getEventsSent() + metrics.getEventsAggregated());
+  }
+
+  @Test
+  public void samplingAndRateLimitsDropEvents() throws Exception {
+    countly.setBatchSize(100, 64 * 1024, 60000);
+    countly.setAggregation(true, 60000);
+    countly.setSampling("dropped", 0);
+    countly.setRateLimit("limited", 0.001, 5);
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    for (int i = 0; i < 20; i++) {
+      countly.recordEvent("dropped");
+      countly.recordEvent("limited");
+    }
+    countly.setRateLimit(null, 0.001, 3);
+    for (int i = 0; i < 10; i++) {
+      countly.recordEvent("other");
+    }
+    assertTrue(countly.flush(5000));
+    MetricsSnapshot metrics = countly.getMetrics();
+
+    JSONArray events = new JSONArray(TestServer.param(server.requests.get(0), "events"));
+    assertEquals(2, events.length());
+    for (int i = 0; i < events.length(); i++) {
+      JSONObject event = events.getJSONObject(i);
+      if (event.getString("key").equals("limited")) {
+        assertEquals(5, event.getInt("count"));
+      } else {
+        assertEquals("other", event.getString("key"));
+        assertEquals(3, event.getInt("count"));
+      }
+    }
+    assertEquals(50, metrics.getEventsRecorded());
+    assertEquals(20, metrics.getEventsSampledOut());
+    assertEquals(22, metrics.getEventsRateLimited());
+    assertEquals(Long.valueOf(20), metrics.getEventsLimitedByKey().get("dropped"));
+    assertEquals(Long.valueOf(15), metrics.getEventsLimitedByKey().get("limited"));
+    assertNull(metrics.getEventsLimitedByKey().get("other"));
+  }
+
+  @Test
+  public void timedEventsRecordTheirDuration() throws Exception {
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    assertTrue(countly.startEvent("timed"));
+    assertFalse(countly.startEvent("timed"));
+    Thread.sleep(20);
+    assertTrue(countly.endEvent("timed", Collections.<String, Object>singletonMap("city", "Istanbul")));
+    assertFalse(countly.endEvent("timed"));
+    assertTrue(countly.startEvent("cancelled"));
+    assertTrue(countly.cancelEvent("cancelled"));
+    EventTimer timer = countly.startTimer("handle");
+    Thread.sleep(10);
+    timer.close();
+    assertEquals(-1, timer.stop(), 0);
+
+    assertEquals(2, server.requests.size());
+    JSONObject timed = new JSONArray(TestServer.param(server.requests.get(0), "events")).getJSONObject(0);
+    assertEquals("timed", timed.getString("key"));
+    assertEquals("Istanbul", timed.getJSONObject("segmentation").getString("city"));
+    assertTrue(timed.getDouble("dur") >= 0.02);
+    JSONObject handle = new JSONArray(TestServer.param(server.requests.get(1), "events")).getJSONObject(0);
+    assertEquals("handle", handle.getString("key"));
+    assertTrue(handle.getDouble("dur") >= 0.01);
+  }
+
+  @Test
+  public void frequentTimingsAreAggregated() throws Exception {
+    countly.setAggregation(true, 60000);
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    double total = 0;
+    for (int i = 0; i < 1000; i++) {
+      total += countly.startTimer("timed").stop();
+    }
+    assertTrue(countly.flush(5000));
+
+    assertEquals(1, server.requests.size());
+    JSONObject timed = new JSONArray(TestServer.param(server.requests.get(0), "events")).getJSONObject(0);
+    assertEquals(1000, timed.getInt("count"));
+    assertEquals(total, timed.getDouble("dur"), 1e-9);
+  }
+
+  @Test
+  public void builderRecordsSegmentsWithoutAMap() throws Exception {
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    Map<String, Object> superProperties = new HashMap<String, Object>();
+    superProperties.put("platform", "java");
+    countly.registerSuperProperties(superProperties);
+    countly.event("purchase").segment("country", "TR").segment("items", 3).segment("price", 9.99)
+        .segment("gift", true).segment("items", 4).segment("platform", "overridden").sum(19.98).dur(1.5).record();
+    countly.recordEvent("refund", 1, 4.75);
+
+    assertEquals(2, server.requests.size());
+    JSONObject purchase = new JSONArray(TestServer.param(server.requests.get(0), "events")).getJSONObject(0);
+    assertEquals("purchase", purchase.getString("key"));
+    assertEquals(19.98, purchase.getDouble("sum"), 0);
+    assertEquals(1.5, purchase.getDouble("dur"), 0);
+    JSONObject segmentation = purchase.getJSONObject("segmentation");
+    assertEquals(5, segmentation.length());
+    assertEquals("TR", segmentation.getString("country"));
+    assertEquals(4, segmentation.getInt("items"));
+    assertEquals(9.99, segmentation.getDouble("price"), 0);
+    assertTrue(segmentation.getBoolean("gift"));
+    assertEquals("java", segmentation.getString("platform"));
+    JSONObject refund = new JSONArray(TestServer.param(server.requests.get(1), "events")).getJSONObject(0);
+    assertEquals(4.75, refund.getDouble("sum"), 0);
+  }
+
+  @Test
+  public void builtEventsAreAggregated() throws Exception {
+    countly.setAggregation(true, 60000);
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    for (int i = 0; i < 100; i++) {
+      countly.event("purchase").segment("country", i % 2 == 0 ? "TR" : "DE").sum(0.5).record();
+    }
+    assertTrue(countly.flush(5000));
+
+    assertEquals(2, server.requests.size());
+    for (String request : server.requests) {
+      JSONObject purchase = new JSONArray(TestServer.param(request, "events")).getJSONObject(0);
+      assertEquals(50, purchase.getInt("count"));
+      assertEquals(25, purchase.getDouble("sum"), 0);
+    }
+  }
+
+  @Test
+  public void reusedBuilderKeepsQueuedEventsIntact() throws Exception {
+    countly.setBatchSize(10, 64 * 1024, 60000);
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    EventBuilder first = countly.event("purchase").segment("country", "TR").segment("items", 3);
+    // a second event built at the same time gets a builder of its own
+    EventBuilder second = countly.event("view").segment("page", "home");
+    assertNotSame(first, second);
+    first.record();
+    second.record();
+    // the next event reuses the builder of the thread, the queued events keep their segments
+    EventBuilder third = countly.event("purchase");
+    assertSame(first, third);
+    third.segment("country", "DE").record();
+    assertTrue(countly.flush(5000));
+
+    assertEquals(1, server.requests.size());
+    JSONArray events = new JSONArray(TestServer.param(server.requests.get(0), "events"));
+    assertEquals(3, events.length());
+    JSONObject segmentation = events.getJSONObject(0).getJSONObject("segmentation");
+    assertEquals(2, segmentation.length());
+    assertEquals("TR", segmentation.getString("country"));
+    assertEquals(3, segmentation.getInt("items"));
+    assertEquals("home", events.getJSONObject(1).getJSONObject("segmentation").getString("page"));
+    segmentation = events.getJSONObject(2).getJSONObject("segmentation");
+    assertEquals(1, segmentation.length());
+    assertEquals("DE", segmentation.getString("country"));
+  }
+}
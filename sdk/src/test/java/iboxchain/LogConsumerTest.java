@@ -0,0 +1,116 @@
+package iboxchain;
+
+import com.iboxchain.Config;
+import com.iboxchain.Countly;
+import com.iboxchain.consumer.LogConsumer;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LogConsumerTest {
+
+  private File dir;
+
+  @Before
+  public void setup() throws IOException {
+    dir = File.createTempFile("countly-log", "");
+    assertTrue(dir.delete());
+    Config.APP_KEY = "appkey";
+    Config.DEVICE_ID = "device";
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    dir.delete();
+  }
+
+  @Test
+  public void writesOneRequestPerLine() throws Exception {
+    LogConsumer consumer = new LogConsumer(dir.getPath(), 1024 * 1024, 60000, 60000);
+    consumer.writeEvents("[{\"key\":\"event1\",\"count\":1}]");
+    consumer.writeUserData("{\"name\":\"中文\"}");
+    consumer.flush();
+
+    List<String> lines = readLines();
+    assertEquals(2, lines.size());
+    JSONObject events = new JSONObject(lines.get(0));
+    assertEquals("appkey", events.getString("app_key"));
+    assertEquals("device", events.getString("device_id"));
+    assertEquals("event1", events.getJSONArray("events").getJSONObject(0).getString("key"));
+    assertTrue(events.has("timestamp"));
+    JSONObject user = new JSONObject(lines.get(1));
+    assertEquals("中文", user.getJSONObject("user_details").getString("name"));
+    consumer.close();
+  }
+
+  @Test
+  public void rotatesBySize() throws Exception {
+    LogConsumer consumer = new LogConsumer(dir.getPath(), 1024, 60000, 60000);
+    for (int i = 0; i < 50; i++) {
+      consumer.writeEvents("[{\"key\":\"event" + i + "\",\"count\":1}]");
+    }
+    consumer.close();
+
+    assertTrue(dir.list().length > 1);
+    assertEquals(50, readLines().size());
+    // lines still in the buffer count as well
+    for (File file : dir.listFiles()) {
+      assertTrue(file.length() <= 1024);
+    }
+  }
+
+  @Test
+  public void countlyWritesEventsToLogFiles() throws Exception {
+    Countly countly = Countly.sharedInstance();
+    countly.setLogConsumer(dir.getPath(), 1024 * 1024, 60000);
+    countly.init("http://127.0.0.1:1", "appkey", Config.TYPE_LOG_CONSUMER);
+    Map<String, Object> segmentation = new HashMap<String, Object>();
+    segmentation.put("country", "Turkey");
+    countly.recordEvent("event1", segmentation, 1);
+    countly.shutdown(1000);
+    Config.CONSUMER_TYPE = Config.TYPE_HTTP_CONSUMER;
+    Config.LOG_CONSUMER_DIR = "countly-logs";
+
+    List<String> lines = readLines();
+    assertEquals(1, lines.size());
+    JSONObject event = new JSONObject(lines.get(0)).getJSONArray("events").getJSONObject(0);
+    assertEquals("event1", event.getString("key"));
+    assertEquals("Turkey", event.getJSONObject("segmentation").getString("country"));
+  }
+
+  private List<String> readLines() throws IOException {
+    List<String> lines = new ArrayList<String>();
+    String[] names = dir.list();
+    Arrays.sort(names);
+    for (String name : names) {
+      BufferedReader reader = new BufferedReader(
+          new InputStreamReader(new FileInputStream(new File(dir, name)), "UTF-8"));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lines.add(line);
+      }
+      reader.close();
+    }
+    return lines;
+  }
+}
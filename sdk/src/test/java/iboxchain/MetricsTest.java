@@ -0,0 +1,175 @@
+package iboxchain;
+
+import com.iboxchain.Config;
+import com.iboxchain.Countly;
+import com.iboxchain.metrics.LatencyHistogram;
+import com.iboxchain.metrics.Metrics;
+import com.iboxchain.metrics.MetricsSnapshot;
+import com.iboxchain.metrics.StripedCounter;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+  @Test
+  public void stripedCounterSumsAllThreads() throws Exception {
+    final StripedCounter counter = new StripedCounter();
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int i = 0; i < 100000; i++) {
+            counter.increment();
+          }
+        }
+      });
+      threads[t].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(800000, counter.sum());
+  }
+
+  @Test
+  public void histogramReportsBucketBounds() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.snapshot().getPercentileNanos(99));
+    for (int i = 0; i < 98; i++) {
+      histogram.record(1000);
+    }
+    histogram.record(1000000);
+    histogram.record(-5);
+
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(100, snapshot.getCount());
+    assertEquals(98 * 1000 + 1000000, snapshot.getTotalNanos());
+    assertEquals(0, snapshot.getPercentileNanos(0));
+    // 1000 falls into [512, 1024), 1000000 into [2^19, 2^20)
+    assertEquals(1023, snapshot.getPercentileNanos(50));
+    assertEquals(1023, snapshot.getPercentileNanos(99));
+    assertEquals((1 << 20) - 1, snapshot.getPercentileNanos(100));
+    assertEquals((1 << 20) - 1, snapshot.getMaxNanos());
+  }
+
+  @Test
+  public void snapshotReadsCountersAndGauges() {
+    Metrics metrics = new Metrics(new Metrics.Gauges() {
+      @Override
+      public long queueDepth() {
+        return 7;
+      }
+
+      @Override
+      public long spoolBytes() {
+        return 4096;
+      }
+
+      @Override
+      public long openConnections() {
+        return 2;
+      }
+    });
+    metrics.eventRecorded();
+    metrics.eventRecorded();
+    metrics.requestSent(2);
+    metrics.requestFailed(0);
+    metrics.requestFailed(503);
+    metrics.requestFailed(503);
+
+    MetricsSnapshot snapshot = metrics.snapshot();
+    assertEquals(2, snapshot.getEventsRecorded());
+    assertEquals(2, snapshot.getEventsSent());
+    assertEquals(1, snapshot.getRequestsSent());
+    assertEquals(3, snapshot.getRequestsFailed());
+    assertEquals(Long.valueOf(2), snapshot.getRequestsFailedByStatus().get(503));
+    assertEquals(Long.valueOf(1), snapshot.getRequestsFailedByStatus().get(0));
+    assertEquals(7, snapshot.getQueueDepth());
+    assertEquals(4096, snapshot.getSpoolBytes());
+    assertEquals(2, snapshot.getOpenConnections());
+  }
+
+  @Test
+  public void registersMBean() throws Exception {
+    Metrics metrics = new Metrics();
+    metrics.eventRecorded();
+    ObjectName name = metrics.registerMBean("metrics-test");
+    try {
+      assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "EventsRecorded"));
+    } finally {
+      Metrics.unregisterMBean(name);
+    }
+    assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+  }
+
+  @Test
+  public void countsSentRetriedAndFailedRequests() throws Exception {
+    TestServer server = new TestServer();
+    server.statuses.add(503);
+    server.statuses.add(400);
+    Countly countly = Countly.newInstance();
+    try {
+      countly.setAsyncEnabled(true);
+      countly.setRetryPolicy(5, 10, 100);
+      countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+      countly.recordEvent("event1");
+      countly.recordEvent("event2");
+      countly.recordEvent("event3");
+      assertTrue(countly.flush(5000));
+      MetricsSnapshot metrics = countly.getMetrics();
+
+      // event1 failed with 503 and was retried, event2 was rejected with 400
+      assertEquals(3, metrics.getEventsRecorded());
+      assertEquals(2, metrics.getEventsSent());
+      assertEquals(1, metrics.getEventsDropped());
+      assertEquals(2, metrics.getRequestsSent());
+      assertEquals(1, metrics.getRequestsRetried());
+      assertEquals(Long.valueOf(1), metrics.getRequestsFailedByStatus().get(503));
+      assertEquals(Long.valueOf(1), metrics.getRequestsFailedByStatus().get(400));
+      assertEquals(0, metrics.getQueueDepth());
+      assertEquals(3, metrics.getSerializeLatency().getCount());
+      assertEquals(4, metrics.getChecksumLatency().getCount());
+      assertEquals(4, metrics.getSendLatency().getCount());
+    } finally {
+      countly.shutdown(1000);
+      server.stop();
+    }
+  }
+
+  @Test
+  public void countsEventsThatFailToSerializeAsDropped() throws Exception {
+    TestServer server = new TestServer();
+    for (boolean async : new boolean[]{false, true}) {
+      Countly countly = Countly.newInstance();
+      try {
+        countly.setAsyncEnabled(async);
+        countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+        countly.recordEvent("nan", Collections.<String, Object>singletonMap("value", Double.NaN), 1);
+        countly.recordEvent("event1");
+        assertTrue(countly.flush(5000));
+        MetricsSnapshot metrics = countly.getMetrics();
+
+        assertEquals(2, metrics.getEventsRecorded());
+        assertEquals(1, metrics.getEventsSent());
+        assertEquals(1, metrics.getEventsDropped());
+      } finally {
+        countly.shutdown(1000);
+      }
+    }
+    server.stop();
+  }
+}
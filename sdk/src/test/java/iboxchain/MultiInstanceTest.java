@@ -0,0 +1,89 @@
+package iboxchain;
+
+import com.iboxchain.Config;
+import com.iboxchain.Countly;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MultiInstanceTest extends ServerTestSupport {
+
+  private Countly tenant1;
+  private Countly tenant2;
+
+  @Before
+  public void createTenants() {
+    tenant1 = countly;
+    tenant2 = Countly.newInstance();
+  }
+
+  @After
+  public void shutdownTenants() {
+    tenant2.shutdown(1000);
+  }
+
+  @Test
+  public void instancesHaveTheirOwnConfigAndShareSenderThreads() throws Exception {
+    tenant1.setBatchSize(10, 64 * 1024, 60000);
+    tenant1.setHttpMethod(Config.HTTP_METHOD_POST);
+    tenant1.init(server.url(), "appkey1", Config.TYPE_HTTP_CONSUMER);
+    tenant2.setAsyncEnabled(true);
+    tenant2.init(server.url(), "appkey2", Config.TYPE_HTTP_CONSUMER);
+    for (int i = 0; i < 10; i++) {
+      tenant1.recordEvent("event" + i);
+      tenant2.recordEvent("event" + i);
+    }
+    assertTrue(tenant1.flush(5000));
+    assertTrue(tenant2.flush(5000));
+
+    // tenant1 batched its events into one POST, tenant2 sent one GET per event
+    assertEquals(11, server.requests.size());
+    assertEquals(20, server.countEvents());
+    int appKey1 = 0;
+    int appKey2 = 0;
+    for (String request : server.requests) {
+      if (request.startsWith("app_key=appkey1&")) {
+        appKey1++;
+      } else if (request.startsWith("app_key=appkey2&")) {
+        appKey2++;
+      }
+    }
+    assertEquals(1, appKey1);
+    assertEquals(10, appKey2);
+    // the shared instance was not touched
+    assertEquals(1, Config.BATCH_MAX_EVENTS);
+    assertEquals(Config.HTTP_METHOD_GET, Config.HTTP_METHOD);
+
+    int senderThreads = 0;
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().startsWith("countly-sender")) {
+        senderThreads++;
+      }
+    }
+    assertEquals(Config.SENDER_THREADS, senderThreads);
+  }
+
+  @Test
+  public void hungServerDoesNotHoldUpOtherInstances() throws Exception {
+    TestServer hung = new TestServer();
+    hung.hang();
+    try {
+      tenant1.setAsyncEnabled(true);
+      tenant1.init(hung.url(), "appkey1", Config.TYPE_HTTP_CONSUMER);
+      tenant2.setAsyncEnabled(true);
+      tenant2.init(server.url(), "appkey2", Config.TYPE_HTTP_CONSUMER);
+      tenant1.recordEvent("event0");
+      // a sender thread now waits for the response of the hung server
+      assertTrue(hung.awaitRequests(1, 5000));
+      for (int i = 0; i < 10; i++) {
+        tenant2.recordEvent("event" + i);
+      }
+      assertTrue(tenant2.flush(5000));
+      assertEquals(10, server.countEvents());
+    } finally {
+      hung.stop();
+    }
+  }
+}
@@ -0,0 +1,257 @@
+package iboxchain;
+
+import com.iboxchain.consumer.PooledTransport;
+import com.iboxchain.consumer.Transport;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import static org.junit.Assert.*;
+
+public class PooledTransportTest {
+
+  private HttpServer server;
+  private PooledTransport transport;
+  private final Set<Integer> clientPorts = new CopyOnWriteArraySet<Integer>();
+
+  @Before
+  public void setup() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        String request = exchange.getRequestMethod() + " " + exchange.getRequestURI() + " "
+            + exchange.getRequestHeaders().getFirst("X-Test") + " " + slurp(exchange.getRequestBody());
+        int code = exchange.getRequestURI().getPath().equals("/error") ? 500 : 200;
+        byte[] body = request.getBytes("UTF-8");
+        if (exchange.getRequestURI().getPath().equals("/chunked")) {
+          exchange.sendResponseHeaders(code, 0);
+        } else {
+          exchange.sendResponseHeaders(code, body.length);
+        }
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+      }
+    });
+    server.start();
+    transport = new PooledTransport(2, 30000);
+  }
+
+  @After
+  public void tearDown() {
+    transport.close();
+    server.stop(0);
+  }
+
+  @Test
+  public void reusesConnection() throws IOException {
+    for (int i = 0; i < 5; i++) {
+      Transport.Response response = transport.execute("GET", url("/i?n=" + i), null, null);
+      assertEquals(200, response.getCode());
+      assertEquals("GET /i?n=" + i + " null ", response.getContent());
+    }
+    assertEquals(1, clientPorts.size());
+    assertEquals(1, transport.openConnections());
+  }
+
+  @Test
+  public void streamsChunkedBody() throws IOException {
+    final byte[] payload = new byte[20000];
+    for (int i = 0; i < payload.length; i++) {
+      payload[i] = (byte) ('a' + i % 26);
+    }
+    Map<String, String> headers = new HashMap<String, String>();
+    headers.put("X-Test", "header");
+    Transport.Response response = transport.execute("POST", url("/chunked"), headers, new Transport.Body() {
+      @Override
+      public void writeTo(OutputStream out) throws IOException {
+        out.write(payload, 0, 100);
+        out.flush();
+        out.write(payload, 100, payload.length - 100);
+      }
+    });
+    assertEquals(200, response.getCode());
+    assertEquals("POST /chunked header " + new String(payload, "UTF-8"), response.getContent());
+
+    assertEquals(200, transport.execute("GET", url("/i"), null, null).getCode());
+    assertEquals(1, clientPorts.size());
+  }
+
+  @Test
+  public void returnsErrorStatus() throws IOException {
+    assertEquals(500, transport.execute("GET", url("/error"), null, null).getCode());
+    assertEquals(200, transport.execute("GET", url("/i"), null, null).getCode());
+  }
+
+  @Test
+  public void closesIdleConnections() throws Exception {
+    PooledTransport shortIdle = new PooledTransport(2, 50);
+    try {
+      shortIdle.execute("GET", url("/i"), null, null);
+      Thread.sleep(100);
+      shortIdle.execute("GET", url("/i"), null, null);
+      assertEquals(2, clientPorts.size());
+      assertEquals(1, shortIdle.openConnections());
+    } finally {
+      shortIdle.close();
+    }
+    assertEquals(0, shortIdle.openConnections());
+  }
+
+  @Test
+  public void sendsThroughProxy() throws IOException {
+    ProxySelector defaultSelector = ProxySelector.getDefault();
+    final Proxy proxy = new Proxy(Proxy.Type.HTTP, server.getAddress());
+    ProxySelector.setDefault(new ProxySelector() {
+      @Override
+      public List<Proxy> select(URI uri) {
+        return Collections.singletonList("countly.invalid".equals(uri.getHost()) ? proxy : Proxy.NO_PROXY);
+      }
+
+      @Override
+      public void connectFailed(URI uri, SocketAddress sa, IOException ioe) {
+      }
+    });
+    try {
+      Transport.Response response = transport.execute("GET", new URL("http://countly.invalid/i?n=1"), null, null);
+      assertEquals(200, response.getCode());
+      // a proxy gets the absolute url
+      assertEquals("GET http://countly.invalid/i?n=1 null ", response.getContent());
+      assertEquals(0, transport.openConnections());
+    } finally {
+      ProxySelector.setDefault(defaultSelector);
+    }
+  }
+
+  @Test
+  public void resendsWhenTheServerClosedTheIdleConnection() throws Exception {
+    // answers the first request, then closes the connection without reading the next one
+    ScriptedServer scripted = new ScriptedServer(false);
+    try {
+      assertEquals(200, transport.execute("GET", scripted.url(), null, null).getCode());
+      scripted.awaitClosed(1);
+      assertEquals(200, transport.execute("GET", scripted.url(), null, null).getCode());
+      assertEquals(2, scripted.connections);
+    } finally {
+      scripted.close();
+    }
+  }
+
+  @Test
+  public void doesNotResendARequestTheServerMayHaveGot() throws Exception {
+    // answers the first request, then resets the connection after reading the next one
+    ScriptedServer scripted = new ScriptedServer(true);
+    try {
+      assertEquals(200, transport.execute("GET", scripted.url(), null, null).getCode());
+      try {
+        transport.execute("GET", scripted.url(), null, null);
+        fail("reset connection");
+      } catch (IOException e) {
+        // left to the retry policy
+      }
+      assertEquals(1, scripted.connections);
+    } finally {
+      scripted.close();
+    }
+  }
+
+  private URL url(String path) throws IOException {
+    return new URL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+  }
+
+  /**
+   * Accepts connections one after another and answers only the first request of each.
+   */
+  private static class ScriptedServer implements Runnable {
+    private final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    private final boolean resetAfterSecondRequest;
+    private final Thread thread = new Thread(this, "scripted-server");
+    volatile int connections;
+    volatile int closed;
+
+    ScriptedServer(boolean resetAfterSecondRequest) throws IOException {
+      this.resetAfterSecondRequest = resetAfterSecondRequest;
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    URL url() throws IOException {
+      return new URL("http://127.0.0.1:" + serverSocket.getLocalPort() + "/i");
+    }
+
+    @Override
+    public void run() {
+      try {
+        for (; ; ) {
+          Socket socket = serverSocket.accept();
+          connections++;
+          BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+          readHead(in);
+          socket.getOutputStream().write("HTTP/1.1 200 OK\r\nContent-Length: 0\r\n\r\n".getBytes("ISO-8859-1"));
+          socket.getOutputStream().flush();
+          if (resetAfterSecondRequest) {
+            readHead(in);
+            socket.setSoLinger(true, 0);
+          }
+          socket.close();
+          closed++;
+        }
+      } catch (IOException e) {
+        // closed
+      }
+    }
+
+    private static void readHead(BufferedReader in) throws IOException {
+      String line;
+      while ((line = in.readLine()) != null && line.length() > 0) {
+      }
+    }
+
+    void awaitClosed(int count) throws InterruptedException {
+      while (closed < count) {
+        Thread.sleep(10);
+      }
+    }
+
+    void close() throws IOException {
+      serverSocket.close();
+    }
+  }
+
+  private static String slurp(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int len;
+    while ((len = in.read(buffer)) != -1) {
+      out.write(buffer, 0, len);
+    }
+    return out.toString("UTF-8");
+  }
+}
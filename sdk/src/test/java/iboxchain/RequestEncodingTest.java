@@ -0,0 +1,69 @@
+package iboxchain;
+
+import com.iboxchain.Config;
+import org.json.JSONArray;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RequestEncodingTest extends ServerTestSupport {
+
+  @Test
+  public void postAndGetCarryTheSameChecksummedParams() throws Exception {
+    countly.setHttpMethod(Config.HTTP_METHOD_POST);
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    countly.recordEvent("post event 中");
+    countly.setHttpMethod(Config.HTTP_METHOD_GET);
+    countly.recordEvent("get event 中");
+
+    assertEquals(2, server.requests.size());
+    assertEquals(2, server.countEvents());
+    for (String request : server.requests) {
+      TestServer.assertChecksum(request);
+    }
+  }
+
+  @Test
+  public void checksum256IsSalted() throws Exception {
+    countly.setChecksum(Config.CHECKSUM_SHA256, "salt");
+    countly.setHttpMethod(Config.HTTP_METHOD_POST);
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    countly.recordEvent("post event");
+    countly.setHttpMethod(Config.HTTP_METHOD_GET);
+    countly.recordEvent("get event");
+    countly.recordEvent("another get event");
+
+    assertEquals(3, server.requests.size());
+    for (String request : server.requests) {
+      assertFalse(request.contains("&checksum="));
+      int idx = request.indexOf("&checksum256=");
+      assertEquals(TestServer.hash("SHA-256", request.substring(0, idx) + "salt"),
+          request.substring(idx + "&checksum256=".length()));
+    }
+  }
+
+  @Test
+  public void gzipCompressesPostBodies() throws Exception {
+    countly.setHttpMethod(Config.HTTP_METHOD_POST);
+    countly.setGzipEnabled(true);
+    countly.setBatchSize(10, 64 * 1024, 60000);
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    for (int i = 0; i < 25; i++) {
+      countly.recordEvent("user-" + (i % 2), "event" + i, null, 1, 0, 0);
+    }
+    assertTrue(countly.flush(5000));
+
+    // the bodies decompress to the same checksummed parameters, with the Deflater reused across requests
+    assertEquals(3, server.requests.size());
+    assertEquals(3, server.gzipped.get());
+    int events = 0;
+    for (String request : server.requests) {
+      TestServer.assertChecksum(request);
+      JSONArray bulk = new JSONArray(TestServer.param(request, "requests"));
+      for (int i = 0; i < bulk.length(); i++) {
+        events += bulk.getJSONObject(i).getJSONArray("events").length();
+      }
+    }
+    assertEquals(25, events);
+  }
+}
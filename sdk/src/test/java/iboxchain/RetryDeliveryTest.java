@@ -0,0 +1,122 @@
+package iboxchain;
+
+import com.iboxchain.Config;
+import com.iboxchain.Countly;
+import com.iboxchain.metrics.MetricsSnapshot;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class RetryDeliveryTest extends ServerTestSupport {
+
+  @Test
+  public void retriesServerErrorsWithBackoff() throws Exception {
+    server.statuses.add(503);
+    server.statuses.add(500);
+    countly.setAsyncEnabled(true);
+    countly.setRetryPolicy(5, 10, 100);
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    countly.recordEvent("event1");
+    countly.recordEvent("event2");
+    assertTrue(countly.flush(5000));
+
+    // event1 was sent three times, event2 once
+    assertEquals(4, server.requests.size());
+    assertEquals(4, server.countEvents());
+  }
+
+  @Test
+  public void shutdownCountsUndeliveredEventsAsDropped() throws Exception {
+    for (int i = 0; i < 5; i++) {
+      server.statuses.add(503);
+    }
+    countly.setBatchSize(10, 64 * 1024, 60000);
+    countly.setRetryPolicy(5, 60000, 60000);
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    for (int i = 0; i < 30; i++) {
+      countly.recordEvent("event" + i);
+    }
+    // the first batch waits a minute for its retry, the others are still queued
+    assertTrue(server.awaitRequests(1, 5000));
+    countly.shutdown(5000);
+
+    MetricsSnapshot metrics = countly.getMetrics();
+    assertEquals(0, metrics.getEventsSent());
+    assertEquals(30, metrics.getEventsDropped());
+  }
+
+  @Test
+  public void eventsRecordedDuringShutdownAreSentOrCountedAsDropped() throws Exception {
+    for (boolean pooled : new boolean[]{false, true}) {
+      final Countly racing = Countly.newInstance();
+      racing.setAsyncEnabled(true);
+      racing.setPooledEvents(pooled);
+      racing.setQueueCapacity(256);
+      racing.setBatchSize(100, 64 * 1024, 10);
+      racing.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+      final AtomicBoolean stop = new AtomicBoolean();
+      Thread[] threads = new Thread[4];
+      for (int t = 0; t < threads.length; t++) {
+        threads[t] = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            while (!stop.get()) {
+              racing.recordEvent("event");
+            }
+          }
+        });
+        threads[t].start();
+      }
+      Thread.sleep(50);
+      racing.shutdown(5000);
+      stop.set(true);
+      for (Thread thread : threads) {
+        thread.join();
+      }
+
+      MetricsSnapshot metrics = racing.getMetrics();
+      assertEquals(metrics.getEventsRecorded(), metrics.getEventsSent() + metrics.getEventsDropped());
+    }
+  }
+
+  @Test
+  public void doesNotRetryRejectedRequests() throws Exception {
+    server.statuses.add(400);
+    countly.setAsyncEnabled(true);
+    countly.setRetryPolicy(5, 10, 100);
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    countly.recordEvent("event1");
+    countly.recordEvent("event2");
+    assertTrue(countly.flush(5000));
+
+    assertEquals(2, server.requests.size());
+  }
+
+  @Test
+  public void openCircuitStopsSending() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      server.statuses.add(503);
+    }
+    countly.setAsyncEnabled(true);
+    countly.setRetryPolicy(100, 1, 1);
+    countly.setCircuitBreaker(3, 60000);
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    for (int i = 0; i < 10; i++) {
+      countly.recordEvent("event" + i);
+    }
+    assertTrue(server.awaitRequests(3, 5000));
+    long deadline = System.currentTimeMillis() + 5000;
+    while (countly.getMetrics().getRequestsFailed() < 3 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+
+    // the circuit opened after the third failure and stays open for a minute, the other events wait in the queue
+    MetricsSnapshot metrics = countly.getMetrics();
+    assertEquals(3, metrics.getRequestsFailed());
+    assertEquals(9, metrics.getQueueDepth());
+    assertFalse(countly.flush(100));
+    assertEquals(3, server.requests.size());
+  }
+}
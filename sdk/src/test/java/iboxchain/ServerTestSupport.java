@@ -0,0 +1,29 @@
+package iboxchain;
+
+import com.iboxchain.Countly;
+import org.junit.After;
+import org.junit.Before;
+
+import java.io.IOException;
+
+/**
+ * Gives every test a running {@link TestServer} and a new, not initialized Countly instance, and shuts both
+ * down after the test.
+ */
+public abstract class ServerTestSupport {
+
+  TestServer server;
+  Countly countly;
+
+  @Before
+  public void startServer() throws IOException {
+    server = new TestServer();
+    countly = Countly.newInstance();
+  }
+
+  @After
+  public void stopServer() {
+    countly.shutdown(1000);
+    server.stop();
+  }
+}
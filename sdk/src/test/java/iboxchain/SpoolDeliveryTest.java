@@ -0,0 +1,132 @@
+package iboxchain;
+
+import com.iboxchain.Config;
+import com.iboxchain.metrics.MetricsSnapshot;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class SpoolDeliveryTest extends ServerTestSupport {
+
+  private File dir;
+
+  @Before
+  public void createDir() throws IOException {
+    dir = File.createTempFile("countly-spool", "");
+    assertTrue(dir.delete());
+  }
+
+  @After
+  public void deleteDir() {
+    // runs before the shutdown of the base class, the spool has to be closed first
+    countly.shutdown(5000);
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    dir.delete();
+  }
+
+  @Test
+  public void spooledEventsSurviveOutageAndRestart() throws Exception {
+    countly.setSpool(dir.getPath(), 64 * 1024, 1024 * 1024, 10);
+    countly.setBatchSize(10, 64 * 1024, 60000);
+
+    // nothing listens on this port
+    ServerSocket closed = new ServerSocket(0);
+    String unreachable = "http://127.0.0.1:" + closed.getLocalPort();
+    closed.close();
+    countly.init(unreachable, "appkey", Config.TYPE_HTTP_CONSUMER);
+    for (int i = 0; i < 15; i++) {
+      countly.recordEvent("event" + i);
+    }
+    countly.flush(5000);
+    countly.shutdown(5000);
+    assertEquals(0, server.requests.size());
+
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    assertTrue(countly.flush(5000));
+    assertEquals(15, server.countEvents());
+  }
+
+  @Test
+  public void initAgainTakesOverTheSpool() throws Exception {
+    countly.setSpool(dir.getPath(), 64 * 1024, 1024 * 1024, 10);
+    countly.setBatchSize(10, 64 * 1024, 60000);
+
+    ServerSocket closed = new ServerSocket(0);
+    String unreachable = "http://127.0.0.1:" + closed.getLocalPort();
+    closed.close();
+    countly.init(unreachable, "appkey", Config.TYPE_HTTP_CONSUMER);
+    for (int i = 0; i < 15; i++) {
+      countly.recordEvent("event" + i);
+    }
+    // no shutdown, the new sender opens the spool once the old one closed it
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    assertTrue(countly.flush(5000));
+    assertEquals(15, server.countEvents());
+    assertEquals(0, countly.getMetrics().getEventsDropped());
+  }
+
+  @Test
+  public void eventsOfAFullSpoolAreCountedAsDropped() throws Exception {
+    // two segments of 4 KB hold fewer than the 200 events
+    countly.setSpool(dir.getPath(), 4096, 8192, 10);
+    countly.setBatchSize(1, 64 * 1024, 60000);
+
+    ServerSocket closed = new ServerSocket(0);
+    String unreachable = "http://127.0.0.1:" + closed.getLocalPort();
+    closed.close();
+    countly.init(unreachable, "appkey", Config.TYPE_HTTP_CONSUMER);
+    for (int i = 0; i < 200; i++) {
+      countly.recordEvent("event" + i);
+    }
+    countly.shutdown(5000);
+    long dropped = countly.getMetrics().getEventsDropped();
+    assertTrue(dropped > 0);
+
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    assertTrue(countly.flush(5000));
+    assertEquals(200, server.countEvents() + dropped);
+  }
+
+  @Test
+  public void eventTooLargeForTheSpoolIsCountedAsDropped() throws Exception {
+    countly.setSpool(dir.getPath(), 4096, 64 * 1024, 10);
+    countly.setBatchSize(10, 64 * 1024, 60000);
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    char[] chars = new char[5000];
+    java.util.Arrays.fill(chars, 'x');
+    countly.recordEvent("large", Collections.<String, Object>singletonMap("value", new String(chars)), 1);
+    countly.recordEvent("small");
+    assertTrue(countly.flush(5000));
+
+    assertEquals(1, server.countEvents());
+    MetricsSnapshot metrics = countly.getMetrics();
+    assertEquals(1, metrics.getEventsSent());
+    assertEquals(1, metrics.getEventsDropped());
+  }
+
+  @Test
+  public void spooledEventsKeepTheirDevice() throws Exception {
+    countly.setSpool(dir.getPath(), 64 * 1024, 1024 * 1024, 10);
+    countly.setBatchSize(10, 64 * 1024, 60000);
+    countly.init(server.url(), "appkey", Config.TYPE_HTTP_CONSUMER);
+    countly.recordEvent("user 中", "event1", null, 1, 0, 0);
+    countly.recordEvent("user 中", "event2", null, 1, 0, 0);
+    assertTrue(countly.flush(5000));
+
+    assertEquals(1, server.requests.size());
+    assertEquals("user 中", TestServer.param(server.requests.get(0), "device_id"));
+    assertEquals(2, server.countEvents());
+  }
+}
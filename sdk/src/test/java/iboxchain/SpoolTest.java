@@ -0,0 +1,128 @@
+package iboxchain;
+
+import com.iboxchain.spool.Spool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class SpoolTest {
+
+  private static final int SEGMENT_BYTES = 1024;
+
+  private File dir;
+
+  @Before
+  public void setup() throws IOException {
+    dir = File.createTempFile("countly-spool", "");
+    assertTrue(dir.delete());
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    dir.delete();
+  }
+
+  @Test
+  public void readAckAndRewind() throws IOException {
+    Spool spool = new Spool(dir, SEGMENT_BYTES, 64 * SEGMENT_BYTES);
+    assertTrue(spool.isEmpty());
+    spool.append("a");
+    spool.append("中文");
+    spool.append("c");
+    assertFalse(spool.isEmpty());
+
+    assertEquals("a", spool.read());
+    long afterFirst = spool.position();
+    assertEquals("中文", spool.read());
+    spool.ack(afterFirst);
+    assertEquals("c", spool.read());
+    assertNull(spool.read());
+
+    spool.rewind();
+    assertEquals("中文", spool.read());
+    assertEquals("c", spool.read());
+    spool.ack(spool.position());
+    assertTrue(spool.isEmpty());
+    spool.close();
+  }
+
+  @Test
+  public void recoversUnacknowledgedRecordsAfterRestart() throws IOException {
+    Spool spool = new Spool(dir, SEGMENT_BYTES, 64 * SEGMENT_BYTES);
+    for (int i = 0; i < 100; i++) {
+      spool.append("record" + i);
+    }
+    for (int i = 0; i < 40; i++) {
+      assertEquals("record" + i, spool.read());
+    }
+    spool.ack(spool.position());
+    spool.close();
+
+    spool = new Spool(dir, SEGMENT_BYTES, 64 * SEGMENT_BYTES);
+    spool.append("record100");
+    for (int i = 40; i <= 100; i++) {
+      assertEquals("record" + i, spool.read());
+    }
+    assertNull(spool.read());
+    spool.ack(spool.position());
+    spool.close();
+    assertEquals(2, dir.list().length);
+  }
+
+  @Test
+  public void ignoresTornWrite() throws IOException {
+    Spool spool = new Spool(dir, SEGMENT_BYTES, 64 * SEGMENT_BYTES);
+    spool.append("complete");
+    spool.append("torn");
+    spool.close();
+
+    // corrupt the payload of the last record as if the process died while writing it
+    RandomAccessFile file = new RandomAccessFile(new File(dir, String.format("%020d", 0) + ".spool"), "rw");
+    file.seek(8 + "complete".length() + 8);
+    file.write('x');
+    file.close();
+
+    spool = new Spool(dir, SEGMENT_BYTES, 64 * SEGMENT_BYTES);
+    spool.append("next");
+    assertEquals("complete", spool.read());
+    assertEquals("next", spool.read());
+    assertNull(spool.read());
+    spool.close();
+  }
+
+  @Test
+  public void dropsOldestSegmentWhenFull() throws IOException {
+    Spool spool = new Spool(dir, SEGMENT_BYTES, 4 * SEGMENT_BYTES);
+    char[] chars = new char[200];
+    java.util.Arrays.fill(chars, 'x');
+    String payload = new String(chars);
+    for (int i = 0; i < 40; i++) {
+      spool.append(i + payload);
+    }
+    assertTrue(spool.droppedSegments() > 0);
+    assertTrue(dir.list().length <= 5);
+
+    String first = spool.read();
+    assertNotNull(first);
+    assertFalse(first.startsWith("0x"));
+    int count = 1;
+    while (spool.read() != null) {
+      count++;
+    }
+    assertTrue(count < 40);
+    assertEquals(40 - count, spool.droppedRecords());
+    spool.close();
+  }
+}
@@ -0,0 +1,162 @@
+package iboxchain;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Local stand-in for the /i endpoint of a Countly server that keeps the parameters of every request it got:
+ * the query of GET requests, the decompressed body of POST requests.
+ */
+class TestServer {
+
+  private final HttpServer server;
+  final List<String> requests = new CopyOnWriteArrayList<String>();
+  // statuses of the next responses, 200 once empty
+  final Queue<Integer> statuses = new ConcurrentLinkedQueue<Integer>();
+  final AtomicInteger gzipped = new AtomicInteger();
+  // responses wait until it is counted down, null to respond right away
+  private volatile CountDownLatch hang;
+
+  TestServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/i", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        if ("POST".equals(exchange.getRequestMethod())) {
+          InputStream body = exchange.getRequestBody();
+          if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            gzipped.incrementAndGet();
+            body = new GZIPInputStream(body);
+          }
+          requests.add(slurp(body));
+        } else {
+          requests.add(exchange.getRequestURI().getRawQuery());
+        }
+        CountDownLatch latch = hang;
+        if (latch != null) {
+          try {
+            latch.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        Integer status = statuses.poll();
+        byte[] body = "{\"result\":\"Success\"}".getBytes("UTF-8");
+        exchange.sendResponseHeaders(status != null ? status : 200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+      }
+    });
+    server.start();
+  }
+
+  String url() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  void stop() {
+    release();
+    server.stop(0);
+  }
+
+  /**
+   * Keeps every response back until {@link #release()}, like an unresponsive server.
+   */
+  void hang() {
+    hang = new CountDownLatch(1);
+  }
+
+  void release() {
+    CountDownLatch latch = hang;
+    if (latch != null) {
+      latch.countDown();
+    }
+  }
+
+  /**
+   * @return number of events sent with the events parameter, events of bulk requests are not counted
+   */
+  int countEvents() throws Exception {
+    int count = 0;
+    for (String request : requests) {
+      String events = param(request, "events");
+      if (events != null) {
+        count += new JSONArray(events).length();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Waits until the server got the given number of requests.
+   *
+   * @return false if it got fewer within the timeout
+   */
+  boolean awaitRequests(int count, long timeoutMillis) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    while (requests.size() < count) {
+      if (System.currentTimeMillis() > deadline) {
+        return false;
+      }
+      Thread.sleep(10);
+    }
+    return true;
+  }
+
+  static String param(String request, String name) throws Exception {
+    for (String pair : request.split("&")) {
+      if (pair.startsWith(name + "=")) {
+        return URLDecoder.decode(pair.substring(name.length() + 1), "UTF-8");
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Asserts that the request ends with the SHA-1 checksum of the parameters before it.
+   */
+  static void assertChecksum(String request) throws Exception {
+    int idx = request.indexOf("&checksum=");
+    assertEquals(hash("SHA-1", request.substring(0, idx)),
+        request.substring(idx + "&checksum=".length()));
+  }
+
+  static String hash(String algorithm, String data) throws Exception {
+    byte[] hash = MessageDigest.getInstance(algorithm).digest(data.getBytes("UTF-8"));
+    StringBuilder hex = new StringBuilder();
+    for (byte b : hash) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  private static String slurp(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int len;
+    while ((len = in.read(buffer)) != -1) {
+      out.write(buffer, 0, len);
+    }
+    return out.toString("UTF-8");
+  }
+}
@@ -0,0 +1,66 @@
+package iboxchain;
+
+import com.iboxchain.utils.TimeContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class TimeContextTest {
+
+  private TimeZone defaultZone;
+
+  @Before
+  public void setup() {
+    defaultZone = TimeZone.getDefault();
+  }
+
+  @After
+  public void tearDown() {
+    TimeZone.setDefault(defaultZone);
+  }
+
+  @Test
+  public void matchesCalendar() {
+    TimeZone.setDefault(TimeZone.getTimeZone("Asia/Kolkata"));
+    long start = 1700000000000L;
+    // every 7 minutes over three days, crossing hour and day boundaries
+    for (long ms = start; ms < start + 3 * 24 * 3600 * 1000L; ms += 7 * 60 * 1000 + 13) {
+      assertContext(ms);
+      assertContext(ms + 1);
+    }
+  }
+
+  @Test
+  public void followsDaylightSavingTime() {
+    TimeZone.setDefault(TimeZone.getTimeZone("Europe/Berlin"));
+    // 2023-03-26 00:30 UTC, two hours around the switch to summer time
+    long start = 1679790600000L;
+    for (long ms = start; ms < start + 2 * 3600 * 1000L; ms += 60 * 1000) {
+      assertContext(ms);
+    }
+  }
+
+  @Test
+  public void picksUpTimezoneChange() {
+    long ms = 1700000000000L;
+    TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+    assertEquals(0, TimeContext.of(ms).getTimezoneOffset());
+
+    TimeZone.setDefault(TimeZone.getTimeZone("Asia/Tokyo"));
+    assertEquals(9 * 60, TimeContext.of(ms + 61 * 1000).getTimezoneOffset());
+  }
+
+  private static void assertContext(long ms) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.setTimeInMillis(ms);
+    TimeContext context = TimeContext.of(ms);
+    assertEquals(calendar.get(Calendar.HOUR_OF_DAY), context.getHour());
+    assertEquals(calendar.get(Calendar.DAY_OF_WEEK) - 1, context.getDayOfWeek());
+    assertEquals(TimeZone.getDefault().getOffset(ms) / 60000, context.getTimezoneOffset());
+  }
+}
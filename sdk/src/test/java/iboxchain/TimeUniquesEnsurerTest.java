@@ -0,0 +1,79 @@
+package iboxchain;
+
+import com.iboxchain.TimeUniquesEnsurer;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class TimeUniquesEnsurerTest {
+
+  @Test
+  public void uniqueAcrossThreads() throws InterruptedException {
+    final TimeUniquesEnsurer ensurer = new TimeUniquesEnsurer();
+    final int threads = 8;
+    final int perThread = 20000;
+    final long[][] results = new long[threads][perThread];
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final long[] result = results[t];
+      workers[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int i = 0; i < perThread; i++) {
+            result[i] = ensurer.uniqueTimestamp();
+          }
+        }
+      });
+      workers[t].start();
+    }
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+
+    Set<Long> seen = new HashSet<Long>();
+    for (long[] result : results) {
+      for (int i = 0; i < perThread; i++) {
+        assertTrue(seen.add(result[i]));
+        if (i > 0) {
+          assertTrue(result[i] > result[i - 1]);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void handlesClockRegression() {
+    final long[] clock = {100000};
+    TimeUniquesEnsurer ensurer = new TimeUniquesEnsurer() {
+      @Override
+      protected long currentTimeMillis() {
+        return clock[0];
+      }
+    };
+    assertEquals(100000, ensurer.uniqueTimestamp());
+    assertEquals(100001, ensurer.uniqueTimestamp());
+
+    // small step back, stay unique
+    clock[0] = 99990;
+    assertEquals(100002, ensurer.uniqueTimestamp());
+
+    // clock was set back, follow it
+    clock[0] = 50000;
+    assertEquals(50000, ensurer.uniqueTimestamp());
+    assertEquals(50001, ensurer.uniqueTimestamp());
+
+    clock[0] = 60000;
+    assertEquals(60000, ensurer.uniqueTimestamp());
+  }
+}